@@ -22,12 +22,20 @@ public class CachedFeatureVectorIndexWrapperIndriImpl extends IndexWrapperIndriI
 						}
 					});	
 
+	private final String pathToIndex;
+
 	public CachedFeatureVectorIndexWrapperIndriImpl(String pathToIndex) {
 		super(pathToIndex);
+		this.pathToIndex = pathToIndex;
 	}
 	
 	public CachedFeatureVectorIndexWrapperIndriImpl(String pathToIndex, Stopper stopper) {
 		super(pathToIndex, stopper);
+		this.pathToIndex = pathToIndex;
+	}
+
+	public String getPathToIndex() {
+		return pathToIndex;
 	}
 	
 	public FeatureVector getDocVector(int docID, Stopper stopper) {
@@ -50,7 +58,8 @@ public class CachedFeatureVectorIndexWrapperIndriImpl extends IndexWrapperIndriI
 		return getDocVector(getDocId(docno), stopper);
 	}
 	
-	private FeatureVector getDocVectorFromIndex(int docID, Stopper stopper) {
+	// The cache may load several vectors at once, but the QueryEnvironment underneath is not thread-safe
+	private synchronized FeatureVector getDocVectorFromIndex(int docID, Stopper stopper) {
 		IndriDocument doc = new IndriDocument((QueryEnvironment)super.getActualIndex());
 		return doc.getFeatureVector(docID, stopper);
 	}
@@ -1,13 +1,19 @@
 package edu.gslis.scoring.expansion;
 
 import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.queries.GQuery;
 import edu.gslis.scoring.DirichletDocScorer;
 import edu.gslis.scoring.DocScorer;
-import edu.gslis.scoring.InterpolatedDocScorer;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
 import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.ExpansionFanOut;
 import org.retrievable.document_expansion.scoring.ExpansionDocScorer;
+import org.retrievable.document_expansion.scoring.FixedWeightInterpolatedScorer;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,6 +22,13 @@ public class ExpandedRM1Builder extends StandardRM1Builder {
     private int numExpansionDocs;
     private List<DocumentExpander> documentExpanders;
     private List<Double> interpolationWeights; // when null (default), standard RM1
+    private ExpansionFanOut expansionFanOut;
+    private List<CollectionStats> expansionCollectionStats; // when null (default), each scorer reads its own index's
+
+    // Weight-independent component scorers, kept (with their caches) across weight changes
+    private final DocScorer originalScorer = new DirichletDocScorer(collectionStats);
+    private final DocScorer zeroMuOriginalScorer = new DirichletDocScorer(0, collectionStats);
+    private final Map<DocumentExpander, ExpansionDocScorer> expansionScorers = new IdentityHashMap<>();
 
     public ExpandedRM1Builder(CollectionStats collectionStats, List<DocumentExpander> documentExpanders, int numExpansionDocs) {
         this(StandardRM1Builder.DEFAULT_FEEDBACK_DOCS, StandardRM1Builder.DEFAULT_FEEDBACK_TERMS, collectionStats, documentExpanders, numExpansionDocs);
@@ -27,14 +40,52 @@ public class ExpandedRM1Builder extends StandardRM1Builder {
         this.numExpansionDocs = numExpansionDocs;
     }
 
+    /**
+     * @param expansionFanOut Expands the feedback documents against every expansion index before the model is built,
+     *                        or null (the default) to expand each document against each index as it is scored. The
+     *                        caller keeps ownership of the fan-out and closes it.
+     */
+    public void setExpansionFanOut(ExpansionFanOut expansionFanOut) {
+        this.expansionFanOut = expansionFanOut;
+    }
+
+    /**
+     * @param expansionCollectionStats Statistics of each expander's index, in the order of the expanders, shared by every
+     *                                 scorer of that index, e.g. from CollectionStatsSnapshot.open. Null, or a null
+     *                                 entry, leaves the scorer to read statistics from the index itself.
+     */
+    public void setExpansionCollectionStats(List<CollectionStats> expansionCollectionStats) {
+        this.expansionCollectionStats = expansionCollectionStats;
+        // Scorers built so far read the old statistics
+        expansionScorers.clear();
+        if (interpolationWeights != null) {
+            createDocScorers();
+        }
+    }
+
     public void setInterpolationWeights(List<Double> interpolationWeights) {
-        // Check whether we're actually changing the values of the weigths and only recreate the doc scorers if so
+        // Check whether we're actually changing the values of the weigths and only reweight the doc scorers if so
         if (this.interpolationWeights != interpolationWeights) {
             this.interpolationWeights = interpolationWeights;
             createDocScorers();
         }
     }
 
+    @Override
+    public FeatureVector buildRelevanceModel(GQuery query, SearchHits initialHits, Stopper stopper) {
+        expandFeedbackDocuments(initialHits);
+        return super.buildRelevanceModel(query, initialHits, stopper);
+    }
+
+    /**
+     * Expand the feedback documents up front through the fan-out, if there is one and the model uses expansions.
+     */
+    protected void expandFeedbackDocuments(SearchHits feedbackDocs) {
+        if (interpolationWeights != null && expansionFanOut != null) {
+            expansionFanOut.expandDocuments(feedbackDocs, numExpansionDocs);
+        }
+    }
+
     @Override
     protected void createDocScorers() {
         if (interpolationWeights == null) {
@@ -42,23 +93,34 @@ public class ExpandedRM1Builder extends StandardRM1Builder {
             // super.createDocScorers method will create).
             super.createDocScorers();
         } else {
-            double originalLMWeight = interpolationWeights.get(0);
+            // The components keep their caches across weight changes; only the weights over them are replaced
+            List<DocScorer> mu2500Scorers = new ArrayList<>();
+            mu2500Scorers.add(originalScorer);
 
-            Map<DocScorer, Double> mu2500Scorers = new HashMap<>();
-            mu2500Scorers.put(new DirichletDocScorer(collectionStats), originalLMWeight);
-
-            Map<DocScorer, Double> mu0Scorers = new HashMap<>();
-            mu0Scorers.put(new DirichletDocScorer(0, collectionStats), originalLMWeight);
+            List<DocScorer> mu0Scorers = new ArrayList<>();
+            mu0Scorers.add(zeroMuOriginalScorer);
 
             for (int i = 1; i < interpolationWeights.size(); i++) {
-                double weight = interpolationWeights.get(i);
-                mu2500Scorers.put(new ExpansionDocScorer(documentExpanders.get(i - 1), numExpansionDocs), weight);
-                mu0Scorers.put(new ExpansionDocScorer(documentExpanders.get(i - 1), numExpansionDocs), weight);
+                CollectionStats expansionStats = expansionCollectionStats != null && i - 1 < expansionCollectionStats.size()
+                        ? expansionCollectionStats.get(i - 1) : null;
+                ExpansionDocScorer expansionScorer = expansionScorers.computeIfAbsent(documentExpanders.get(i - 1),
+                        expander -> createExpansionScorer(expander, expansionStats));
+                mu2500Scorers.add(expansionScorer);
+                mu0Scorers.add(expansionScorer);
             }
 
-            docScorer = new InterpolatedDocScorer(mu2500Scorers);
-            zeroMuDocScorer = new InterpolatedDocScorer(mu0Scorers);
+            docScorer = new FixedWeightInterpolatedScorer(mu2500Scorers, interpolationWeights);
+            zeroMuDocScorer = new FixedWeightInterpolatedScorer(mu0Scorers, interpolationWeights);
+        }
+    }
+
+    private ExpansionDocScorer createExpansionScorer(DocumentExpander expander, CollectionStats expansionStats) {
+        if (expansionStats == null) {
+            return new ExpansionDocScorer(expander, numExpansionDocs);
         }
+        ExpansionDocScorer expansionScorer = new ExpansionDocScorer(2500, expander, expansionStats);
+        expansionScorer.setNumDocs(numExpansionDocs);
+        return expansionScorer;
     }
 
 }
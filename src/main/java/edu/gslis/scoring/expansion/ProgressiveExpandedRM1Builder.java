@@ -0,0 +1,131 @@
+package edu.gslis.scoring.expansion;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.lms.TermAccumulator;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An ExpandedRM1Builder that builds the relevance models of several feedback depths in one pass over the deepest
+ * feedback set.
+ *
+ * Feedback documents are added to a running sum in rank order, each weighted by its query likelihood, and the sum is
+ * snapshotted at each requested depth. A document that brings new terms into the vocabulary also has those terms
+ * scored against the documents before it, so every (document, term) pair is scored exactly once and each snapshot
+ * equals the model built from scratch at that depth.
+ */
+public class ProgressiveExpandedRM1Builder extends ExpandedRM1Builder {
+
+    private int feedbackDocs;
+    private final int feedbackTerms;
+
+    // The running sum, reused across calls
+    private final TermAccumulator termScores = new TermAccumulator(4096);
+
+    public ProgressiveExpandedRM1Builder(int feedbackDocs, int feedbackTerms, CollectionStats collectionStats,
+                                         List<DocumentExpander> documentExpanders, int numExpansionDocs) {
+        super(feedbackDocs, feedbackTerms, collectionStats, documentExpanders, numExpansionDocs);
+        this.feedbackDocs = feedbackDocs;
+        this.feedbackTerms = feedbackTerms;
+    }
+
+    @Override
+    public void setFeedbackDocs(int feedbackDocs) {
+        super.setFeedbackDocs(feedbackDocs);
+        this.feedbackDocs = feedbackDocs;
+    }
+
+    /**
+     * Unlike the standard builder, this leaves initialHits as it was rather than cropping it.
+     */
+    @Override
+    public FeatureVector buildRelevanceModel(GQuery query, SearchHits initialHits, Stopper stopper) {
+        return buildRelevanceModels(query, initialHits, stopper, Collections.singleton(feedbackDocs)).get(feedbackDocs);
+    }
+
+    /**
+     * @param initialHits The feedback documents, deepest set; left as it was
+     * @param depths The numbers of feedback documents to build models for
+     * @return Each depth's relevance model, clipped to the feedback terms and normalized. The models are independent
+     *         of each other, so each can be clipped in place.
+     */
+    public Map<Integer, FeatureVector> buildRelevanceModels(GQuery query, SearchHits initialHits, Stopper stopper,
+                                                            Collection<Integer> depths) {
+        TreeSet<Integer> sortedDepths = new TreeSet<>(depths);
+        int maxDepth = Math.min(sortedDepths.last(), initialHits.size());
+
+        SearchHits feedback = new SearchHits();
+        for (int i = 0; i < maxDepth; i++) {
+            feedback.add(initialHits.getHit(i));
+        }
+        expandFeedbackDocuments(feedback);
+
+        String[] queryTerms = query.getFeatureVector().getFeatures().toArray(new String[0]);
+        double[] queryWeights = new double[queryTerms.length];
+        for (int t = 0; t < queryTerms.length; t++) {
+            queryWeights[t] = query.getFeatureVector().getFeatureWeight(queryTerms[t]);
+        }
+
+        termScores.clear();
+        double[] docWeights = new double[maxDepth];
+
+        Map<Integer, FeatureVector> models = new HashMap<>();
+        for (int k = 0; k < maxDepth; k++) {
+            SearchHit doc = feedback.getHit(k);
+
+            double logLikelihood = 0;
+            for (int t = 0; t < queryTerms.length; t++) {
+                logLikelihood += queryWeights[t] * Math.log(docScorer.scoreTerm(queryTerms[t], doc));
+            }
+            docWeights[k] = Math.exp(logLikelihood);
+
+            // Terms new to the vocabulary: backfill the documents already summed
+            for (String term : doc.getFeatureVector().getFeatures()) {
+                if (stopper != null && stopper.isStopWord(term)) {
+                    continue;
+                }
+                int vocabularySize = termScores.size();
+                int id = termScores.intern(term);
+                if (id < vocabularySize) {
+                    continue;
+                }
+                for (int j = 0; j < k; j++) {
+                    termScores.addAt(id, docWeights[j] * zeroMuDocScorer.scoreTerm(term, feedback.getHit(j)));
+                }
+            }
+
+            // This document over the whole vocabulary so far
+            for (int id = 0; id < termScores.size(); id++) {
+                termScores.addAt(id, docWeights[k] * zeroMuDocScorer.scoreTerm(termScores.term(id), doc));
+            }
+
+            if (sortedDepths.contains(k + 1)) {
+                models.put(k + 1, snapshot());
+            }
+        }
+
+        // Depths past the end of the feedback set get the model of the whole set, as cropping would
+        for (int depth : sortedDepths.tailSet(maxDepth, false)) {
+            models.put(depth, snapshot());
+        }
+        return models;
+    }
+
+    private FeatureVector snapshot() {
+        FeatureVector model = termScores.topK(feedbackTerms);
+        model.normalize();
+        return model;
+    }
+
+}
@@ -0,0 +1,33 @@
+package org.retrievable.document_expansion.expansion;
+
+/**
+ * Expansion documents together with the depth they were retrieved to, so that any prefix can be served from them.
+ */
+class CachedExpansion {
+
+    private final int depth;
+    private final ExpansionList expansionDocs;
+
+    CachedExpansion(int depth, ExpansionList expansionDocs) {
+        this.depth = depth;
+        this.expansionDocs = expansionDocs;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    ExpansionList getExpansionDocs() {
+        return expansionDocs;
+    }
+
+    /**
+     * @param numDocs The number of expansion documents wanted
+     * @return True if the top numDocs are all here. An expansion that came back shorter than its depth already holds
+     * every match the index has.
+     */
+    boolean covers(int numDocs) {
+        return numDocs <= depth || expansionDocs.size() < depth;
+    }
+
+}
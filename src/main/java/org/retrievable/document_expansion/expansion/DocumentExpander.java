@@ -1,5 +1,6 @@
 package org.retrievable.document_expansion.expansion;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -7,10 +8,12 @@ import edu.gslis.indexes.IndexWrapper;
 import edu.gslis.queries.GQuery;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
-import edu.gslis.textrepresentation.FeatureVector;
 import edu.gslis.utils.Stopper;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class DocumentExpander {
 	
@@ -18,15 +21,17 @@ public class DocumentExpander {
 	protected int maxNumDocs;
 	protected Stopper stopper;
 	protected IndexWrapper index;
+	protected ExpansionStore expansionStore;
+	protected RetrievalPool retrievalPool;
 
-	private LoadingCache<SearchHit, SearchHits> expandedDocs = CacheBuilder.newBuilder()
+	private final PseudoQueryBuilder pseudoQueryBuilder;
+
+	// Hits of each whole expansion, built once so that their vectors are loaded once however many prefixes are asked for.
+	// Keyed by the cached list's identity, so an entry lasts as long as the expansion does.
+	private Cache<ExpansionList, SearchHits> expansionHits = CacheBuilder.newBuilder()
+			.weakKeys()
 			.softValues()
-			.build(
-					new CacheLoader<SearchHit, SearchHits>() {
-						public SearchHits load(SearchHit document) {
-							return expandDocumentByRetrieval(document, maxNumDocs);
-						}
-					});
+			.build();
 
 	private LoadingCache<SearchHit, GQuery> pseudoQueries = CacheBuilder.newBuilder()
 			.maximumSize(10)
@@ -48,6 +53,7 @@ public class DocumentExpander {
 	public DocumentExpander(IndexWrapper index, int numTerms, Stopper stopper) {
 	    this.numTerms = numTerms;
 		this.stopper = stopper;
+		this.pseudoQueryBuilder = new PseudoQueryBuilder(numTerms, stopper);
 		setIndex(index);
 	}
 
@@ -63,10 +69,52 @@ public class DocumentExpander {
 		return numTerms;
 	}
 
+	public ExpansionStore getExpansionStore() {
+		return expansionStore;
+	}
+
+	/**
+	 * Back this expander with a store that is consulted before, and filled after, retrieval.
+	 * @param expansionStore A store created for this expander's index, number of terms and stoplist
+	 */
+	public void setExpansionStore(ExpansionStore expansionStore) {
+		this.expansionStore = expansionStore;
+	}
+
+	public RetrievalPool getRetrievalPool() {
+		return retrievalPool;
+	}
+
+	/**
+	 * Spread the retrievals of {@link #expandDocuments(SearchHits, int)} over a pool of worker threads.
+	 * @param retrievalPool A pool over the same index as this expander's
+	 */
+	public void setRetrievalPool(RetrievalPool retrievalPool) {
+		this.retrievalPool = retrievalPool;
+	}
+
+	/**
+	 * Set the depth expansions are retrieved to. Every request for fewer documents is served as a prefix of that one
+	 * retrieval, so set this to the largest numDocs a sweep will ask for before expanding anything.
+	 * @param maxNumDocs The largest number of expansion documents that will be requested
+	 */
 	public void setMaxNumDocs(int maxNumDocs) {
 		this.maxNumDocs = maxNumDocs;
 	}
 
+	/**
+	 * Identifies how this expander builds pseudo-queries, so that expanders building them differently do not share
+	 * expansions in the {@link ExpansionRegistry}.
+	 */
+	protected String getPseudoQuerySource() {
+		return getClass().getName();
+	}
+
+	private ExpansionRegistry.Key registryKey(SearchHit document) {
+		return new ExpansionRegistry.Key(ExpansionRegistry.indexKey(index), getPseudoQuerySource(), numTerms, stopper,
+				document.getDocno());
+	}
+
 	public GQuery getPseudoQuery(SearchHit document) {
 		GQuery pseudoQuery;
 		try {
@@ -87,19 +135,23 @@ public class DocumentExpander {
 	    return expandDocument(document, maxNumDocs);
 	}
 
+	/**
+	 * @return The top numDocs expansion documents as hits that are shared between calls, so their vectors are only loaded
+	 * once. Prefer {@link #getExpansionList(SearchHit, int)} where ids and scores are enough.
+	 */
 	public SearchHits expandDocument(SearchHit document, int numDocs) {
-		if (numDocs > maxNumDocs) {
-			setMaxNumDocs(numDocs);
-		}
+		ExpansionList expansionDocs = getExpansionList(document, numDocs);
+		ExpansionList wholeExpansion = expansionDocs.whole();
 
+		SearchHits hits;
 		try {
-            SearchHits expansionDocuments = expandedDocs.get(document);
-            return croppedHits(expansionDocuments, numDocs);
+			hits = expansionHits.get(wholeExpansion, () -> wholeExpansion.toSearchHits(index));
 		} catch (ExecutionException e) {
-			System.err.println("Error getting expanded document " + document.getDocno() + " from the cache.");
+			System.err.println("Error getting expansion hits of document " + document.getDocno() + " from cache. Creating fresh.");
 			e.printStackTrace(System.err);
-			return new SearchHits();
+			hits = wholeExpansion.toSearchHits(index);
 		}
+		return croppedHits(hits, expansionDocs.size());
 	}
 
 	protected SearchHits croppedHits(SearchHits hits, int limit) {
@@ -110,6 +162,122 @@ public class DocumentExpander {
 		return croppedDocs;
 	}
 
+	/**
+	 * Like {@link #expandDocument(SearchHit, int)}, but without building SearchHits. The returned list is immutable and
+	 * shared with the cache.
+	 * @param document The document to expand
+	 * @param numDocs The number of expansion documents wanted
+	 * @return The top numDocs expansion documents
+	 */
+	public ExpansionList getExpansionList(SearchHit document, int numDocs) {
+		if (numDocs > maxNumDocs) {
+			setMaxNumDocs(numDocs);
+		}
+
+		ExpansionRegistry.Key key = registryKey(document);
+		CachedExpansion expansion = ExpansionRegistry.get(key);
+		if (expansion == null || !expansion.covers(numDocs)) {
+			// Never expanded, or cached from before maxNumDocs was raised; retrieve at the current depth
+			int depth = maxNumDocs;
+			expansion = new CachedExpansion(depth, expandDocumentFromStore(document, depth));
+			ExpansionRegistry.put(key, expansion);
+		}
+		return expansion.getExpansionDocs().prefix(numDocs);
+	}
+
+	/**
+	 * Expand every document in a result list, so that later calls to expandDocument are served from the cache. This
+	 * doubles as a warm-up: call it with the largest numDocs of a sweep and each document is retrieved exactly once.
+	 *
+	 * With a retrieval pool set, the pseudo-query retrievals run concurrently on the pool's workers; otherwise the
+	 * documents are expanded one at a time on the calling thread. Either way, this returns once all are cached.
+	 * @param documents The documents to expand, e.g. the initial results for a query
+	 * @param numDocs The number of expansion documents that will be needed per document
+	 */
+	public void expandDocuments(SearchHits documents, int numDocs) {
+		startExpansions(documents, numDocs).run();
+	}
+
+	/**
+	 * The first half of {@link #expandDocuments(SearchHits, int)}: hand every retrieval to the retrieval pool, if there
+	 * is one, and return the second half, which waits for the retrievals and caches them. Lets an
+	 * {@link ExpansionFanOut} start every expander's retrievals before it waits for any of them.
+	 *
+	 * Must be called on the thread that owns the original documents' index. The returned task may run on another
+	 * thread, as long as it is the only one using this expander's index and the documents' vectors are already loaded.
+	 * @return A task that returns once every document is cached
+	 */
+	public Runnable startExpansions(SearchHits documents, int numDocs) {
+		if (numDocs > maxNumDocs) {
+			setMaxNumDocs(numDocs);
+		}
+
+		if (retrievalPool == null) {
+			return () -> {
+				for (SearchHit document : documents) {
+					getExpansionList(document, numDocs);
+				}
+			};
+		}
+
+		int depth = maxNumDocs;
+		Map<ExpansionRegistry.Key, Future<ExpansionList>> retrievals = new LinkedHashMap<>();
+		for (SearchHit document : documents) {
+			ExpansionRegistry.Key key = registryKey(document);
+			CachedExpansion cached = ExpansionRegistry.get(key);
+			if ((cached != null && cached.covers(depth)) || retrievals.containsKey(key)) {
+				continue;
+			}
+
+			if (expansionStore != null) {
+				ExpansionList stored = expansionStore.get(document.getDocno(), depth);
+				if (stored != null) {
+					ExpansionRegistry.put(key, new CachedExpansion(depth, stored));
+					continue;
+				}
+			}
+
+			// Build the pseudo-query here, since the original document is bound to an index owned by this thread. Only
+			// ids and scores leave the worker, so nothing bound to its copy of the index escapes.
+			GQuery pseudoQuery = getPseudoQuery(document);
+			retrievals.put(key, retrievalPool.submit(workerIndex -> ExpansionList.of(workerIndex.runQuery(pseudoQuery, depth))));
+		}
+
+		return () -> {
+			for (Map.Entry<ExpansionRegistry.Key, Future<ExpansionList>> retrieval : retrievals.entrySet()) {
+				ExpansionRegistry.Key key = retrieval.getKey();
+				String docno = key.getDocno();
+				try {
+					ExpansionList expansionDocs = retrieval.getValue().get();
+					if (expansionStore != null) {
+						expansionStore.put(docno, depth, expansionDocs);
+					}
+					ExpansionRegistry.put(key, new CachedExpansion(depth, expansionDocs));
+				} catch (InterruptedException | ExecutionException e) {
+					System.err.println("Error expanding document " + docno + " in the retrieval pool. It will be expanded on demand.");
+					e.printStackTrace(System.err);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Get the expansion documents from the expansion store if it holds them deeply enough, otherwise retrieve them and
+	 * add them to the store.
+	 */
+	protected ExpansionList expandDocumentFromStore(SearchHit document, int numDocs) {
+		if (expansionStore == null) {
+			return ExpansionList.of(expandDocumentByRetrieval(document, numDocs));
+		}
+
+		ExpansionList expansionDocs = expansionStore.get(document.getDocno(), numDocs);
+		if (expansionDocs == null) {
+			expansionDocs = ExpansionList.of(expandDocumentByRetrieval(document, numDocs));
+			expansionStore.put(document.getDocno(), numDocs, expansionDocs);
+		}
+		return expansionDocs;
+	}
+
 	public SearchHits expandDocumentByRetrieval(SearchHit document, int numDocs) {
 		GQuery pseudoQuery = this.getPseudoQuery(document);
 
@@ -119,18 +287,8 @@ public class DocumentExpander {
 	}
 
 	public GQuery createDocumentPseudoQuery(SearchHit document) {
-		GQuery docPseudoQuery = new GQuery();
-
-		// We need to copy the document vector so we don't cause mutations with side effects when we clip it
-		FeatureVector docVector = document.getFeatureVector().deepCopy();
-		docPseudoQuery.setFeatureVector(docVector);
-
-		if (stopper != null) {
-			docPseudoQuery.applyStopper(stopper);
-		}
-		docPseudoQuery.getFeatureVector().clip(numTerms);
-
-		return docPseudoQuery;
+		// Selects the top terms without copying, stopping or sorting the whole document vector
+		return pseudoQueryBuilder.build(document.getFeatureVector());
 	}
 
 }
@@ -8,18 +8,39 @@ import edu.gslis.utils.Stopper;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
 public class DocumentExpanderWithPremadePseudoQueries extends DocumentExpander {
     private Map<String, Map<String, Double>> pseudoQueries = new HashMap<>();
+    private List<PseudoQueryStore> pseudoQueryStores = new ArrayList<>();
+    private String pseudoQueriesPath = "";
 
     public DocumentExpanderWithPremadePseudoQueries(IndexWrapper index, int numTerms, Stopper stopper) {
         super(index, numTerms, stopper);
     }
 
+    /**
+     * Load premade pseudo-queries, either from a {@link PseudoQueryStore} (memory-mapped and decoded on lookup) or from
+     * a CSV of docno,term,weight lines (read entirely into memory).
+     */
     public void readPremadePseudoQueries(String path) {
+        pseudoQueriesPath += path + ";";
+
+        if (PseudoQueryStore.isPseudoQueryStore(path)) {
+            try {
+                pseudoQueryStores.add(new PseudoQueryStore(path));
+            } catch (IOException e) {
+                System.err.println(path + " could not be opened. Your program is probably about to crash.");
+                e.printStackTrace(System.err);
+            }
+            return;
+        }
+
         try {
             Scanner scanner = new Scanner(new File(path));
             while (scanner.hasNextLine()) {
@@ -39,12 +60,27 @@ public class DocumentExpanderWithPremadePseudoQueries extends DocumentExpander {
         }
     }
 
+    @Override
+    protected String getPseudoQuerySource() {
+        return super.getPseudoQuerySource() + ":" + pseudoQueriesPath;
+    }
+
     @Override
     public GQuery createDocumentPseudoQuery(SearchHit document) {
-        FeatureVector vector = new FeatureVector(this.stopper);
-        Map<String, Double> pseudoVector = pseudoQueries.get(document.getDocno());
-        for (String term : pseudoVector.keySet()) {
-            vector.setTerm(term, pseudoVector.get(term));
+        FeatureVector vector = null;
+        for (PseudoQueryStore store : pseudoQueryStores) {
+            vector = store.getPseudoQueryVector(document.getDocno(), this.stopper);
+            if (vector != null) {
+                break;
+            }
+        }
+
+        if (vector == null) {
+            vector = new FeatureVector(this.stopper);
+            Map<String, Double> pseudoVector = pseudoQueries.get(document.getDocno());
+            for (String term : pseudoVector.keySet()) {
+                vector.setTerm(term, pseudoVector.get(term));
+            }
         }
 
         GQuery pseudoQuery = new GQuery();
@@ -0,0 +1,77 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Expands documents against several expansion indexes at once, so that warming up takes as long as the slowest index
+ * rather than the sum of all of them.
+ *
+ * Each expander keeps its own workers: its retrieval pool if it has one, otherwise a thread of this fan-out that it
+ * has to itself. Expanders must therefore not share an index.
+ */
+public class ExpansionFanOut implements Closeable {
+
+    private static final AtomicInteger fanOutCount = new AtomicInteger();
+
+    private final List<? extends DocumentExpander> docExpanders;
+    private final ExecutorService executor;
+
+    public ExpansionFanOut(List<? extends DocumentExpander> docExpanders) {
+        this.docExpanders = docExpanders;
+
+        int fanOutNumber = fanOutCount.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(docExpanders.size(), 1), runnable -> {
+            Thread thread = new Thread(runnable, "expansion-fanout-" + fanOutNumber + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Expand every document with every expander and return once all of them are cached.
+     * @see DocumentExpander#expandDocuments(SearchHits, int)
+     */
+    public void expandDocuments(SearchHits documents, int numDocs) {
+        // Pseudo-queries are built from the original documents' vectors, which load through an index owned by this
+        // thread. Load them all here so the other threads only ever read them.
+        for (SearchHit document : documents) {
+            document.getFeatureVector();
+        }
+
+        List<Runnable> joins = new ArrayList<>();
+        for (DocumentExpander docExpander : docExpanders) {
+            joins.add(docExpander.startExpansions(documents, numDocs));
+        }
+
+        List<Future<?>> expansions = new ArrayList<>();
+        for (Runnable join : joins) {
+            expansions.add(executor.submit(join));
+        }
+
+        for (Future<?> expansion : expansions) {
+            try {
+                expansion.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Error expanding against one of the expansion indexes. Its documents will be expanded on demand.");
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+}
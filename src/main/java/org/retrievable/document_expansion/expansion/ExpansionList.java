@@ -0,0 +1,109 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.searchhits.IndexBackedSearchHit;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+
+/**
+ * An immutable, ranked list of expansion documents: expansion index document ids and their retrieval scores.
+ *
+ * Lists are backed by primitive arrays that are never written after construction, so they can be cached and shared
+ * freely. A prefix is a view over the same arrays.
+ */
+public final class ExpansionList {
+
+    public static final ExpansionList EMPTY = new ExpansionList(new int[0], new float[0]);
+
+    private final int[] docIds;
+    private final float[] scores;
+    private final int size;
+    // The list this is a prefix of, or this list itself
+    private final ExpansionList whole;
+
+    /**
+     * @param docIds Expansion document ids in rank order. The list takes ownership of the array.
+     * @param scores Retrieval scores aligned with docIds. The list takes ownership of the array.
+     */
+    public ExpansionList(int[] docIds, float[] scores) {
+        this(docIds, scores, docIds.length, null);
+    }
+
+    private ExpansionList(int[] docIds, float[] scores, int size, ExpansionList whole) {
+        if (docIds.length != scores.length) {
+            throw new IllegalArgumentException("Got " + docIds.length + " document ids but " + scores.length + " scores");
+        }
+        this.docIds = docIds;
+        this.scores = scores;
+        this.size = size;
+        this.whole = whole == null ? this : whole;
+    }
+
+    /**
+     * Copy the ids and scores out of retrieved hits.
+     */
+    public static ExpansionList of(SearchHits hits) {
+        int[] docIds = new int[hits.size()];
+        float[] scores = new float[hits.size()];
+        for (int i = 0; i < docIds.length; i++) {
+            SearchHit hit = hits.getHit(i);
+            docIds[i] = hit.getDocID();
+            scores[i] = (float) hit.getScore();
+        }
+        return new ExpansionList(docIds, scores);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getDocId(int i) {
+        checkIndex(i);
+        return docIds[i];
+    }
+
+    public float getScore(int i) {
+        checkIndex(i);
+        return scores[i];
+    }
+
+    /**
+     * @param numDocs The number of top documents wanted
+     * @return The top numDocs documents, sharing this list's arrays, or this list itself if it is no longer than that
+     */
+    public ExpansionList prefix(int numDocs) {
+        if (numDocs >= size) {
+            return this;
+        }
+        return new ExpansionList(docIds, scores, Math.max(numDocs, 0), whole);
+    }
+
+    /**
+     * @return The list this is a prefix of, or this list itself. Every prefix of one list returns the same instance.
+     */
+    ExpansionList whole() {
+        return whole;
+    }
+
+    /**
+     * @param index The expansion index the document ids refer to
+     * @return New SearchHits for callers that need full hits, e.g. to read the expansion documents' vectors
+     */
+    public SearchHits toSearchHits(IndexWrapper index) {
+        SearchHits hits = new SearchHits();
+        for (int i = 0; i < size; i++) {
+            SearchHit hit = new IndexBackedSearchHit(index);
+            hit.setDocID(docIds[i]);
+            hit.setScore(scores[i]);
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for expansion list of size " + size);
+        }
+    }
+
+}
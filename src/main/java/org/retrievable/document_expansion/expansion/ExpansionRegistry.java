@@ -0,0 +1,93 @@
+package org.retrievable.document_expansion.expansion;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl;
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.utils.Stopper;
+
+import java.util.Objects;
+
+/**
+ * Process-wide cache of expansions, shared by every DocumentExpander.
+ *
+ * Entries are keyed by everything that determines an expansion: the expansion index, how pseudo-queries are built
+ * (expander type and number of terms), the stoplist and the original document. Expanders that are created per document
+ * or per query therefore still reuse what earlier expanders retrieved.
+ */
+public class ExpansionRegistry {
+
+    private static final Cache<Key, CachedExpansion> expansions = CacheBuilder.newBuilder()
+            .softValues()
+            .build();
+
+    static CachedExpansion get(Key key) {
+        return expansions.getIfPresent(key);
+    }
+
+    static void put(Key key, CachedExpansion expansion) {
+        expansions.put(key, expansion);
+    }
+
+    /**
+     * Drop every cached expansion in the process.
+     */
+    public static void clear() {
+        expansions.invalidateAll();
+    }
+
+    /**
+     * Identify an index across IndexWrapper instances by its path where we know it, otherwise by the instance itself.
+     */
+    static String indexKey(IndexWrapper index) {
+        if (index instanceof CachedFeatureVectorIndexWrapperIndriImpl) {
+            return ((CachedFeatureVectorIndexWrapperIndriImpl) index).getPathToIndex();
+        }
+        return index.getClass().getName() + "@" + System.identityHashCode(index);
+    }
+
+    static final class Key {
+
+        private final String index;
+        private final String pseudoQuerySource;
+        private final int numTerms;
+        private final Stopper stopper;
+        private final String docno;
+
+        Key(String index, String pseudoQuerySource, int numTerms, Stopper stopper, String docno) {
+            this.index = index;
+            this.pseudoQuerySource = pseudoQuerySource;
+            this.numTerms = numTerms;
+            this.stopper = stopper;
+            this.docno = docno;
+        }
+
+        String getDocno() {
+            return docno;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            // Stoplists are compared by identity; callers share one Stopper per stoplist
+            return numTerms == other.numTerms &&
+                    stopper == other.stopper &&
+                    index.equals(other.index) &&
+                    pseudoQuerySource.equals(other.pseudoQuerySource) &&
+                    docno.equals(other.docno);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, pseudoQuerySource, numTerms, System.identityHashCode(stopper), docno);
+        }
+
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.retrievable.document_expansion.expansion;
+
+/**
+ * A backing store for expansion results, consulted by a DocumentExpander before it retrieves from the index.
+ *
+ * Entries are keyed by the docno of the original document. Each entry remembers how deep it was retrieved, so that any
+ * prefix of it can be served without another retrieval.
+ */
+public interface ExpansionStore {
+
+    /**
+     * @param docno The docno of the original document
+     * @param numDocs The number of expansion documents wanted
+     * @return The top numDocs expansion documents, or null if the document was never stored or was stored too shallow
+     */
+    ExpansionList get(String docno, int numDocs);
+
+    /**
+     * @param docno The docno of the original document
+     * @return Every expansion document stored for the document, however deep it was retrieved, or null if it was
+     * never stored
+     */
+    ExpansionList get(String docno);
+
+    /**
+     * @param docno The docno of the original document
+     * @param depth The number of expansion documents that were requested from the index
+     * @param expansionDocs The expansion documents the index returned, in rank order
+     */
+    void put(String docno, int depth, ExpansionList expansionDocs);
+
+}
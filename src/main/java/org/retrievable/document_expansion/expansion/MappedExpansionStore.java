@@ -0,0 +1,293 @@
+package org.retrievable.document_expansion.expansion;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent, memory-mapped ExpansionStore.
+ *
+ * The file is an append-only log of records, one per expanded document:
+ * <pre>
+ *   int     record length (excluding this field)
+ *   short   docno length
+ *   byte[]  docno (UTF-8)
+ *   int     retrieval depth
+ *   int     number of expansion documents, n
+ *   int[n]  expansion document ids
+ *   double[n] expansion document scores
+ * </pre>
+ * A later record for the same docno supersedes an earlier one. Appends happen under an exclusive file lock, so several
+ * processes can share one store; records written by other processes are picked up the next time a lookup misses or
+ * finds a record too shallow. A record left incomplete by a crashed writer is cut off when the store is next opened.
+ * Several stores may be open on one file in the same process too, e.g. for expansion indexes configured with the same
+ * store path.
+ *
+ * There is no on-disk index: opening a store scans every record to build the in-memory docno -> offset map, so opening
+ * takes one pass over the file.
+ *
+ * A store is only meaningful for one combination of expansion index, pseudo-query length and stoplist. Use a separate
+ * file for each.
+ */
+public class MappedExpansionStore implements ExpansionStore, Closeable {
+
+    private static final int MAGIC = 0x44455850; // "DEXP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // Record length of an empty docno with no expansion documents
+    private static final int MIN_RECORD_LENGTH = Short.BYTES + 2 * Integer.BYTES;
+
+    // Keep individual mappings well below the 2GB limit of a MappedByteBuffer
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    // File locks belong to the whole JVM, so two stores on one file in this process must not hold them at the same time:
+    // overlapping requests would throw OverlappingFileLockException rather than wait. Each file's locks are taken
+    // under a monitor shared by every store on that file.
+    private static final Map<String, Object> FILE_MONITORS = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final Object fileMonitor;
+
+    // Region start offset -> mapping of [start, start + capacity)
+    private final TreeMap<Long, MappedByteBuffer> regions = new TreeMap<>();
+    // Docno -> absolute offset of its most recent record
+    private final Map<String, Long> offsets = new HashMap<>();
+    private long indexedUpTo = HEADER_SIZE;
+
+    /**
+     * @param path The store file. It will be created if it does not exist.
+     */
+    public MappedExpansionStore(String path) throws IOException {
+        this.fileMonitor = FILE_MONITORS.computeIfAbsent(new File(path).getCanonicalPath(), file -> new Object());
+        this.channel = FileChannel.open(new File(path).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        initialize(path);
+    }
+
+    /**
+     * @param path Any file
+     * @return True if the file starts like an expansion store, as opposed to e.g. a CSV of expansion documents
+     */
+    public static boolean isExpansionStore(String path) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void initialize(String path) throws IOException {
+        synchronized (fileMonitor) {
+            try (FileLock lock = channel.lock()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                if (channel.size() == 0) {
+                    header.putInt(MAGIC).putInt(VERSION).flip();
+                    writeFully(header, 0);
+                } else {
+                    channel.read(header, 0);
+                    header.flip();
+                    if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                        throw new IOException(path + " is not an expansion store");
+                    }
+                }
+
+                // Nothing can be appending while we hold the lock, so anything past the last whole record is torn
+                long size = channel.size();
+                index(size);
+                if (indexedUpTo < size) {
+                    System.err.println("Truncating " + (size - indexedUpTo) + " bytes of incomplete records from " + path + ".");
+                    channel.truncate(indexedUpTo);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized ExpansionList get(String docno, int numDocs) {
+        Long offset = offsets.get(docno);
+        ExpansionList expansionDocs = offset == null ? null : read(offset, numDocs, false);
+        if (expansionDocs == null) {
+            // Another process may have expanded it, or expanded it deeper, since we last looked
+            try {
+                refresh();
+            } catch (IOException e) {
+                System.err.println("Error reading expansion store. Treating " + docno + " as missing.");
+                e.printStackTrace(System.err);
+                return null;
+            }
+            Long newOffset = offsets.get(docno);
+            if (newOffset != null && !newOffset.equals(offset)) {
+                expansionDocs = read(newOffset, numDocs, false);
+            }
+        }
+        return expansionDocs;
+    }
+
+    @Override
+    public synchronized ExpansionList get(String docno) {
+        ExpansionList expansionDocs = get(docno, Integer.MAX_VALUE);
+        if (expansionDocs == null) {
+            // get has already refreshed, so this is the deepest record there is
+            Long offset = offsets.get(docno);
+            if (offset != null) {
+                expansionDocs = read(offset, Integer.MAX_VALUE, true);
+            }
+        }
+        return expansionDocs;
+    }
+
+    /**
+     * @param partial Whether to serve a record stored shallower than numDocs
+     * @return The top numDocs expansion documents of the record at offset, or null if it was stored too shallow
+     */
+    private ExpansionList read(long offset, int numDocs, boolean partial) {
+        Map.Entry<Long, MappedByteBuffer> region = regions.floorEntry(offset);
+        ByteBuffer record = region.getValue().duplicate();
+        record.position((int) (offset - region.getKey()));
+
+        record.getInt(); // record length
+        short docnoLength = record.getShort();
+        record.position(record.position() + docnoLength); // docno
+        int depth = record.getInt();
+        int count = record.getInt();
+
+        // An entry that came back shorter than it was asked for already holds every match the index has
+        if (!partial && numDocs > depth && count == depth) {
+            return null;
+        }
+
+        int limit = Math.min(numDocs, count);
+        int idsStart = record.position();
+        int scoresStart = idsStart + count * Integer.BYTES;
+
+        int[] docIds = new int[limit];
+        float[] scores = new float[limit];
+        for (int i = 0; i < limit; i++) {
+            docIds[i] = record.getInt(idsStart + i * Integer.BYTES);
+            scores[i] = (float) record.getDouble(scoresStart + i * Double.BYTES);
+        }
+        return new ExpansionList(docIds, scores);
+    }
+
+    @Override
+    public synchronized void put(String docno, int depth, ExpansionList expansionDocs) {
+        byte[] docnoBytes = docno.getBytes(StandardCharsets.UTF_8);
+        int count = expansionDocs.size();
+
+        int recordLength = Short.BYTES + docnoBytes.length + 2 * Integer.BYTES + count * (Integer.BYTES + Double.BYTES);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + recordLength);
+        record.putInt(recordLength);
+        record.putShort((short) docnoBytes.length);
+        record.put(docnoBytes);
+        record.putInt(depth);
+        record.putInt(count);
+        for (int i = 0; i < count; i++) {
+            record.putInt(expansionDocs.getDocId(i));
+        }
+        for (int i = 0; i < count; i++) {
+            record.putDouble(expansionDocs.getScore(i));
+        }
+        record.flip();
+
+        synchronized (fileMonitor) {
+            try (FileLock lock = channel.lock()) {
+                writeFully(record, channel.size());
+            } catch (IOException e) {
+                System.err.println("Error writing expansion of " + docno + " to the expansion store.");
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Map and index any records appended since the last refresh.
+     */
+    private synchronized void refresh() throws IOException {
+        synchronized (fileMonitor) {
+            try (FileLock lock = channel.lock(0, Long.MAX_VALUE, true)) {
+                index(channel.size());
+            }
+        }
+    }
+
+    /**
+     * Map and index the whole records between the last indexed one and size. The caller holds a lock on the file.
+     */
+    private void index(long size) throws IOException {
+        if (size <= indexedUpTo) {
+            return;
+        }
+
+        // Grow the last region rather than adding a new mapping for every few records
+        long regionStart = indexedUpTo;
+        if (!regions.isEmpty()) {
+            Map.Entry<Long, MappedByteBuffer> last = regions.lastEntry();
+            if (indexedUpTo - last.getKey() < MAX_REGION_SIZE) {
+                regionStart = last.getKey();
+                regions.remove(last.getKey());
+            }
+        }
+
+        while (regionStart < size) {
+            long scanFrom = Math.max(regionStart, indexedUpTo);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                    Math.min(size - regionStart, MAX_REGION_SIZE));
+
+            // Only whole records belong to a region
+            int position = (int) (scanFrom - regionStart);
+            while (position + Integer.BYTES <= region.capacity()) {
+                int recordLength = region.getInt(position);
+                if (recordLength < MIN_RECORD_LENGTH || position + Integer.BYTES + recordLength > region.capacity()) {
+                    break;
+                }
+                short docnoLength = region.getShort(position + Integer.BYTES);
+                if (docnoLength < 0 || docnoLength > recordLength - MIN_RECORD_LENGTH) {
+                    break;
+                }
+                int count = region.getInt(position + Integer.BYTES + Short.BYTES + docnoLength + Integer.BYTES);
+                if (recordLength != MIN_RECORD_LENGTH + docnoLength + (long) count * (Integer.BYTES + Double.BYTES)) {
+                    break;
+                }
+                byte[] docno = new byte[docnoLength];
+                ByteBuffer docnoBuffer = region.duplicate();
+                docnoBuffer.position(position + Integer.BYTES + Short.BYTES);
+                docnoBuffer.get(docno);
+                offsets.put(new String(docno, StandardCharsets.UTF_8), regionStart + position);
+
+                position += Integer.BYTES + recordLength;
+            }
+            long regionEnd = regionStart + position;
+
+            if (regionEnd == regionStart) {
+                break;
+            }
+            regions.put(regionStart, region);
+            indexedUpTo = regionEnd;
+            regionStart = regionEnd;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -1,6 +1,9 @@
 package org.retrievable.document_expansion.expansion;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
 
 import edu.gslis.utils.Stopper;
 import org.retrievable.document_expansion.expansion.DocumentExpander;
@@ -10,27 +13,84 @@ import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
 
 public class PreExpandedDocumentExpander extends DocumentExpander {
-	
+
 	private Map<String, SearchHits> preExpandedDocs;
+	// Each document's given hits, converted the first time it is expanded. The given hits are never modified. Expansions
+	// are requested from several threads at once, e.g. by SweepEngine's tasks.
+	private Map<String, CachedExpansion> expansionLists = new ConcurrentHashMap<>();
 
 	public PreExpandedDocumentExpander(IndexWrapper index, int numTerms, Stopper stopper, Map<String, SearchHits> preExpandedDocs) {
 		super(index, numTerms, stopper);
 		this.preExpandedDocs = preExpandedDocs;
 	}
-	
+
+	/**
+	 * Serve expansions from a store, e.g. one written by BulkExpandDocuments, and never retrieve.
+	 */
+	public PreExpandedDocumentExpander(IndexWrapper index, int numTerms, Stopper stopper, ExpansionStore preExpandedDocs) {
+		this(index, numTerms, stopper, new HashMap<>());
+		setExpansionStore(preExpandedDocs);
+	}
+
 	@Override
-	public SearchHits expandDocument(SearchHit document, int numDocs) {
+	public ExpansionList getExpansionList(SearchHit document, int numDocs) {
 		if (numDocs > maxNumDocs) {
 			setMaxNumDocs(numDocs);
 		}
 
-		SearchHits expDocs = preExpandedDocs.get(document.getDocno());;
-		if (expDocs == null) {
-			System.err.println("No exp docs for " + document.getDocno());
-			return new SearchHits();
+		CachedExpansion expDocs = expansionLists.get(document.getDocno());
+		if (expDocs == null || !expDocs.covers(numDocs)) {
+			SearchHits givenDocs = preExpandedDocs.get(document.getDocno());
+			ExpansionList storedDocs = null;
+			int storedDepth = maxNumDocs;
+			if (givenDocs == null && expansionStore != null) {
+				storedDocs = expansionStore.get(document.getDocno(), maxNumDocs);
+				if (storedDocs == null) {
+					// Stored shallower than asked for. This expander never retrieves, so serve what there is.
+					storedDocs = expansionStore.get(document.getDocno());
+					if (storedDocs != null) {
+						System.err.println("Only " + storedDocs.size() + " exp docs stored for " + document.getDocno());
+						storedDepth = Integer.MAX_VALUE;
+					}
+				}
+			}
+
+			if (givenDocs != null) {
+				// The given hits are all there will ever be, so they cover any depth
+				expDocs = new CachedExpansion(Integer.MAX_VALUE, toExpansionList(givenDocs, index::getDocId));
+			} else if (storedDocs != null) {
+				expDocs = new CachedExpansion(storedDepth, storedDocs);
+			} else {
+				System.err.println("No exp docs for " + document.getDocno());
+				return ExpansionList.EMPTY;
+			}
+			expansionLists.put(document.getDocno(), expDocs);
+		}
+		return expDocs.getExpansionDocs().prefix(numDocs);
+	}
+
+	/**
+	 * Given hits are loaded from docnos, e.g. the CSVs of the given-expansion-docs runners, and may not carry a doc ID,
+	 * so a hit's ID comes from its docno where it has one.
+	 */
+	static ExpansionList toExpansionList(SearchHits givenDocs, ToIntFunction<String> docIds) {
+		int[] ids = new int[givenDocs.size()];
+		float[] scores = new float[givenDocs.size()];
+		for (int i = 0; i < givenDocs.size(); i++) {
+			SearchHit hit = givenDocs.getHit(i);
+			ids[i] = hit.getDocno() != null ? docIds.applyAsInt(hit.getDocno()) : hit.getDocID();
+			scores[i] = (float) hit.getScore();
+		}
+		return new ExpansionList(ids, scores);
+	}
+
+	@Override
+	public Runnable startExpansions(SearchHits documents, int numDocs) {
+		// Everything is already expanded
+		if (numDocs > maxNumDocs) {
+			setMaxNumDocs(numDocs);
 		}
-		expDocs.crop(numDocs);
-		return expDocs;
+		return () -> {};
 	}
 
 }
@@ -0,0 +1,109 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.queries.GQuery;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+
+/**
+ * Builds a document pseudo-query from the top weighted, non-stopword terms of the document vector.
+ *
+ * The document vector is streamed once and never copied; the best numTerms terms are kept in a bounded min-heap, so the
+ * work per document grows with numTerms rather than with the length of the document. Ties on weight are broken by
+ * term so pseudo-queries are deterministic.
+ */
+public class PseudoQueryBuilder {
+
+    private final int numTerms;
+    private final Stopper stopper;
+
+    /**
+     * @param numTerms The number of terms to keep; a negative number keeps none, like 0
+     * @param stopper Terms to skip, or null
+     */
+    public PseudoQueryBuilder(int numTerms, Stopper stopper) {
+        this.numTerms = Math.max(numTerms, 0);
+        this.stopper = stopper;
+    }
+
+    public GQuery build(FeatureVector documentVector) {
+        // heapTerms[0] is always the weakest term kept so far
+        String[] heapTerms = new String[numTerms];
+        double[] heapWeights = new double[numTerms];
+        int size = 0;
+
+        for (String term : documentVector) {
+            if (stopper != null && stopper.isStopWord(term)) {
+                continue;
+            }
+            double weight = documentVector.getFeatureWeight(term);
+
+            if (size < numTerms) {
+                heapTerms[size] = term;
+                heapWeights[size] = weight;
+                siftUp(heapTerms, heapWeights, size++);
+            } else if (numTerms > 0 && weaker(heapTerms[0], heapWeights[0], term, weight)) {
+                heapTerms[0] = term;
+                heapWeights[0] = weight;
+                siftDown(heapTerms, heapWeights, size);
+            }
+        }
+
+        FeatureVector pseudoQueryVector = new FeatureVector(null);
+        for (int i = 0; i < size; i++) {
+            pseudoQueryVector.addTerm(heapTerms[i], heapWeights[i]);
+        }
+
+        GQuery pseudoQuery = new GQuery();
+        pseudoQuery.setFeatureVector(pseudoQueryVector);
+        return pseudoQuery;
+    }
+
+    private static boolean weaker(String term1, double weight1, String term2, double weight2) {
+        if (weight1 != weight2) {
+            return weight1 < weight2;
+        }
+        return term1.compareTo(term2) > 0;
+    }
+
+    private static void siftUp(String[] terms, double[] weights, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!weaker(terms[i], weights[i], terms[parent], weights[parent])) {
+                break;
+            }
+            swap(terms, weights, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(String[] terms, double[] weights, int size) {
+        int i = 0;
+        while (true) {
+            int weakest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && weaker(terms[left], weights[left], terms[weakest], weights[weakest])) {
+                weakest = left;
+            }
+            if (right < size && weaker(terms[right], weights[right], terms[weakest], weights[weakest])) {
+                weakest = right;
+            }
+            if (weakest == i) {
+                return;
+            }
+            swap(terms, weights, i, weakest);
+            i = weakest;
+        }
+    }
+
+    private static void swap(String[] terms, double[] weights, int i, int j) {
+        String term = terms[i];
+        terms[i] = terms[j];
+        terms[j] = term;
+
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+    }
+
+}
@@ -0,0 +1,218 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only, memory-mapped pseudo-queries written by {@link PseudoQueryStoreWriter}.
+ *
+ * Nothing is decoded up front: a lookup binary searches the sorted docnos and decodes only that document's terms, so
+ * opening the store costs the same however many documents it holds. All positions are longs and the file is mapped in
+ * chunks, so a store can be larger than the 2GB a single mapping can hold. The layout is
+ * <pre>
+ *   int MAGIC, int VERSION, int number of terms T, int number of documents D
+ *   long[T + 1] term offsets into the term bytes
+ *   long[D + 1] docno offsets into the docno bytes, docnos sorted by their UTF-8 bytes
+ *   long[D]     record offsets into the records
+ *   term bytes, docno bytes (UTF-8)
+ *   records: int n, then n * (int term id, float weight)
+ * </pre>
+ */
+public class PseudoQueryStore implements Closeable {
+
+    static final int MAGIC = 0x44585051; // "DXPQ"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+
+    private static final int CHUNK_BITS = 30;
+
+    private final FileChannel channel;
+    // Chunk i maps [i << chunkBits, (i + 1) << chunkBits) plus the first bytes of the next chunk, so any int, float or
+    // long starting in a chunk can be read from it alone
+    private final MappedByteBuffer[] chunks;
+    private final int chunkBits;
+    private final long chunkMask;
+
+    private final int numTerms;
+    private final int numDocs;
+    private final long termOffsetsStart;
+    private final long docnoOffsetsStart;
+    private final long recordOffsetsStart;
+    private final long termBytesStart;
+    private final long docnoBytesStart;
+    private final long recordsStart;
+
+    // Terms are decoded the first time a pseudo-query uses them
+    private final String[] terms;
+
+    public PseudoQueryStore(String path) throws IOException {
+        this(path, CHUNK_BITS);
+    }
+
+    /**
+     * @param chunkBits Log2 of the size of each mapping; small values let tests cross chunk boundaries
+     */
+    PseudoQueryStore(String path, int chunkBits) throws IOException {
+        channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ);
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            channel.close();
+            throw new IOException(path + " is not a pseudo-query store");
+        }
+        chunks = new MappedByteBuffer[(int) (((size - 1) >>> chunkBits) + 1)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << chunkBits;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, chunkMask + 1 + Long.BYTES));
+        }
+
+        if (getInt(0) != MAGIC || getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a pseudo-query store of version " + VERSION);
+        }
+        numTerms = getInt(8);
+        numDocs = getInt(12);
+
+        termOffsetsStart = HEADER_SIZE;
+        docnoOffsetsStart = termOffsetsStart + (numTerms + 1L) * Long.BYTES;
+        recordOffsetsStart = docnoOffsetsStart + (numDocs + 1L) * Long.BYTES;
+        termBytesStart = recordOffsetsStart + (long) numDocs * Long.BYTES;
+        docnoBytesStart = termBytesStart + getLong(termOffsetsStart + (long) numTerms * Long.BYTES);
+        recordsStart = docnoBytesStart + getLong(docnoOffsetsStart + (long) numDocs * Long.BYTES);
+
+        terms = new String[numTerms];
+    }
+
+    /**
+     * @param path Any file
+     * @return True if the file starts like a pseudo-query store, as opposed to e.g. a CSV of pseudo-queries
+     */
+    public static boolean isPseudoQueryStore(String path) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param docno The document whose pseudo-query we want
+     * @param stopper The stopper to give the returned vector
+     * @return The document's pseudo-query vector, or null if the store has none for it
+     */
+    public FeatureVector getPseudoQueryVector(String docno, Stopper stopper) {
+        int doc = findDocno(docno.getBytes(StandardCharsets.UTF_8));
+        if (doc < 0) {
+            return null;
+        }
+
+        long record = recordsStart + getLong(recordOffsetsStart + (long) doc * Long.BYTES);
+        int length = getInt(record);
+
+        FeatureVector vector = new FeatureVector(stopper);
+        long entry = record + Integer.BYTES;
+        for (int i = 0; i < length; i++) {
+            int termId = getInt(entry);
+            float weight = getFloat(entry + Integer.BYTES);
+            vector.setTerm(getTerm(termId), weight);
+            entry += Integer.BYTES + Float.BYTES;
+        }
+        return vector;
+    }
+
+    public int getNumDocs() {
+        return numDocs;
+    }
+
+    private synchronized String getTerm(int termId) {
+        if (terms[termId] == null) {
+            terms[termId] = decode(termBytesStart, termOffsetsStart, termId);
+        }
+        return terms[termId];
+    }
+
+    private int findDocno(byte[] docno) {
+        int low = 0;
+        int high = numDocs - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareDocno(mid, docno);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareDocno(int doc, byte[] docno) {
+        long start = docnoBytesStart + getLong(docnoOffsetsStart + (long) doc * Long.BYTES);
+        long end = docnoBytesStart + getLong(docnoOffsetsStart + (doc + 1L) * Long.BYTES);
+
+        // Unsigned byte order, matching the order the writer sorted docnos in
+        int docnoLength = (int) (end - start);
+        int length = Math.min(docnoLength, docno.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(getByte(start + i) & 0xff, docno[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(docnoLength, docno.length);
+    }
+
+    private String decode(long bytesStart, long offsetsStart, int i) {
+        long start = bytesStart + getLong(offsetsStart + (long) i * Long.BYTES);
+        long end = bytesStart + getLong(offsetsStart + (i + 1L) * Long.BYTES);
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = getByte(start + j);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private MappedByteBuffer chunk(long position) {
+        return chunks[(int) (position >>> chunkBits)];
+    }
+
+    private int offset(long position) {
+        return (int) (position & chunkMask);
+    }
+
+    private byte getByte(long position) {
+        return chunk(position).get(offset(position));
+    }
+
+    private int getInt(long position) {
+        return chunk(position).getInt(offset(position));
+    }
+
+    private float getFloat(long position) {
+        return chunk(position).getFloat(offset(position));
+    }
+
+    private long getLong(long position) {
+        return chunk(position).getLong(offset(position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,136 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.textrepresentation.FeatureVector;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes pseudo-queries as a {@link PseudoQueryStore}.
+ *
+ * Each pseudo-query's record is streamed to a temporary file next to the store as soon as it is added, so memory holds
+ * only the term dictionary and each docno's record offset. Closing the writer sorts the docnos, writes the store and
+ * appends the records to it.
+ */
+public class PseudoQueryStoreWriter implements Closeable {
+
+    private final File path;
+    private final File recordsFile;
+    private final DataOutputStream records;
+    private long recordsSize = 0;
+
+    private final Map<String, Integer> termIds = new LinkedHashMap<>();
+    // Docno -> offset of its latest record in the records file
+    private final Map<String, Long> recordOffsets = new HashMap<>();
+
+    /**
+     * @param path The store file to write when the writer is closed
+     */
+    public PseudoQueryStoreWriter(String path) throws IOException {
+        this.path = new File(path);
+        this.recordsFile = File.createTempFile(this.path.getName() + ".", ".records", this.path.getAbsoluteFile().getParentFile());
+        this.recordsFile.deleteOnExit();
+        this.records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordsFile)));
+    }
+
+    /**
+     * Add a document's pseudo-query. Adding a document again replaces its pseudo-query.
+     */
+    public synchronized void add(String docno, FeatureVector pseudoQuery) throws IOException {
+        List<String> terms = new ArrayList<>();
+        for (String term : pseudoQuery) {
+            terms.add(term);
+        }
+
+        recordOffsets.put(docno, recordsSize);
+        records.writeInt(terms.size());
+        for (String term : terms) {
+            records.writeInt(termIds.computeIfAbsent(term, t -> termIds.size()));
+            records.writeFloat((float) pseudoQuery.getFeatureWeight(term));
+        }
+        recordsSize += Integer.BYTES + (long) terms.size() * (Integer.BYTES + Float.BYTES);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        records.close();
+        try {
+            write();
+        } finally {
+            Files.deleteIfExists(recordsFile.toPath());
+        }
+    }
+
+    private void write() throws IOException {
+        List<byte[]> terms = new ArrayList<>();
+        for (String term : termIds.keySet()) {
+            terms.add(term.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // The reader binary searches docnos in unsigned byte order
+        List<byte[]> docnos = new ArrayList<>();
+        Map<byte[], Long> docnoRecordOffsets = new HashMap<>();
+        for (Map.Entry<String, Long> recordOffset : recordOffsets.entrySet()) {
+            byte[] docno = recordOffset.getKey().getBytes(StandardCharsets.UTF_8);
+            docnos.add(docno);
+            docnoRecordOffsets.put(docno, recordOffset.getValue());
+        }
+        docnos.sort(PseudoQueryStoreWriter::compareUnsigned);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(PseudoQueryStore.MAGIC);
+            out.writeInt(PseudoQueryStore.VERSION);
+            out.writeInt(terms.size());
+            out.writeInt(docnos.size());
+
+            writeOffsets(out, terms);
+            writeOffsets(out, docnos);
+
+            for (byte[] docno : docnos) {
+                out.writeLong(docnoRecordOffsets.get(docno));
+            }
+
+            for (byte[] term : terms) {
+                out.write(term);
+            }
+            for (byte[] docno : docnos) {
+                out.write(docno);
+            }
+
+            // Records are copied in the order they were added; superseded ones are copied too but never referenced
+            Files.copy(recordsFile.toPath(), out);
+        }
+    }
+
+    private static void writeOffsets(DataOutputStream out, List<byte[]> strings) throws IOException {
+        long offset = 0;
+        out.writeLong(offset);
+        for (byte[] string : strings) {
+            offset += string.length;
+            out.writeLong(offset);
+        }
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+}
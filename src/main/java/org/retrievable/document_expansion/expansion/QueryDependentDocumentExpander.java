@@ -5,7 +5,13 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import edu.gslis.indexes.IndexWrapper;
 import edu.gslis.indexes.IndexWrapperIndriImpl;
+import edu.gslis.docscoring.support.IndexBackedCollectionStats;
 import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.CachedDocScorer;
+import edu.gslis.scoring.DirichletDocScorer;
+import edu.gslis.scoring.queryscoring.QueryLikelihoodQueryScorer;
+import edu.gslis.scoring.queryscoring.QueryScorer;
+import edu.gslis.searchhits.IndexBackedSearchHit;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
 import edu.gslis.textrepresentation.FeatureVector;
@@ -13,7 +19,10 @@ import edu.gslis.utils.Stopper;
 import kotlin.Pair;
 import lemurproject.indri.QueryEnvironment;
 import org.apache.commons.lang3.StringUtils;
+import org.retrievable.document_expansion.scoring.CandidatePoolReranker;
+import org.retrievable.document_expansion.scoring.ParameterGrid;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 public class QueryDependentDocumentExpander extends DocumentExpander {
@@ -21,15 +30,35 @@ public class QueryDependentDocumentExpander extends DocumentExpander {
     private GQuery query;
     private double queryWeight;
 
-    private LoadingCache<Pair<SearchHit, Double>, SearchHits> expandedDocs = CacheBuilder.newBuilder()
+    private LoadingCache<Pair<SearchHit, Double>, CachedExpansion> expandedDocs = CacheBuilder.newBuilder()
             .softValues()
             .build(
-                    new CacheLoader<Pair<SearchHit, Double>, SearchHits>() {
-                        public SearchHits load(Pair<SearchHit, Double> documentAndQueryWeight) {
+                    new CacheLoader<Pair<SearchHit, Double>, CachedExpansion>() {
+                        public CachedExpansion load(Pair<SearchHit, Double> documentAndQueryWeight) {
                             SearchHit document = documentAndQueryWeight.getFirst();
                             double queryWeight = documentAndQueryWeight.getSecond();
                             setQueryWeight(queryWeight);
-                            return expandDocumentByRetrieval(document, maxNumDocs);
+                            int depth = maxNumDocs;
+                            return new CachedExpansion(depth, expandDocumentForQueryWeight(document, depth));
+                        }
+                    });
+
+    // Number of candidates retrieved per document in shared candidate pool mode; 0 disables the mode
+    private int candidatePoolDepth = 0;
+    private boolean verifyingCandidatePool = true;
+    private List<Double> candidatePoolQueryWeights = ParameterGrid.tenths();
+    private QueryScorer candidateScorer;
+
+    private LoadingCache<SearchHit, SearchHits> candidatePools = CacheBuilder.newBuilder()
+            .softValues()
+            .build(
+                    new CacheLoader<SearchHit, SearchHits>() {
+                        public SearchHits load(SearchHit document) {
+                            // The pool's top documents are still not guaranteed to include every query weight's:
+                            // ranking the pool only approximates retrieval, more closely the deeper the pool (see
+                            // setVerifyingCandidatePool)
+                            GQuery unionPseudoQuery = createCandidatePoolQuery(document);
+                            return index.runQuery(unionPseudoQuery, Math.max(candidatePoolDepth, maxNumDocs));
                         }
                     });
 
@@ -49,8 +78,13 @@ public class QueryDependentDocumentExpander extends DocumentExpander {
         return this.query;
     }
 
+    /**
+     * Expansions and candidate pools are built from the query, so everything cached for the previous query is dropped.
+     */
     public void setQuery(GQuery query) {
         this.query = query;
+        expandedDocs.invalidateAll();
+        candidatePools.invalidateAll();
     }
 
     public double getQueryWeight() {
@@ -61,35 +95,135 @@ public class QueryDependentDocumentExpander extends DocumentExpander {
         this.queryWeight = queryWeight;
     }
 
-    public SearchHits expandDocument(SearchHit document, int numDocs) {
+    public int getCandidatePoolDepth() {
+        return candidatePoolDepth;
+    }
+
+    /**
+     * Retrieve one pool of candidates per document and rank it locally for each query weight, instead of retrieving
+     * from the index once per query weight. This is an approximation: a query weight's expansion documents only match
+     * retrieval's when they are all in the pool.
+     * @param candidatePoolDepth The number of candidates to retrieve per document, or 0 to retrieve per query weight
+     */
+    public void setCandidatePoolDepth(int candidatePoolDepth) {
+        this.candidatePoolDepth = candidatePoolDepth;
+        if (candidatePoolDepth > 0 && candidateScorer == null) {
+            IndexBackedCollectionStats collectionStats = new IndexBackedCollectionStats();
+            collectionStats.setStatSource(index);
+            candidateScorer = new QueryLikelihoodQueryScorer(new CachedDocScorer(new DirichletDocScorer(collectionStats)));
+        }
+    }
+
+    /**
+     * @param candidatePoolQueryWeights The query weights the candidate pools will be ranked for, tenths by default
+     */
+    public void setCandidatePoolQueryWeights(List<Double> candidatePoolQueryWeights) {
+        this.candidatePoolQueryWeights = candidatePoolQueryWeights;
+        candidatePools.invalidateAll();
+    }
+
+    public boolean isVerifyingCandidatePool() {
+        return verifyingCandidatePool;
+    }
+
+    /**
+     * @param verifyingCandidatePool Whether to also retrieve each candidate pool expansion from the index and report how
+     *                               closely the two agree on standard error. On by default.
+     */
+    public void setVerifyingCandidatePool(boolean verifyingCandidatePool) {
+        this.verifyingCandidatePool = verifyingCandidatePool;
+    }
+
+    @Override
+    public ExpansionList getExpansionList(SearchHit document, int numDocs) {
         if (numDocs > maxNumDocs) {
             setMaxNumDocs(numDocs);
         }
 
         try {
-            SearchHits expansionDocuments = expandedDocs.get(new Pair<>(document, getQueryWeight()));
-            return croppedHits(expansionDocuments, numDocs);
+            Pair<SearchHit, Double> key = new Pair<>(document, getQueryWeight());
+            CachedExpansion expansion = expandedDocs.get(key);
+            if (!expansion.covers(numDocs)) {
+                int depth = maxNumDocs;
+                expansion = new CachedExpansion(depth, expandDocumentForQueryWeight(document, depth));
+                expandedDocs.put(key, expansion);
+            }
+            return expansion.getExpansionDocs().prefix(numDocs);
         } catch (ExecutionException e) {
             System.err.println("Error getting expanded document " + document.getDocno() + " from the cache.");
             e.printStackTrace(System.err);
-            return new SearchHits();
+            return ExpansionList.EMPTY;
         }
     }
 
     @Override
-    public GQuery createDocumentPseudoQuery(SearchHit document) {
-        // Make a copy of query vector to prevent side effects from stopping
-        FeatureVector queryVector = query.getFeatureVector().deepCopy();
-        queryVector.applyStopper(stopper);
-        queryVector.normalize();
+    public Runnable startExpansions(SearchHits documents, int numDocs) {
+        // Expansions depend on the query weight, so they go through this expander's own cache
+        return () -> {
+            for (SearchHit document : documents) {
+                getExpansionList(document, numDocs);
+            }
+        };
+    }
 
-        // Build the standard query-independent pseudo-query
-        GQuery standardPseudoQuery = super.createDocumentPseudoQuery(document);
-        standardPseudoQuery.getFeatureVector().normalize();
+    private ExpansionList expandDocumentForQueryWeight(SearchHit document, int numDocs) {
+        if (candidatePoolDepth > 0) {
+            return expandDocumentFromCandidatePool(document, numDocs);
+        }
+        return ExpansionList.of(expandDocumentByRetrieval(document, numDocs));
+    }
+
+    /**
+     * Rank the document's candidate pool against the pseudo-query for the current query weight, scoring the way Indri
+     * does for a #weight query: Dirichlet query likelihood with the (already normalized) pseudo-query weights.
+     */
+    private ExpansionList expandDocumentFromCandidatePool(SearchHit document, int numDocs) {
+        SearchHits candidates;
+        try {
+            candidates = candidatePools.get(document);
+        } catch (ExecutionException e) {
+            System.err.println("Error getting candidate pool for document " + document.getDocno() + ". Retrieving instead.");
+            e.printStackTrace(System.err);
+            return ExpansionList.of(expandDocumentByRetrieval(document, numDocs));
+        }
+
+        GQuery pseudoQuery = createDocumentPseudoQuery(document);
+
+        SearchHits expansionDocs = new SearchHits();
+        for (SearchHit candidate : candidates) {
+            SearchHit expansionDoc = new IndexBackedSearchHit(index);
+            expansionDoc.setDocID(candidate.getDocID());
+            expansionDoc.setDocno(candidate.getDocno());
+            expansionDoc.setScore(candidateScorer.scoreQuery(pseudoQuery, candidate));
+            expansionDocs.add(expansionDoc);
+        }
+        expansionDocs.rank();
+        expansionDocs.crop(numDocs);
+
+        if (verifyingCandidatePool) {
+            SearchHits retrievedDocs = expandDocumentByRetrieval(document, numDocs);
+            System.err.println("Candidate pool agreement for " + document.getDocno() + " at query weight " + queryWeight +
+                    ": " + CandidatePoolReranker.agreement(retrievedDocs, expansionDocs));
+        }
+
+        return ExpansionList.of(expansionDocs);
+    }
+
+    @Override
+    public GQuery getPseudoQuery(SearchHit document) {
+        // Pseudo-queries change with the query weight, so they cannot be cached by document alone
+        return createDocumentPseudoQuery(document);
+    }
+
+    @Override
+    public GQuery createDocumentPseudoQuery(SearchHit document) {
+        return createDocumentPseudoQuery(document, queryWeight);
+    }
 
+    private GQuery createDocumentPseudoQuery(SearchHit document, double queryWeight) {
         // Combine the two vectors. Probably need a more nuanced way of interpolating.
         FeatureVector combinedPseudoQueryVector = FeatureVector.interpolate(
-                queryVector, standardPseudoQuery.getFeatureVector(), queryWeight
+                normalizedQueryVector(), normalizedStandardPseudoQueryVector(document), queryWeight
         );
 
         // Convert to GQuery
@@ -98,4 +232,46 @@ public class QueryDependentDocumentExpander extends DocumentExpander {
 
         return queryDependentPseudoQuery;
     }
+
+    /**
+     * The union of the terms of every candidate pool query weight's pseudo-query, each term weighted by the most any of
+     * them gives it, so the pool leans towards every weight's top documents rather than only those of an even mix.
+     */
+    private GQuery createCandidatePoolQuery(SearchHit document) {
+        FeatureVector queryVector = normalizedQueryVector();
+        FeatureVector standardPseudoQueryVector = normalizedStandardPseudoQueryVector(document);
+
+        FeatureVector unionVector = new FeatureVector(null);
+        for (double queryWeight : candidatePoolQueryWeights) {
+            FeatureVector combinedPseudoQueryVector = FeatureVector.interpolate(
+                    queryVector, standardPseudoQueryVector, queryWeight
+            );
+            for (String term : combinedPseudoQueryVector.getFeatures()) {
+                double weight = combinedPseudoQueryVector.getFeatureWeight(term);
+                if (weight > unionVector.getFeatureWeight(term)) {
+                    unionVector.setTerm(term, weight);
+                }
+            }
+        }
+        unionVector.normalize();
+
+        GQuery unionPseudoQuery = new GQuery();
+        unionPseudoQuery.setFeatureVector(unionVector);
+        return unionPseudoQuery;
+    }
+
+    private FeatureVector normalizedQueryVector() {
+        // Make a copy of query vector to prevent side effects from stopping
+        FeatureVector queryVector = query.getFeatureVector().deepCopy();
+        queryVector.applyStopper(stopper);
+        queryVector.normalize();
+        return queryVector;
+    }
+
+    private FeatureVector normalizedStandardPseudoQueryVector(SearchHit document) {
+        // Build the standard query-independent pseudo-query
+        GQuery standardPseudoQuery = super.createDocumentPseudoQuery(document);
+        standardPseudoQuery.getFeatureVector().normalize();
+        return standardPseudoQuery.getFeatureVector();
+    }
 }
@@ -0,0 +1,64 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.indexes.IndexWrapperIndriImpl;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of worker threads for running retrievals against one index.
+ *
+ * Indri's QueryEnvironment is not thread-safe, so every worker opens and keeps its own copy of the index. Tasks receive
+ * that thread-confined copy and must not let anything bound to it (e.g. IndexBackedSearchHits) escape the task.
+ */
+public class RetrievalPool implements Closeable {
+
+    private static final AtomicInteger poolCount = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final ThreadLocal<IndexWrapper> indexes;
+
+    public RetrievalPool(String pathToIndex) {
+        this(pathToIndex, Runtime.getRuntime().availableProcessors());
+    }
+
+    public RetrievalPool(String pathToIndex, int numThreads) {
+        this(() -> new IndexWrapperIndriImpl(pathToIndex), numThreads);
+    }
+
+    /**
+     * @param indexFactory Opens a new copy of the index. Called once on each worker thread.
+     * @param numThreads The maximum number of concurrent retrievals
+     */
+    public RetrievalPool(Supplier<IndexWrapper> indexFactory, int numThreads) {
+        this.indexes = ThreadLocal.withInitial(indexFactory);
+
+        int poolNumber = poolCount.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "retrieval-" + poolNumber + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param task Work to run against a worker's own copy of the index
+     * @return A Future holding the task's result
+     */
+    public <T> Future<T> submit(Function<IndexWrapper, T> task) {
+        return executor.submit(() -> task.apply(indexes.get()));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+}
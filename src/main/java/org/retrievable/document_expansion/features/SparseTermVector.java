@@ -0,0 +1,233 @@
+package org.retrievable.document_expansion.features;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import org.retrievable.document_expansion.lms.TermAccumulator;
+
+/**
+ * A term vector as parallel arrays of term ids, in increasing order, and weights. Two vectors numbered together are
+ * compared by merging them, so KL, Jensen-Shannon and cosine cost time linear in their non-zero entries, with no dense
+ * vocabulary-sized arrays.
+ *
+ * Ids only mean something among the vectors numbered in one call to {@link #numberTogether}, or by one TermDictionary,
+ * so vectors that are compared many times, e.g. every pair of a result list, should be numbered once and reused.
+ *
+ * The divergences follow Mallet's Maths.klDivergence and Maths.jensenShannonDivergence, in bits: terms with zero
+ * probability under the first model contribute nothing, and KL is infinite if the second model gives zero probability
+ * to a term the first does not.
+ */
+public class SparseTermVector {
+
+	private static final double LOG_2 = Math.log(2);
+
+	// Assigns ids to the terms of the vectors being numbered together; reused by each thread
+	private static final ThreadLocal<TermAccumulator> SHARED_IDS = ThreadLocal.withInitial(() -> new TermAccumulator(4096));
+
+	private final int[] ids;
+	private final double[] weights;
+
+	/**
+	 * @param ids Term ids in increasing order, without repeats
+	 * @param weights The terms' weights, aligned with ids
+	 */
+	public SparseTermVector(int[] ids, double[] weights) {
+		this.ids = ids;
+		this.weights = weights;
+	}
+
+	/**
+	 * Give both vectors' terms ids from one shared numbering.
+	 * @return The two vectors, in the order given
+	 */
+	public static SparseTermVector[] pair(FeatureVector vector1, FeatureVector vector2) {
+		return numberTogether(vector1, vector2);
+	}
+
+	/**
+	 * Give every vector's terms ids from one shared numbering, so that any two of them can be compared.
+	 * @return The vectors, in the order given
+	 */
+	public static SparseTermVector[] numberTogether(FeatureVector... vectors) {
+		TermAccumulator termIds = SHARED_IDS.get();
+		termIds.clear();
+		SparseTermVector[] sparseVectors = new SparseTermVector[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			sparseVectors[i] = of(vectors[i], termIds::intern);
+		}
+		return sparseVectors;
+	}
+
+	/**
+	 * @param termIds Numbers the vector's terms, e.g. TermAccumulator::intern
+	 */
+	public static SparseTermVector of(FeatureVector vector, ToIntFunction<String> termIds) {
+		// Pack (id, position) pairs into longs so they sort by id without boxing
+		long[] keys = new long[vector.getFeatures().size()];
+		double[] unsortedWeights = new double[keys.length];
+		int size = 0;
+		for (String term : vector) {
+			unsortedWeights[size] = vector.getFeatureWeight(term);
+			keys[size] = ((long) termIds.applyAsInt(term) << 32) | size;
+			size++;
+		}
+		return sumSorted(keys, unsortedWeights, size);
+	}
+
+	/**
+	 * @param scales One factor per vector
+	 * @return The sum of the scaled vectors, which must be numbered the same way
+	 */
+	public static SparseTermVector sum(SparseTermVector[] vectors, double[] scales) {
+		int size = 0;
+		for (SparseTermVector vector : vectors) {
+			size += vector.ids.length;
+		}
+
+		long[] keys = new long[size];
+		double[] unsortedWeights = new double[size];
+		int entry = 0;
+		for (int v = 0; v < vectors.length; v++) {
+			for (int i = 0; i < vectors[v].ids.length; i++) {
+				unsortedWeights[entry] = scales[v] * vectors[v].weights[i];
+				keys[entry] = ((long) vectors[v].ids[i] << 32) | entry;
+				entry++;
+			}
+		}
+		return sumSorted(keys, unsortedWeights, size);
+	}
+
+	/**
+	 * Sort the packed (id, position) keys and add up the weights of each id, in the order of their positions.
+	 */
+	private static SparseTermVector sumSorted(long[] keys, double[] unsortedWeights, int size) {
+		Arrays.sort(keys, 0, size);
+
+		int[] ids = new int[size];
+		double[] weights = new double[size];
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			int id = (int) (keys[i] >>> 32);
+			if (distinct > 0 && ids[distinct - 1] == id) {
+				weights[distinct - 1] += unsortedWeights[(int) keys[i]];
+			} else {
+				ids[distinct] = id;
+				weights[distinct] = unsortedWeights[(int) keys[i]];
+				distinct++;
+			}
+		}
+		if (distinct < size) {
+			ids = Arrays.copyOf(ids, distinct);
+			weights = Arrays.copyOf(weights, distinct);
+		}
+		return new SparseTermVector(ids, weights);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * @return The weight of the term with this id, or 0 if the vector lacks it
+	 */
+	public double weight(int id) {
+		int i = Arrays.binarySearch(ids, id);
+		return i < 0 ? 0 : weights[i];
+	}
+
+	/**
+	 * @return KL(p || q) in bits
+	 */
+	public static double klDivergence(SparseTermVector p, SparseTermVector q) {
+		double divergence = 0;
+		int j = 0;
+		for (int i = 0; i < p.ids.length; i++) {
+			if (p.weights[i] == 0) {
+				continue;
+			}
+			while (j < q.ids.length && q.ids[j] < p.ids[i]) {
+				j++;
+			}
+			double qWeight = j < q.ids.length && q.ids[j] == p.ids[i] ? q.weights[j] : 0;
+			if (qWeight == 0) {
+				return Double.POSITIVE_INFINITY;
+			}
+			divergence += p.weights[i] * Math.log(p.weights[i] / qWeight);
+		}
+		return divergence / LOG_2;
+	}
+
+	/**
+	 * @return The Jensen-Shannon divergence of p and q in bits: the mean of each one's KL divergence from their average
+	 */
+	public static double jensenShannonDivergence(SparseTermVector p, SparseTermVector q) {
+		double pDivergence = 0;
+		double qDivergence = 0;
+		int i = 0;
+		int j = 0;
+		while (i < p.ids.length || j < q.ids.length) {
+			double pWeight = 0;
+			double qWeight = 0;
+			if (j >= q.ids.length || (i < p.ids.length && p.ids[i] < q.ids[j])) {
+				pWeight = p.weights[i++];
+			} else if (i >= p.ids.length || q.ids[j] < p.ids[i]) {
+				qWeight = q.weights[j++];
+			} else {
+				pWeight = p.weights[i++];
+				qWeight = q.weights[j++];
+			}
+
+			double average = (pWeight + qWeight) / 2;
+			pDivergence += klTerm(pWeight, average);
+			qDivergence += klTerm(qWeight, average);
+		}
+		return (pDivergence + qDivergence) / 2 / LOG_2;
+	}
+
+	private static double klTerm(double weight, double average) {
+		if (weight == 0) {
+			return 0;
+		}
+		if (average == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return weight * Math.log(weight / average);
+	}
+
+	/**
+	 * @return The cosine of the angle between the vectors, or 0 if either is all zeros
+	 */
+	public static double cosine(SparseTermVector a, SparseTermVector b) {
+		double dotProduct = 0;
+		int j = 0;
+		for (int i = 0; i < a.ids.length && j < b.ids.length; i++) {
+			while (j < b.ids.length && b.ids[j] < a.ids[i]) {
+				j++;
+			}
+			if (j < b.ids.length && b.ids[j] == a.ids[i]) {
+				dotProduct += a.weights[i] * b.weights[j];
+			}
+		}
+
+		double norms = Math.sqrt(squaredNorm(a) * squaredNorm(b));
+		return norms == 0 ? 0 : dotProduct / norms;
+	}
+
+	private static double squaredNorm(SparseTermVector vector) {
+		double squaredNorm = 0;
+		for (double weight : vector.weights) {
+			squaredNorm += weight * weight;
+		}
+		return squaredNorm;
+	}
+
+}
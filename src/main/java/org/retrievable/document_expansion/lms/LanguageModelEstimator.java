@@ -1,16 +1,16 @@
 package org.retrievable.document_expansion.lms;
 
-import com.google.common.collect.Streams;
 import edu.gslis.docscoring.support.CollectionStats;
 import edu.gslis.docscoring.support.IndexBackedCollectionStats;
 import edu.gslis.indexes.IndexWrapper;
 import edu.gslis.scoring.DirichletDocScorer;
 import edu.gslis.scoring.DocScorer;
 import edu.gslis.searchhits.SearchHit;
-import edu.gslis.searchhits.SearchHits;
 import edu.gslis.textrepresentation.FeatureVector;
 import org.retrievable.document_expansion.features.FeatureUtils;
+import org.retrievable.document_expansion.features.SparseTermVector;
 import org.retrievable.document_expansion.scoring.ExpansionDocScorer;
+import org.retrievable.document_expansion.scoring.ExpansionScoringContext;
 
 import java.util.*;
 
@@ -34,31 +34,35 @@ public class LanguageModelEstimator {
 	 * @return A FeatureVector with term probabilities based on <i>only</i> the expansion documents
 	 */
 	public static FeatureVector expansionLanguageModel(SearchHit originalDocument, ExpansionDocScorer scorer, Set<String> includedTerms) {
-	    SearchHits expansionDocuments = scorer.getExpansionDocs(originalDocument);
-
-		List<String> vocabulary;
-	    if (includedTerms != null) {
-			vocabulary = new ArrayList<>(includedTerms);
-			Collections.sort(vocabulary);
-		} else {
-	    	// Add all of the FeatureVectors into an array so we can create a vocabulary
-            FeatureVector[] vectors = new FeatureVector[expansionDocuments.size()];
-            for (int i = 0; i < vectors.length; i++) {
-                vectors[i] = expansionDocuments.getHit(i).getFeatureVector();
-            }
-            vocabulary = FeatureUtils.createVocabulary(vectors);
-		}
+		TermDictionary dictionary = TermDictionary.global();
+		int[] includedTermIds = includedTerms == null ? null : dictionary.termIds(includedTerms);
+		return dictionary.toFeatureVector(expansionLanguageModelByTermId(originalDocument, scorer, includedTermIds));
+	}
 
-        // Create the language model
-        FeatureVector expansionLM = new FeatureVector(null);
-        vocabulary.stream().forEach(term -> {
-            expansionLM.addTerm(term, scorer.scoreTerm(term, originalDocument));
-        });
+	/**
+	 * Compute the language model of the expansion documents with terms numbered by the global TermDictionary
+	 * @param originalDocument The original document to be expanded
+	 * @param scorer An ExpansionDocScorer instance that is already configured with the correct number of expansion documents, etc.
+	 * @param includedTermIds Only estimate the probabilities of these terms, in increasing order. If null, will estimate the probability of all terms in the expansion documents
+	 * @return Term probabilities based on <i>only</i> the expansion documents
+	 */
+	public static SparseTermVector expansionLanguageModelByTermId(SearchHit originalDocument, ExpansionDocScorer scorer, int[] includedTermIds) {
+		ExpansionScoringContext context = scorer.getScoringContext(originalDocument);
 
-        // Clear the individual feature vectors because they are serious memory hogs
-        Streams.stream(expansionDocuments).forEach(doc -> doc.setFeatureVector(null));
+		// One pass over the expansion documents' vectors sums every term's prior-weighted counts
+		SparseTermVector termWeights = context.sumTermWeights();
 
-		return expansionLM;
+		// Then the smoothing mass, which only depends on the term through its collection probability. Included terms
+		// missing from every expansion document only get that.
+		int size = includedTermIds == null ? termWeights.size() : includedTermIds.length;
+		int[] termIds = new int[size];
+		double[] probabilities = new double[size];
+		for (int i = 0; i < size; i++) {
+			termIds[i] = includedTermIds == null ? termWeights.getId(i) : includedTermIds[i];
+			double termWeight = includedTermIds == null ? termWeights.getWeight(i) : termWeights.weight(termIds[i]);
+			probabilities[i] = termWeight + context.getSmoothingWeight() * scorer.collectionProbability(termIds[i]);
+		}
+		return new SparseTermVector(termIds, probabilities);
 	}
 	
 	/**
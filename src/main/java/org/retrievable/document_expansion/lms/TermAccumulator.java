@@ -0,0 +1,246 @@
+package org.retrievable.document_expansion.lms;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+
+import java.util.Arrays;
+
+/**
+ * Sums weighted term distributions, e.g. the documents of a relevance model or an expansion, and hands back the
+ * heaviest terms.
+ *
+ * Terms are kept in an open-addressing table over parallel primitive arrays, in the order they were first added, so
+ * each distinct term costs one slot and no boxing. The top k are picked with a bounded heap rather than by sorting
+ * everything; ties on weight are broken by term so results are deterministic. {@link #clear()} empties the accumulator
+ * in time proportional to the terms it held, so one instance can be reused across calls. Not thread-safe.
+ */
+public class TermAccumulator {
+
+    private static final int EMPTY = -1;
+
+    // Dense, in first-added order
+    private String[] terms;
+    private int[] hashes;
+    private double[] weights;
+    private int size;
+
+    // Open-addressing table of indexes into the dense arrays; its length is a power of two
+    private int[] slots;
+
+    public TermAccumulator() {
+        this(64);
+    }
+
+    /**
+     * @param expectedTerms The number of distinct terms expected; the accumulator grows past it as needed
+     */
+    public TermAccumulator(int expectedTerms) {
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedTerms - 1)) << 1);
+        terms = new String[capacity];
+        hashes = new int[capacity];
+        weights = new double[capacity];
+        slots = new int[capacity * 2];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    /**
+     * @return The term's index, adding it with weight 0 if it is new
+     */
+    public int intern(String term) {
+        int hash = spread(term.hashCode());
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != EMPTY) {
+            int index = slots[slot];
+            if (hashes[index] == hash && terms[index].equals(term)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == terms.length) {
+            grow();
+            return intern(term);
+        }
+        terms[size] = term;
+        hashes[size] = hash;
+        weights[size] = 0;
+        slots[slot] = size;
+        return size++;
+    }
+
+    /**
+     * @return The term's index, or -1 if it has not been added
+     */
+    public int indexOf(String term) {
+        int hash = spread(term.hashCode());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            int index = slots[slot];
+            if (hashes[index] == hash && terms[index].equals(term)) {
+                return index;
+            }
+        }
+        return EMPTY;
+    }
+
+    public void add(String term, double weight) {
+        // Intern first: it may replace the weights array
+        int index = intern(term);
+        weights[index] += weight;
+    }
+
+    /**
+     * @param index A term's index, as returned by intern
+     */
+    public void addAt(int index, double weight) {
+        weights[index] += weight;
+    }
+
+    /**
+     * Add every non-stopword term of the vector, weighted by its weight in the vector times scale.
+     * @param stopper Terms to skip, or null
+     */
+    public void add(FeatureVector vector, double scale, Stopper stopper) {
+        for (String term : vector) {
+            if (stopper != null && stopper.isStopWord(term)) {
+                continue;
+            }
+            add(term, vector.getFeatureWeight(term) * scale);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String term(int index) {
+        return terms[index];
+    }
+
+    public double weight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * @return Every term and its weight
+     */
+    public FeatureVector toFeatureVector() {
+        FeatureVector vector = new FeatureVector(null);
+        for (int i = 0; i < size; i++) {
+            vector.addTerm(terms[i], weights[i]);
+        }
+        return vector;
+    }
+
+    /**
+     * @param k The number of terms to keep
+     * @return The k heaviest terms and their weights, as FeatureVector.clip(k) would leave them
+     */
+    public FeatureVector topK(int k) {
+        if (k >= size) {
+            return toFeatureVector();
+        }
+
+        // heap[0] is always the weakest index kept so far
+        int[] heap = new int[Math.max(k, 0)];
+        int heapSize = 0;
+        for (int i = 0; i < size && k > 0; i++) {
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++);
+            } else if (weaker(heap[0], i)) {
+                heap[0] = i;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        FeatureVector vector = new FeatureVector(null);
+        for (int i = 0; i < heapSize; i++) {
+            vector.addTerm(terms[heap[i]], weights[heap[i]]);
+        }
+        return vector;
+    }
+
+    /**
+     * Remove every term, keeping the allocated space for the next use.
+     */
+    public void clear() {
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            // Clear the whole probe run, since entries further along may have been displaced past this one
+            for (int slot = hashes[i] & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+                slots[slot] = EMPTY;
+            }
+            terms[i] = null;
+        }
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = terms.length * 2;
+        terms = Arrays.copyOf(terms, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+
+        slots = new int[capacity * 2];
+        Arrays.fill(slots, EMPTY);
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hashes[i] & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean weaker(int i, int j) {
+        if (weights[i] != weights[j]) {
+            return weights[i] < weights[j];
+        }
+        return terms[i].compareTo(terms[j]) > 0;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!weaker(heap[i], heap[parent])) {
+                break;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int weakest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && weaker(heap[left], heap[weakest])) {
+                weakest = left;
+            }
+            if (right < size && weaker(heap[right], heap[weakest])) {
+                weakest = right;
+            }
+            if (weakest == i) {
+                return;
+            }
+            swap(heap, i, weakest);
+            i = weakest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int index = heap[i];
+        heap[i] = heap[j];
+        heap[j] = index;
+    }
+
+}
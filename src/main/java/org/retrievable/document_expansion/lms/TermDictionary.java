@@ -0,0 +1,157 @@
+package org.retrievable.document_expansion.lms;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import org.retrievable.document_expansion.features.SparseTermVector;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers terms with dense int ids, so that scoring and language model code can work on arrays of ids and convert back
+ * to strings only for output.
+ *
+ * Indri's own term ids are not exposed through the Java QueryEnvironment, so a dictionary seeded with a
+ * CollectionStatsSnapshot of the index stands in for them: each of the index's terms gets its snapshot id, which is the
+ * same in every process that reads that snapshot and can be passed straight to
+ * {@link CollectionStatsSnapshot#termCount(int)}. Terms the index does not contain (or every term, unseeded) get ids
+ * after those, in the order they are first seen. Lookups and interning are safe from several threads.
+ *
+ * The process-wide dictionary is {@link #global()}; seed it with {@link #seedGlobal} before anything is interned.
+ */
+public class TermDictionary {
+
+    private static volatile TermDictionary global = new TermDictionary(null);
+
+    private final CollectionStatsSnapshot snapshot;
+    private final int firstAddedId;
+
+    // Every term looked up so far, seeded or added
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // Terms beyond the snapshot's, by id - firstAddedId. Appended under the dictionary's lock; an id is only handed out
+    // once its term is stored, so getTerm needs no lock.
+    private volatile String[] addedTerms = new String[1024];
+    private int numAddedTerms;
+
+    /**
+     * @param snapshot Statistics whose term ids this dictionary starts from, or null to start from nothing
+     */
+    public TermDictionary(CollectionStatsSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.firstAddedId = snapshot == null ? 0 : snapshot.getNumTerms();
+    }
+
+    public static TermDictionary global() {
+        return global;
+    }
+
+    /**
+     * Make the process-wide dictionary start from the snapshot's term ids. Ids handed out before this would no longer
+     * mean the same terms, so the dictionary is only replaced if nothing has been interned yet.
+     * @return The process-wide dictionary
+     */
+    public static synchronized TermDictionary seedGlobal(CollectionStatsSnapshot snapshot) {
+        if (global.snapshot == snapshot) {
+            return global;
+        }
+        if (!global.ids.isEmpty()) {
+            System.err.println("Terms were interned before the term dictionary was seeded. Keeping the unseeded ids.");
+            return global;
+        }
+        global = new TermDictionary(snapshot);
+        return global;
+    }
+
+    // For tests, which need a fresh process-wide dictionary to seed
+    static synchronized void resetGlobal() {
+        global = new TermDictionary(null);
+    }
+
+    /**
+     * @return True if this dictionary's ids are the snapshot's term ids
+     */
+    public boolean isSeededWith(CollectionStatsSnapshot snapshot) {
+        return snapshot != null && this.snapshot == snapshot;
+    }
+
+    /**
+     * @return The term's id, giving it a new one if it has none yet
+     */
+    public int termId(String term) {
+        Integer id = ids.get(term);
+        if (id != null) {
+            return id;
+        }
+        return ids.computeIfAbsent(term, this::assignId);
+    }
+
+    private int assignId(String term) {
+        if (snapshot != null) {
+            int snapshotId = snapshot.termId(term);
+            if (snapshotId >= 0) {
+                return snapshotId;
+            }
+        }
+        synchronized (this) {
+            String[] terms = addedTerms;
+            if (numAddedTerms == terms.length) {
+                terms = Arrays.copyOf(terms, numAddedTerms * 2);
+            }
+            terms[numAddedTerms] = term;
+            addedTerms = terms;
+            return firstAddedId + numAddedTerms++;
+        }
+    }
+
+    public String getTerm(int id) {
+        if (id < firstAddedId) {
+            return snapshot.getTerm(id);
+        }
+        return addedTerms[id - firstAddedId];
+    }
+
+    /**
+     * @return One more than the largest id handed out so far
+     */
+    public synchronized int size() {
+        return firstAddedId + numAddedTerms;
+    }
+
+    /**
+     * @return The vector with its terms numbered by this dictionary
+     */
+    public SparseTermVector toSparse(FeatureVector vector) {
+        return SparseTermVector.of(vector, this::termId);
+    }
+
+    /**
+     * @return Each term's id, in increasing order
+     */
+    public int[] termIds(Iterable<String> terms) {
+        int[] termIds = new int[16];
+        int size = 0;
+        for (String term : terms) {
+            if (size == termIds.length) {
+                termIds = Arrays.copyOf(termIds, size * 2);
+            }
+            termIds[size++] = termId(term);
+        }
+        termIds = Arrays.copyOf(termIds, size);
+        Arrays.sort(termIds);
+        return termIds;
+    }
+
+    /**
+     * @return The sparse vector with its terms as strings again
+     */
+    public FeatureVector toFeatureVector(SparseTermVector vector) {
+        FeatureVector features = new FeatureVector(null);
+        for (int i = 0; i < vector.size(); i++) {
+            features.addTerm(getTerm(vector.getId(i)), vector.getWeight(i));
+        }
+        return features;
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.retrievable.document_expansion.main;
+
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.indexes.IndexWrapperIndriImpl;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshotWriter;
+
+import java.io.IOException;
+
+/**
+ * Snapshot an index's collection statistics into a CollectionStatsSnapshot, once per index. The runners read it in
+ * place of the index when target-stats-snapshot (or expansion-stats-snapshot, one per expansion-index) is set.
+ *
+ * Usage: BuildCollectionStatsSnapshot indexPath outputSnapshot
+ */
+public class BuildCollectionStatsSnapshot {
+
+    // Documents read between progress reports
+    private static final int REPORT_INTERVAL = 100000;
+
+    public static void main(String[] args) throws IOException {
+        String indexPath = args[0];
+        String outputSnapshot = args[1];
+
+        IndexWrapper index = new IndexWrapperIndriImpl(indexPath);
+        CollectionStatsSnapshotWriter writer = new CollectionStatsSnapshotWriter();
+
+        // Document ids start at 1
+        long docCount = (long) index.docCount();
+        for (long docID = 1; docID <= docCount; docID++) {
+            FeatureVector document = index.getDocVector((int) docID, null);
+            if (document != null) {
+                writer.addDocument(document);
+            }
+
+            if (docID % REPORT_INTERVAL == 0) {
+                System.err.println("Read " + docID + " of " + docCount + " documents");
+            }
+        }
+
+        writer.write(outputSnapshot);
+    }
+
+}
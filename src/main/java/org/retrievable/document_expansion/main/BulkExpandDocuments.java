@@ -0,0 +1,180 @@
+package org.retrievable.document_expansion.main;
+
+import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl;
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.indexes.IndexWrapperIndriImpl;
+import edu.gslis.searchhits.IndexBackedSearchHit;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.utils.Stopper;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.ExpansionRegistry;
+import org.retrievable.document_expansion.expansion.MappedExpansionStore;
+import org.retrievable.document_expansion.expansion.RetrievalPool;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+
+/**
+ * Expand documents of the target index ahead of time into a MappedExpansionStore, which the *WithGivenExpansionDocs
+ * runners load in place of a CSV.
+ *
+ * Usage: BulkExpandDocuments config numTerms outputStore [shard/numShards] [runFile ...]
+ *
+ * Without run files, every document in the target index is expanded; otherwise only the documents retrieved in the
+ * run files. Documents are dealt round-robin to numShards shards and this process expands only its own, so shards can
+ * run on separate machines, all appending to the same store file. The store doubles as the checkpoint: anything
+ * already in it to max-docs is skipped, so rerunning a killed job picks up where it stopped.
+ *
+ * The store is an append-only log rather than an index: every process that opens it, this job included, scans the
+ * whole file to find each docno's latest record.
+ */
+public class BulkExpandDocuments {
+
+    // Documents expanded between progress reports; each batch's expansions are dropped from memory once stored
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) throws ConfigurationException, IOException {
+        // Load configuration
+        Configuration config = new PropertiesConfiguration(args[0]);
+
+        // Load run parameters
+        int numTerms = Integer.parseInt(args[1]);
+        String outputStore = args[2];
+        int shard = 0;
+        int numShards = 1;
+        if (args.length > 3) {
+            String[] shardParts = args[3].split("/");
+            shard = Integer.parseInt(shardParts[0]);
+            numShards = Integer.parseInt(shardParts[1]);
+        }
+        List<String> runFiles = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            runFiles.add(args[i]);
+        }
+
+        int maxNumDocs = Integer.parseInt(config.getString("max-docs", "25"));
+        int expansionThreads = Integer.parseInt(config.getString("expansion-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        // Load resources
+        Stopper stopper = new Stopper(config.getString("stoplist"));
+
+        IndexWrapper targetIndex = new IndexWrapperIndriImpl(config.getString("target-index"));
+        String expansionIndexPath = config.getStringArray("expansion-index")[0];
+        IndexWrapper expansionIndex = new CachedFeatureVectorIndexWrapperIndriImpl(expansionIndexPath);
+
+        MappedExpansionStore store = new MappedExpansionStore(outputStore);
+
+        DocumentExpander docExpander = new DocumentExpander(expansionIndex, numTerms, stopper);
+        docExpander.setMaxNumDocs(maxNumDocs);
+        docExpander.setExpansionStore(store);
+        docExpander.setRetrievalPool(new RetrievalPool(expansionIndexPath, expansionThreads));
+
+        // Expand this shard's documents, skipping anything a previous run already stored
+        Iterator<SearchHit> documents = runFiles.isEmpty()
+                ? indexDocuments(targetIndex, shard, numShards)
+                : runDocuments(targetIndex, readRunDocnos(runFiles), shard, numShards);
+
+        int skipped = 0;
+        int expanded = 0;
+        SearchHits batch = new SearchHits();
+        while (documents.hasNext()) {
+            SearchHit document = documents.next();
+            if (store.get(document.getDocno(), maxNumDocs) != null) {
+                skipped++;
+            } else {
+                batch.add(document);
+            }
+
+            if (batch.size() == BATCH_SIZE || (!documents.hasNext() && batch.size() > 0)) {
+                docExpander.expandDocuments(batch, maxNumDocs);
+                expanded += batch.size();
+                batch = new SearchHits();
+                ExpansionRegistry.clear();
+
+                System.err.println("Shard " + shard + "/" + numShards + ": expanded " + expanded + ", skipped " + skipped);
+            }
+        }
+        // Documents skipped after the last batch are not reported above
+        System.err.println("Shard " + shard + "/" + numShards + ": done, expanded " + expanded + ", skipped " + skipped);
+
+        docExpander.getRetrievalPool().close();
+        store.close();
+    }
+
+    /**
+     * @return This shard's documents of the whole index, created as they are needed
+     */
+    private static Iterator<SearchHit> indexDocuments(IndexWrapper targetIndex, int shard, int numShards) {
+        long docCount = (long) targetIndex.docCount();
+        return new Iterator<SearchHit>() {
+            // Document ids start at 1
+            private long docID = firstOfShard(1, shard, numShards);
+
+            @Override
+            public boolean hasNext() {
+                return docID <= docCount;
+            }
+
+            @Override
+            public SearchHit next() {
+                // The store is keyed by docno
+                SearchHit document = new IndexBackedSearchHit(targetIndex);
+                document.setDocID((int) docID);
+                document.setDocno(targetIndex.getDocNo((int) docID));
+                docID += numShards;
+                return document;
+            }
+        };
+    }
+
+    private static long firstOfShard(long first, int shard, int numShards) {
+        return first + Math.floorMod(shard - first, numShards);
+    }
+
+    /**
+     * @return This shard's documents of the run files
+     */
+    private static Iterator<SearchHit> runDocuments(IndexWrapper targetIndex, Set<String> docnos, int shard, int numShards) {
+        List<SearchHit> documents = new ArrayList<>();
+        int position = 0;
+        for (String docno : docnos) {
+            if (position++ % numShards == shard) {
+                SearchHit document = new IndexBackedSearchHit(targetIndex);
+                document.setDocno(docno);
+                documents.add(document);
+            }
+        }
+        return documents.iterator();
+    }
+
+    /**
+     * @return The distinct docnos retrieved in TREC-format run files, in the order they first appear
+     */
+    private static Set<String> readRunDocnos(List<String> runFiles) throws FileNotFoundException {
+        Set<String> docnos = new LinkedHashSet<>();
+        for (String runFile : runFiles) {
+            Scanner scanner = new Scanner(new File(runFile));
+            while (scanner.hasNextLine()) {
+                String[] parts = scanner.nextLine().trim().split("\\s+");
+                if (parts.length >= 3) {
+                    docnos.add(parts[2]);
+                }
+            }
+            scanner.close();
+        }
+        return docnos;
+    }
+
+}
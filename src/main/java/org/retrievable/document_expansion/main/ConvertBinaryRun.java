@@ -0,0 +1,39 @@
+package org.retrievable.document_expansion.main;
+
+import org.retrievable.document_expansion.output.BinaryRunReader;
+import org.retrievable.document_expansion.output.RunWriter;
+import org.retrievable.document_expansion.output.ShardedRunWriter;
+import org.retrievable.document_expansion.output.TrecTextRunWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Convert a run written with run-format=binary to TREC run lines for trec_eval: to standard out, or, given an output
+ * directory, to one .run file per run id.
+ *
+ * Usage: ConvertBinaryRun binaryRun [outputDirectory]
+ */
+public class ConvertBinaryRun {
+
+    public static void main(String[] args) throws IOException {
+        String binaryRun = args[0];
+
+        RunWriter out = args.length > 1
+                ? new ShardedRunWriter(new File(args[1]), false)
+                : new TrecTextRunWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+
+        try (BinaryRunReader reader = new BinaryRunReader(new BufferedInputStream(new FileInputStream(binaryRun)))) {
+            while (reader.next()) {
+                out.write(reader.getRunId(), reader.getQueryTitle(), reader.getDocnos(), reader.getScores());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.retrievable.document_expansion.main;
+
+import edu.gslis.queries.GQueries;
+import edu.gslis.queries.GQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The queries a runner processes in one process: either the single query named on the command line or, given "all",
+ * every query in the topics file, in file order.
+ *
+ * Running a batch in one process opens the indexes and loads the stoplist and topics once, and lets queries share the
+ * process-wide ExpansionRegistry and the indexes' cached document vectors, so a document retrieved for several queries
+ * is expanded once.
+ */
+public class QueryBatch {
+
+    public static final String ALL = "all";
+
+    /**
+     * @param queryName A query's title, or "all"
+     * @return The queries to run, in the order their results should be written
+     */
+    public static List<GQuery> select(GQueries queries, String queryName) {
+        if (!ALL.equalsIgnoreCase(queryName)) {
+            return Collections.singletonList(queries.getNamedQuery(queryName));
+        }
+        List<GQuery> selected = new ArrayList<>();
+        for (GQuery query : queries) {
+            selected.add(query);
+        }
+        return selected;
+    }
+
+}
@@ -0,0 +1,118 @@
+package org.retrievable.document_expansion.main;
+
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.expansion.ExpandedRM1Builder;
+import edu.gslis.scoring.expansion.ProgressiveExpandedRM1Builder;
+import edu.gslis.scoring.expansion.RM3Builder;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+import org.retrievable.document_expansion.expansion.RetrievalPool;
+import org.retrievable.document_expansion.output.RunWriter;
+import org.retrievable.document_expansion.scoring.CandidatePoolReranker;
+import org.retrievable.document_expansion.scoring.ParameterGrid;
+import org.retrievable.document_expansion.scoring.SweepEngine;
+import org.retrievable.document_expansion.scoring.SweepPoint;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The fbDocs x fbTerms x fbOrigWeight sweep shared by the expanded RM3 runners.
+ *
+ * Every RM3 query is built first, on the calling thread, since building the relevance models reads the indexes through
+ * the RM1 builder. Only the RM3 retrievals are spread over threads, each against a retrieval pool worker's own copy of
+ * the target index. With a candidate pool, one retrieval is made for the union of the RM3 queries and each RM3 query
+ * reranks its results in memory instead.
+ */
+public class RM3Sweep {
+
+    private static final int NUM_RESULTS = 1000;
+
+    /**
+     * @param rm1Builder Builds the relevance models; a ProgressiveExpandedRM1Builder builds all of them in one pass
+     * @param grid The fbDocs, fbTerms and fbOrigWeight values; fbTerms must be walked from largest to smallest, since
+     *             each fbDocs' relevance model is clipped in place
+     * @param retrievalPool Workers with their own copies of the target index
+     * @param candidatePool Reranks one candidate pool for all of the RM3 queries instead of retrieving for each, or
+     *                      null to retrieve for each
+     */
+    public static void run(GQuery query, SearchHits feedbackDocs, Stopper stopper, ExpandedRM1Builder rm1Builder,
+                           ParameterGrid grid, RetrievalPool retrievalPool, CandidatePoolReranker candidatePool,
+                           SweepEngine sweepEngine, Function<SweepPoint, String> runId, RunWriter out) {
+        RM3Builder rm3Builder = new RM3Builder();
+
+        List<SweepPoint> points = grid.points();
+
+        // A progressive builder makes every fbDocs' relevance model in one pass over the deepest feedback set
+        Map<Integer, FeatureVector> rm1Vectors = null;
+        if (rm1Builder instanceof ProgressiveExpandedRM1Builder) {
+            Set<Integer> depths = points.stream().map(SweepPoint::getFbDocs).collect(Collectors.toSet());
+            rm1Vectors = ((ProgressiveExpandedRM1Builder) rm1Builder)
+                    .buildRelevanceModels(query, feedbackDocs, stopper, depths);
+        }
+
+        Map<SweepPoint, GQuery> rm3Queries = new HashMap<>();
+        FeatureVector rm1Vector = null;
+        int rm1FbDocs = -1;
+        for (SweepPoint point : points) {
+            if (rm1Vector == null || point.getFbDocs() != rm1FbDocs) {
+                if (rm1Vectors != null) {
+                    rm1Vector = rm1Vectors.get(point.getFbDocs());
+                } else {
+                    rm1Builder.setFeedbackDocs(point.getFbDocs());
+                    rm1Vector = rm1Builder.buildRelevanceModel(query, feedbackDocs, stopper);
+                }
+                rm1FbDocs = point.getFbDocs();
+            }
+            rm1Vector.clip(point.getFbTerms());
+
+            GQuery rm3Query = new GQuery();
+            rm3Query.setTitle(query.getTitle());
+            rm3Query.setFeatureVector(rm3Builder.buildRelevanceModel(query, rm1Vector, point.getFbOrigWeight()));
+            rm3Queries.put(point, rm3Query);
+        }
+
+        if (candidatePool == null) {
+            sweepEngine.run(points, point -> retrieve(retrievalPool, rm3Queries.get(point)), runId, out, query.getTitle());
+            return;
+        }
+
+        CandidatePoolReranker.Candidates candidates = candidatePool.retrieve(query.getTitle(), rm3Queries.values());
+        sweepEngine.run(points, point -> {
+            SearchHits reranked = candidates.rerank(rm3Queries.get(point), NUM_RESULTS);
+            if (candidatePool.isVerifying()) {
+                SearchHits full = retrieve(retrievalPool, rm3Queries.get(point));
+                System.err.println("Candidate pool of " + candidates.size() + " for query " + query.getTitle() + ", " +
+                        runId.apply(point) + ": " + CandidatePoolReranker.agreement(full, reranked));
+            }
+            return reranked;
+        }, runId, out, query.getTitle());
+    }
+
+    private static SearchHits retrieve(RetrievalPool retrievalPool, GQuery rm3Query) {
+        try {
+            // Copy the hits so nothing bound to the worker's index leaves it
+            return retrievalPool.submit(index -> {
+                SearchHits copies = new SearchHits();
+                for (SearchHit hit : index.runQuery(rm3Query, NUM_RESULTS)) {
+                    SearchHit copy = new SearchHit();
+                    copy.setDocno(hit.getDocno());
+                    copy.setDocID(hit.getDocID());
+                    copy.setScore(hit.getScore());
+                    copies.add(copy);
+                }
+                return copies;
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error running RM3 query " + rm3Query.getTitle(), e);
+        }
+    }
+
+}
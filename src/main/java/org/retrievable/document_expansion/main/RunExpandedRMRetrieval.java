@@ -1,27 +1,32 @@
 package org.retrievable.document_expansion.main;
 
 import edu.gslis.docscoring.support.CollectionStats;
-import edu.gslis.docscoring.support.IndexBackedCollectionStats;
 import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl;
 import edu.gslis.indexes.IndexWrapper;
-import edu.gslis.output.FormattedOutputTrecEval;
 import edu.gslis.queries.GQueries;
 import edu.gslis.queries.GQueriesFactory;
 import edu.gslis.queries.GQuery;
 import edu.gslis.scoring.expansion.ExpandedRM1Builder;
-import edu.gslis.scoring.expansion.RM3Builder;
+import edu.gslis.scoring.expansion.ProgressiveExpandedRM1Builder;
 import edu.gslis.searchhits.SearchHits;
-import edu.gslis.textrepresentation.FeatureVector;
 import edu.gslis.utils.Stopper;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.retrievable.documentExpansion.utils.OptimalParameters;
 import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.ExpansionFanOut;
+import org.retrievable.document_expansion.expansion.MappedExpansionStore;
+import org.retrievable.document_expansion.expansion.RetrievalPool;
+import org.retrievable.document_expansion.output.RunWriter;
+import org.retrievable.document_expansion.output.RunWriters;
+import org.retrievable.document_expansion.scoring.CandidatePoolReranker;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot;
+import org.retrievable.document_expansion.scoring.ParameterGrid;
+import org.retrievable.document_expansion.scoring.SweepEngine;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -45,13 +50,12 @@ public class RunExpandedRMRetrieval {
                 .collect(Collectors.toList());
 
 		GQueries queries = GQueriesFactory.getGQueries(config.getString("queries"));
-		GQuery query = queries.getNamedQuery(queryName);
 
-		CollectionStats targetCollectionStats = new IndexBackedCollectionStats();
-		targetCollectionStats.setStatSource(config.getString("target-index"));
+		// Shared by every query's RM builder and the candidate pool
+		CollectionStats targetCollectionStats = CollectionStatsSnapshot.open(config.getString("target-stats-snapshot", null),
+				config.getString("target-index"));
 
 		String paramsFile = config.getString("optimal-params");
-		OptimalParameters expansionParams = new OptimalParameters(new File(paramsFile), queryName);
 
 		int minFbDocs = Integer.parseInt(config.getString("min-fbdocs", "10"));
 		int maxFbDocs = Integer.parseInt(config.getString("max-fbdocs", "50"));
@@ -61,70 +65,106 @@ public class RunExpandedRMRetrieval {
 		int maxFbTerms = Integer.parseInt(config.getString("max-fbterms", "50"));
 		int fbTermsInterval = Integer.parseInt(config.getString("fbterms-interval", "10"));
 
-        List<DocumentExpander> docExpanders = expansionIndexes
-                .stream()
-                .map(expansionIndex -> new DocumentExpander(expansionIndex, expansionParams.getNumTerms(), stopper))
-                .collect(Collectors.toList());
-
-		// Get the feedback docs
-		query.applyStopper(stopper);
-		SearchHits feedbackDocs = targetIndex.runQuery(query, maxFbDocs); // get max fbDocs; we'll trim as we go along
+        // Optionally persist expansions across runs, one store per expansion index
+        String[] expansionStorePaths = config.getStringArray("expansion-store");
+        List<MappedExpansionStore> expansionStores = new ArrayList<>();
+        for (int i = 0; i < Math.min(expansionStorePaths.length, expansionIndexes.size()); i++) {
+            try {
+                expansionStores.add(new MappedExpansionStore(expansionStorePaths[i]));
+            } catch (IOException e) {
+                System.err.println("Unable to open expansion store " + expansionStorePaths[i] + ". Expanding by retrieval only.");
+                e.printStackTrace(System.err);
+                expansionStores.add(null);
+            }
+        }
 
-		// Prep RM builders
-        ExpandedRM1Builder rm1Builder = new ExpandedRM1Builder(maxFbDocs, maxFbTerms, targetCollectionStats, docExpanders, expansionParams.getNumDocs());
-        List<Double> interpolationWeights = new ArrayList<>(expansionParams.getExpWeights());
-        interpolationWeights.add(0, expansionParams.getOrigWeight());
-        rm1Builder.setInterpolationWeights(interpolationWeights);
-		RM3Builder rm3Builder = new RM3Builder();
+        // Prep the output
+        RunWriter out = RunWriters.open(config);
+
+        // Walk fbTerms backwards, as each RM1 is clipped in place
+        ParameterGrid grid = new ParameterGrid()
+                .fbDocs(ParameterGrid.range(maxFbDocs, minFbDocs, -fbDocsInterval))
+                .fbTerms(ParameterGrid.range(maxFbTerms, minFbTerms, -fbTermsInterval))
+                .fbOrigWeights(ParameterGrid.tenths());
+
+        // Unless sweep-threads is 1, run the RM3 queries of the grid concurrently
+        int sweepThreads = Integer.parseInt(config.getString("sweep-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        RetrievalPool retrievalPool = new RetrievalPool(config.getString("target-index"), sweepThreads);
+        SweepEngine sweepEngine = new SweepEngine(sweepThreads);
+
+        // With rm3-candidate-pool set, rerank one pool of that many candidates per query rather than retrieving for
+        // every RM3 query; rm3-candidate-pool-verify also retrieves and reports how closely the two agree
+        CandidatePoolReranker candidatePool = null;
+        int candidatePoolSize = Integer.parseInt(config.getString("rm3-candidate-pool", "0"));
+        if (candidatePoolSize > 0) {
+            candidatePool = new CandidatePoolReranker(targetIndex, targetCollectionStats, candidatePoolSize);
+            candidatePool.setVerifying(Boolean.parseBoolean(config.getString("rm3-candidate-pool-verify", "false")));
+        }
 
-		// Prep the RM3 query
-		GQuery rm3Query = new GQuery();
-		rm3Query.setTitle(query.getTitle());
+        // Each expansion index's statistics are shared by every query's scorers of that index
+        String[] expansionIndexPaths = config.getStringArray("expansion-index");
+        String[] expansionStatsSnapshots = config.getStringArray("expansion-stats-snapshot");
+        List<CollectionStats> expansionCollectionStats = new ArrayList<>();
+        for (int i = 0; i < expansionIndexPaths.length; i++) {
+            String expansionStatsSnapshot = i < expansionStatsSnapshots.length ? expansionStatsSnapshots[i] : null;
+            expansionCollectionStats.add(CollectionStatsSnapshot.open(expansionStatsSnapshot, expansionIndexPaths[i]));
+        }
 
-        // Prep the output
-        FormattedOutputTrecEval out = FormattedOutputTrecEval.getInstance(
-                "tmp",
-                new BufferedWriter(new OutputStreamWriter(System.out))
-        );
-
-        for (int fbDocs = maxFbDocs; fbDocs >= minFbDocs; fbDocs -= fbDocsInterval) {
-            rm1Builder.setFeedbackDocs(fbDocs);
-
-            FeatureVector rm1Vector = rm1Builder.buildRelevanceModel(query, feedbackDocs, stopper);
-
-            for (int fbTerms = maxFbTerms; fbTerms >= minFbTerms; fbTerms -= fbTermsInterval) {
-                // As with fbDocs, work backwards through fbTerms
-                rm1Vector.clip(fbTerms);
-
-                for (int fbOrigWeightInt = 0; fbOrigWeightInt <= 10; fbOrigWeightInt++) {
-                    double fbOrigWeight = fbOrigWeightInt / 10.0;
-
-                    // Build the RM3
-                    FeatureVector rm3 = rm3Builder.buildRelevanceModel(query, rm1Vector, fbOrigWeight);
-
-                    // Set the RM3 as the query
-                    rm3Query.setFeatureVector(rm3);
-
-                    // Execute the RM3 query
-                    SearchHits results = targetIndex.runQuery(rm3Query, 1000);
-
-                    // Write results
-                    String expWeightLabels = "";
-                    for (int i = 1; i < interpolationWeights.size(); i++) {
-                        expWeightLabels += "expW" + i + ":" + interpolationWeights.get(i) + ",";
-                    }
-                    out.setRunId(
-                            expWeightLabels +
-                                    "origW:" + expansionParams.getOrigWeight() +
-                                    ",expDocs:" + expansionParams.getNumDocs() +
-                                    ",expTerms:" + expansionParams.getNumTerms() +
-                                    ",fbOrigWeight:" + fbOrigWeight +
-                                    ",fbDocs:" + fbDocs +
-                                    ",fbTerms:" + fbTerms
-                    );
-                    out.write(results, query.getTitle());
+        // Run every selected query in this process, sharing indexes, caches and expansions between them
+        for (GQuery query : QueryBatch.select(queries, queryName)) {
+            OptimalParameters expansionParams = new OptimalParameters(new File(paramsFile), query.getTitle());
+
+            List<DocumentExpander> docExpanders = expansionIndexes
+                    .stream()
+                    .map(expansionIndex -> new DocumentExpander(expansionIndex, expansionParams.getNumTerms(), stopper))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < expansionStores.size(); i++) {
+                if (expansionStores.get(i) != null) {
+                    docExpanders.get(i).setExpansionStore(expansionStores.get(i));
                 }
             }
+
+            // Get the feedback docs
+            query.applyStopper(stopper);
+            SearchHits feedbackDocs = targetIndex.runQuery(query, maxFbDocs); // get max fbDocs; we'll trim as we go along
+
+            // Prep RM builders
+            ExpandedRM1Builder rm1Builder = new ProgressiveExpandedRM1Builder(maxFbDocs, maxFbTerms, targetCollectionStats, docExpanders, expansionParams.getNumDocs());
+            List<Double> interpolationWeights = new ArrayList<>(expansionParams.getExpWeights());
+            interpolationWeights.add(0, expansionParams.getOrigWeight());
+            rm1Builder.setExpansionCollectionStats(expansionCollectionStats);
+            rm1Builder.setInterpolationWeights(interpolationWeights);
+
+            // Unless expansion-fan-out is false, expand against every expansion index at the same time. The fan-out's
+            // threads belong to this query's expanders, so they are released with them.
+            ExpansionFanOut fanOut = Boolean.parseBoolean(config.getString("expansion-fan-out", "true"))
+                    ? new ExpansionFanOut(docExpanders) : null;
+            rm1Builder.setExpansionFanOut(fanOut);
+
+            RM3Sweep.run(query, feedbackDocs, stopper, rm1Builder, grid, retrievalPool, candidatePool, sweepEngine,
+                    point -> {
+                        String expWeightLabels = "";
+                        for (int i = 1; i < interpolationWeights.size(); i++) {
+                            expWeightLabels += "expW" + i + ":" + interpolationWeights.get(i) + ",";
+                        }
+                        return expWeightLabels +
+                                "origW:" + expansionParams.getOrigWeight() +
+                                ",expDocs:" + expansionParams.getNumDocs() +
+                                ",expTerms:" + expansionParams.getNumTerms() +
+                                ",fbOrigWeight:" + point.getFbOrigWeight() +
+                                ",fbDocs:" + point.getFbDocs() +
+                                ",fbTerms:" + point.getFbTerms();
+                    },
+                    out
+            );
+            if (fanOut != null) {
+                fanOut.close();
+            }
         }
+
+        sweepEngine.close();
+        retrievalPool.close();
+        out.close();
 	}
 }
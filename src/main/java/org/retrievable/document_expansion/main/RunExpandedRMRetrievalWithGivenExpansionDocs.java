@@ -1,20 +1,16 @@
 package org.retrievable.document_expansion.main;
 
 import edu.gslis.docscoring.support.CollectionStats;
-import edu.gslis.docscoring.support.IndexBackedCollectionStats;
 import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl;
 import edu.gslis.indexes.IndexWrapper;
 import edu.gslis.indexes.IndexWrapperIndriImpl;
-import edu.gslis.output.FormattedOutputTrecEval;
 import edu.gslis.queries.GQueries;
 import edu.gslis.queries.GQueriesFactory;
 import edu.gslis.queries.GQuery;
 import edu.gslis.scoring.expansion.ExpandedRM1Builder;
 import edu.gslis.scoring.expansion.ProgressiveExpandedRM1Builder;
-import edu.gslis.scoring.expansion.RM3Builder;
 import edu.gslis.searchhits.IndexBackedSearchHit;
 import edu.gslis.searchhits.SearchHits;
-import edu.gslis.textrepresentation.FeatureVector;
 import edu.gslis.utils.Stopper;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -25,7 +21,16 @@ import org.apache.commons.csv.QuoteMode;
 import org.retrievable.documentExpansion.utils.OptimalParameters;
 import org.retrievable.document_expansion.expansion.DocumentExpander;
 import org.retrievable.document_expansion.expansion.DocumentExpanderWithPremadePseudoQueries;
+import org.retrievable.document_expansion.expansion.ExpansionFanOut;
+import org.retrievable.document_expansion.expansion.MappedExpansionStore;
 import org.retrievable.document_expansion.expansion.PreExpandedDocumentExpander;
+import org.retrievable.document_expansion.expansion.RetrievalPool;
+import org.retrievable.document_expansion.output.RunWriter;
+import org.retrievable.document_expansion.output.RunWriters;
+import org.retrievable.document_expansion.scoring.CandidatePoolReranker;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot;
+import org.retrievable.document_expansion.scoring.ParameterGrid;
+import org.retrievable.document_expansion.scoring.SweepEngine;
 
 import java.io.*;
 import java.util.*;
@@ -40,11 +45,9 @@ public class RunExpandedRMRetrievalWithGivenExpansionDocs {
 		//int numTerms = Integer.parseInt(args[1]);
 		String queryName = args[1];
         String paramsFile = args[2];
-        OptimalParameters expansionParams = new OptimalParameters(new File(paramsFile), queryName);
-
         // going to assume the files are named collection_vectorSize. you should pass in the path up to collection, and then
         // _vectorSize will be added automatically as needed
-		String expansionDocsFile = args[3] + "_" + expansionParams.getVecSize();
+        String expansionDocsPrefix = args[3];
 
 		// Load resources
 		Stopper stopper = new Stopper(config.getString("stoplist"));
@@ -55,10 +58,10 @@ public class RunExpandedRMRetrievalWithGivenExpansionDocs {
                 .collect(Collectors.toList());
 
 		GQueries queries = GQueriesFactory.getGQueries(config.getString("queries"));
-		GQuery query = queries.getNamedQuery(queryName);
 
-		CollectionStats targetCollectionStats = new IndexBackedCollectionStats();
-		targetCollectionStats.setStatSource(config.getString("target-index"));
+		// Shared by every query's RM builder and the candidate pool
+		CollectionStats targetCollectionStats = CollectionStatsSnapshot.open(config.getString("target-stats-snapshot", null),
+				config.getString("target-index"));
 
 		int minFbDocs = Integer.parseInt(config.getString("min-fbdocs", "10"));
 		int maxFbDocs = Integer.parseInt(config.getString("max-fbdocs", "50"));
@@ -68,109 +71,155 @@ public class RunExpandedRMRetrievalWithGivenExpansionDocs {
 		int maxFbTerms = Integer.parseInt(config.getString("max-fbterms", "50"));
 		int fbTermsInterval = Integer.parseInt(config.getString("fbterms-interval", "10"));
 
-        // Get the feedback docs
-        query.applyStopper(stopper);
-        SearchHits feedbackDocs = targetIndex.runQuery(query, maxFbDocs); // get max fbDocs; we'll trim as we go along
-
-        Map<String, SearchHits> expansionDocs = new HashMap<>();
-        try {
-            //Scanner scanner = new Scanner(new File(expansionDocsFile));
-            Iterable<CSVRecord> records = CSVFormat.EXCEL.withHeader("origDocno", "relatedDocno", "cosine").withQuoteMode(QuoteMode.MINIMAL).parse(new FileReader(expansionDocsFile));
-            //while (scanner.hasNextLine()) {
-            for (CSVRecord record : records) {
-                //String[] parts = scanner.nextLine().split(",");
+        // Prep the output
+        RunWriter out = RunWriters.open(config);
+
+        // Walk fbTerms backwards, as each RM1 is clipped in place
+        ParameterGrid grid = new ParameterGrid()
+                .fbDocs(ParameterGrid.range(minFbDocs, maxFbDocs, fbDocsInterval))
+                .fbTerms(ParameterGrid.range(maxFbTerms, minFbTerms, -fbTermsInterval))
+                .fbOrigWeights(ParameterGrid.tenths());
+
+        // Unless sweep-threads is 1, run the RM3 queries of the grid concurrently
+        int sweepThreads = Integer.parseInt(config.getString("sweep-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        RetrievalPool retrievalPool = new RetrievalPool(config.getString("target-index"), sweepThreads);
+        SweepEngine sweepEngine = new SweepEngine(sweepThreads);
+
+        // With rm3-candidate-pool set, rerank one pool of that many candidates per query rather than retrieving for
+        // every RM3 query; rm3-candidate-pool-verify also retrieves and reports how closely the two agree
+        CandidatePoolReranker candidatePool = null;
+        int candidatePoolSize = Integer.parseInt(config.getString("rm3-candidate-pool", "0"));
+        if (candidatePoolSize > 0) {
+            candidatePool = new CandidatePoolReranker(targetIndex, targetCollectionStats, candidatePoolSize);
+            candidatePool.setVerifying(Boolean.parseBoolean(config.getString("rm3-candidate-pool-verify", "false")));
+        }
 
-                //String origDocno = parts[0];
-                String origDocno = record.get("origDocno");
+        // Each expansion index's statistics are shared by every query's scorers of that index
+        String[] expansionIndexPaths = config.getStringArray("expansion-index");
+        String[] expansionStatsSnapshots = config.getStringArray("expansion-stats-snapshot");
+        List<CollectionStats> expansionCollectionStats = new ArrayList<>();
+        for (int i = 0; i < expansionIndexPaths.length; i++) {
+            String expansionStatsSnapshot = i < expansionStatsSnapshots.length ? expansionStatsSnapshots[i] : null;
+            expansionCollectionStats.add(CollectionStatsSnapshot.open(expansionStatsSnapshot, expansionIndexPaths[i]));
+        }
 
-                if (!expansionDocs.containsKey(origDocno)) {
-                    expansionDocs.put(origDocno, new SearchHits());
+        // Queries whose expansion docs are in the same store share one open copy of it
+        Map<String, MappedExpansionStore> expansionStores = new HashMap<>();
+
+        // Run every selected query in this process, sharing indexes, caches and expansions between them
+        for (GQuery query : QueryBatch.select(queries, queryName)) {
+            OptimalParameters expansionParams = new OptimalParameters(new File(paramsFile), query.getTitle());
+            String expansionDocsFile = expansionDocsPrefix + "_" + expansionParams.getVecSize();
+
+            // Get the feedback docs
+            query.applyStopper(stopper);
+            SearchHits feedbackDocs = targetIndex.runQuery(query, maxFbDocs); // get max fbDocs; we'll trim as we go along
+
+            // The expansion docs are either a store written by BulkExpandDocuments or a CSV of origDocno,relatedDocno,cosine
+            List<DocumentExpander> docExpanders;
+            if (MappedExpansionStore.isExpansionStore(expansionDocsFile)) {
+                if (!expansionStores.containsKey(expansionDocsFile)) {
+                    try {
+                        expansionStores.put(expansionDocsFile, new MappedExpansionStore(expansionDocsFile));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        System.exit(-1);
+                        return;
+                    }
                 }
-
-                if (expansionDocs.get(origDocno).size() >= expansionParams.getNumDocs()){
-                    continue;
+                MappedExpansionStore expansionStore = expansionStores.get(expansionDocsFile);
+                docExpanders = expansionIndexes
+                        .stream()
+                        .map(expansionIndex -> new PreExpandedDocumentExpander(expansionIndex, expansionParams.getNumTerms(), stopper, expansionStore))
+                        .collect(Collectors.toList());
+            } else {
+                Map<String, SearchHits> expansionDocs = new HashMap<>();
+                try {
+                    //Scanner scanner = new Scanner(new File(expansionDocsFile));
+                    Iterable<CSVRecord> records = CSVFormat.EXCEL.withHeader("origDocno", "relatedDocno", "cosine").withQuoteMode(QuoteMode.MINIMAL).parse(new FileReader(expansionDocsFile));
+                    //while (scanner.hasNextLine()) {
+                    for (CSVRecord record : records) {
+                        //String[] parts = scanner.nextLine().split(",");
+
+                        //String origDocno = parts[0];
+                        String origDocno = record.get("origDocno");
+
+                        if (!expansionDocs.containsKey(origDocno)) {
+                            expansionDocs.put(origDocno, new SearchHits());
+                        }
+
+                        if (expansionDocs.get(origDocno).size() >= expansionParams.getNumDocs()){
+                            continue;
+                        }
+
+                        //String relatedDocno = parts[1];
+                        //double cosine = Double.parseDouble(parts[2]);
+                        String relatedDocno = record.get("relatedDocno");
+                        double cosine = Double.parseDouble(record.get("cosine"));
+
+                        IndexBackedSearchHit expHit = new IndexBackedSearchHit(expansionIndexes.get(0)); // this is bad, but in reality i know there's only going to be one expansion index
+                        expHit.setDocno(relatedDocno);
+                        expHit.setScore(cosine);
+
+                        expansionDocs.get(origDocno).add(expHit);
+                    }
+                } catch (FileNotFoundException e) {
+                    System.out.println("Couldn't open file: " + expansionDocsFile);
+                    System.exit(-1);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.exit(-1);
                 }
 
-                //String relatedDocno = parts[1];
-                //double cosine = Double.parseDouble(parts[2]);
-                String relatedDocno = record.get("relatedDocno");
-                double cosine = Double.parseDouble(record.get("cosine"));
-
-                IndexBackedSearchHit expHit = new IndexBackedSearchHit(expansionIndexes.get(0)); // this is bad, but in reality i know there's only going to be one expansion index
-                expHit.setDocno(relatedDocno);
-                expHit.setScore(cosine);
-
-                expansionDocs.get(origDocno).add(expHit);
+                docExpanders = expansionIndexes
+                        .stream()
+                        .map(expansionIndex -> new PreExpandedDocumentExpander(expansionIndex, expansionParams.getNumTerms(), stopper, expansionDocs))
+                        .collect(Collectors.toList());
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Couldn't open file: " + expansionDocsFile);
-            System.exit(-1);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
-        }
-
-        List<DocumentExpander> docExpanders = expansionIndexes
-                .stream()
-                .map(expansionIndex -> new PreExpandedDocumentExpander(expansionIndex, expansionParams.getNumTerms(), stopper, expansionDocs))
-                .collect(Collectors.toList());
-
-		// Prep RM builders
-        ExpandedRM1Builder rm1Builder = new ExpandedRM1Builder(maxFbDocs, maxFbTerms, targetCollectionStats,
-                docExpanders, expansionParams.getNumDocs());
-        List<Double> interpolationWeights = new ArrayList<>(expansionParams.getExpWeights());
-        interpolationWeights.add(0, expansionParams.getOrigWeight());
-        rm1Builder.setInterpolationWeights(interpolationWeights);
-		RM3Builder rm3Builder = new RM3Builder();
 
-		// Prep the RM3 query
-		GQuery rm3Query = new GQuery();
-		rm3Query.setTitle(query.getTitle());
-
-        // Prep the output
-        FormattedOutputTrecEval out = FormattedOutputTrecEval.getInstance(
-                "tmp",
-                new BufferedWriter(new OutputStreamWriter(System.out))
-        );
-
-        for (int fbDocs = minFbDocs; fbDocs <= maxFbDocs; fbDocs += fbDocsInterval) {
-            rm1Builder.setFeedbackDocs(fbDocs);
-
-            FeatureVector rm1Vector = rm1Builder.buildRelevanceModel(query, feedbackDocs, stopper);
-
-            for (int fbTerms = maxFbTerms; fbTerms >= minFbTerms; fbTerms -= fbTermsInterval) {
-                rm1Vector.clip(fbTerms);
-
-                for (int fbOrigWeightInt = 0; fbOrigWeightInt <= 10; fbOrigWeightInt++) {
-                    double fbOrigWeight = fbOrigWeightInt / 10.0;
-
-                    // Build the RM3
-                    FeatureVector rm3 = rm3Builder.buildRelevanceModel(query, rm1Vector, fbOrigWeight);
-
-                    // Set the RM3 as the query
-                    rm3Query.setFeatureVector(rm3);
-
-                    // Execute the RM3 query
-                    SearchHits results = targetIndex.runQuery(rm3Query, 1000);
+            // Prep RM builders
+            ExpandedRM1Builder rm1Builder = new ProgressiveExpandedRM1Builder(maxFbDocs, maxFbTerms, targetCollectionStats,
+                    docExpanders, expansionParams.getNumDocs());
+            List<Double> interpolationWeights = new ArrayList<>(expansionParams.getExpWeights());
+            interpolationWeights.add(0, expansionParams.getOrigWeight());
+            rm1Builder.setExpansionCollectionStats(expansionCollectionStats);
+            rm1Builder.setInterpolationWeights(interpolationWeights);
+
+            // The fan-out's threads belong to this query's expanders, so they are released with them
+            ExpansionFanOut fanOut = new ExpansionFanOut(docExpanders);
+            rm1Builder.setExpansionFanOut(fanOut);
+
+            RM3Sweep.run(query, feedbackDocs, stopper, rm1Builder, grid, retrievalPool, candidatePool, sweepEngine,
+                    point -> {
+                        String expWeightLabels = "";
+                        for (int i = 1; i < interpolationWeights.size(); i++) {
+                            expWeightLabels += "expW" + i + ":" + interpolationWeights.get(i);
+                        }
+                        return expWeightLabels +
+                                ",v:" + expansionParams.getVecSize() +
+                                ",origW:" + expansionParams.getOrigWeight() +
+                                ",expDocs:" + expansionParams.getNumDocs() +
+                                ",expTerms:" + expansionParams.getNumTerms() +
+                                ",fbOrigWeight:" + point.getFbOrigWeight() +
+                                ",fbDocs:" + point.getFbDocs() +
+                                ",fbTerms:" + point.getFbTerms();
+                    },
+                    out
+            );
+            fanOut.close();
+        }
 
-                    // Write results
-                    String expWeightLabels = "";
-                    for (int i = 1; i < interpolationWeights.size(); i++) {
-                        expWeightLabels += "expW" + i + ":" + interpolationWeights.get(i);
-                    }
-                    out.setRunId(
-                            expWeightLabels +
-                                    ",v:" + expansionParams.getVecSize() +
-                                    ",origW:" + expansionParams.getOrigWeight() +
-                                    ",expDocs:" + expansionParams.getNumDocs() +
-                                    ",expTerms:" + expansionParams.getNumTerms() +
-                                    ",fbOrigWeight:" + fbOrigWeight +
-                                    ",fbDocs:" + fbDocs +
-                                    ",fbTerms:" + fbTerms
-                    );
-                    out.write(results, query.getTitle());
-                }
+        for (MappedExpansionStore expansionStore : expansionStores.values()) {
+            try {
+                expansionStore.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
+
+        sweepEngine.close();
+        retrievalPool.close();
+        out.close();
 	}
 }
@@ -1,19 +1,13 @@
 package org.retrievable.document_expansion.main;
 
 import edu.gslis.docscoring.support.CollectionStats;
-import edu.gslis.docscoring.support.IndexBackedCollectionStats;
 import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl;
 import edu.gslis.indexes.IndexWrapperIndriImpl;
-import edu.gslis.output.FormattedOutputTrecEval;
 import edu.gslis.queries.GQueries;
 import edu.gslis.queries.GQueriesFactory;
 import edu.gslis.queries.GQuery;
-import edu.gslis.scoring.CachedDocScorer;
 import edu.gslis.scoring.DirichletDocScorer;
 import edu.gslis.scoring.DocScorer;
-import edu.gslis.scoring.InterpolatedDocScorer;
-import edu.gslis.scoring.queryscoring.QueryLikelihoodQueryScorer;
-import edu.gslis.scoring.queryscoring.QueryScorer;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
 import edu.gslis.utils.Stopper;
@@ -21,11 +15,21 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.ExpansionFanOut;
+import org.retrievable.document_expansion.expansion.MappedExpansionStore;
+import org.retrievable.document_expansion.expansion.RetrievalPool;
 import org.retrievable.document_expansion.lms.InterpolationWeights;
+import org.retrievable.document_expansion.output.RunWriter;
+import org.retrievable.document_expansion.output.RunWriters;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot;
+import org.retrievable.document_expansion.scoring.ComponentScoreTable;
 import org.retrievable.document_expansion.scoring.ExpansionDocScorer;
+import org.retrievable.document_expansion.scoring.FixedWeightInterpolatedScorer;
+import org.retrievable.document_expansion.scoring.ParallelReranker;
+import org.retrievable.document_expansion.scoring.ParameterGrid;
+import org.retrievable.document_expansion.scoring.SweepEngine;
 
-import java.io.BufferedWriter;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -52,10 +56,9 @@ public class RunExpandedRetrieval {
                 .collect(Collectors.toList());
 
         GQueries queries = GQueriesFactory.getGQueries(config.getString("queries"));
-        GQuery query = queries.getNamedQuery(queryName);
 
-        CollectionStats targetCollectionStats = new IndexBackedCollectionStats();
-        targetCollectionStats.setStatSource(config.getString("target-index"));
+        CollectionStats targetCollectionStats = CollectionStatsSnapshot.open(config.getString("target-stats-snapshot", null),
+                config.getString("target-index"));
 
         int minNumDocs = Integer.parseInt(config.getString("min-docs", "5"));
         int maxNumDocs = Integer.parseInt(config.getString("max-docs", "25"));
@@ -67,60 +70,124 @@ public class RunExpandedRetrieval {
                 .collect(Collectors.toList());
         docExpanders.stream().forEach(docExpander -> docExpander.setMaxNumDocs(maxNumDocs));
 
-        FormattedOutputTrecEval out = FormattedOutputTrecEval.getInstance(
-                "tmp",
-                new BufferedWriter(new OutputStreamWriter(System.out))
-        );
-
-        // Create scorers
-        DocScorer dirichletScorer = new CachedDocScorer(new DirichletDocScorer(targetCollectionStats));
-        List<ExpansionDocScorer> expansionScorers = docExpanders
-                .stream()
-                .map(docExpander -> new ExpansionDocScorer(2500, docExpander))
-                .collect(Collectors.toList());
-
-        Map<DocScorer, Double> scorers = new HashMap<>();
-        DocScorer interpolatedScorer = new InterpolatedDocScorer(scorers);
-        QueryScorer queryScorer = new QueryLikelihoodQueryScorer(interpolatedScorer);
-
-        // Get initial results
-        query.applyStopper(stopper);
-        SearchHits results = targetIndex.runQuery(query, 1000);
-
-        // Iterate over parameter settings
-        for (int numDocs = minNumDocs; numDocs <= maxNumDocs; numDocs += numDocsInterval) {
-            for (ExpansionDocScorer expansionScorer : expansionScorers) {
-                expansionScorer.setNumDocs(numDocs);
+        // Optionally persist expansions across runs, one store per expansion index
+        String[] expansionStores = config.getStringArray("expansion-store");
+        for (int i = 0; i < Math.min(expansionStores.length, docExpanders.size()); i++) {
+            try {
+                docExpanders.get(i).setExpansionStore(new MappedExpansionStore(expansionStores[i]));
+            } catch (IOException e) {
+                System.err.println("Unable to open expansion store " + expansionStores[i] + ". Expanding by retrieval only.");
+                e.printStackTrace(System.err);
             }
+        }
 
-            // Add 1 for the original document scorer
-            List<List<Double>> interpolationWeights = InterpolationWeights.weights(expansionScorers.size() + 1);
-            for (List<Double> interpolationWeightCombination : interpolationWeights) {
-                double origWeight = interpolationWeightCombination.get(0);
-                scorers.put(dirichletScorer, origWeight);
+        // Spread expansion retrievals over a pool of index copies for each expansion index
+        String[] expansionIndexPaths = config.getStringArray("expansion-index");
+        int expansionThreads = Integer.parseInt(config.getString("expansion-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        List<RetrievalPool> retrievalPools = new ArrayList<>();
+        for (int i = 0; i < docExpanders.size(); i++) {
+            RetrievalPool retrievalPool = new RetrievalPool(expansionIndexPaths[i], expansionThreads);
+            retrievalPools.add(retrievalPool);
+            docExpanders.get(i).setRetrievalPool(retrievalPool);
+        }
 
-                String expansionWeights = "";
-                for (int i = 0; i < expansionScorers.size(); i++) {
-                    double expansionWeight = interpolationWeightCombination.get(i + 1);
+        RunWriter out = RunWriters.open(config);
 
-                    ExpansionDocScorer expansionScorer = expansionScorers.get(i);
-                    scorers.put(expansionScorer, expansionWeight);
+        // Create scorers
+        DocScorer dirichletScorer = new DirichletDocScorer(targetCollectionStats);
+
+        // Each expansion index's statistics are shared by everything that scores against it
+        String[] expansionStatsSnapshots = config.getStringArray("expansion-stats-snapshot");
+        List<ExpansionDocScorer> expansionScorers = new ArrayList<>();
+        for (int i = 0; i < docExpanders.size(); i++) {
+            String expansionStatsSnapshot = i < expansionStatsSnapshots.length ? expansionStatsSnapshots[i] : null;
+            CollectionStats expansionCollectionStats = CollectionStatsSnapshot.open(expansionStatsSnapshot,
+                    expansionIndexPaths[i]);
+            expansionScorers.add(new ExpansionDocScorer(2500, docExpanders.get(i), expansionCollectionStats));
+        }
 
-                    expansionWeights += "expW" + (i + 1) + ":" + expansionWeight;
-                }
+        SweepEngine sweepEngine = new SweepEngine(Integer.parseInt(config.getString("sweep-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
 
-                out.setRunId(expansionWeights + ",origW:" + origWeight + ",expDocs:" + numDocs + ",expTerms:" + numTerms);
+        // Run every selected query in this process, sharing indexes, caches and expansions between them
+        for (GQuery query : QueryBatch.select(queries, queryName)) {
+            // Get initial results
+            query.applyStopper(stopper);
+            SearchHits results = targetIndex.runQuery(query, 1000);
 
-                for (SearchHit doc : results) {
-                    double expandedScore = queryScorer.scoreQuery(query, doc);
-                    doc.setScore(expandedScore);
+            // Expand the whole result list up front, at max-docs so the numDocs sweep is served from prefixes
+            // Unless expansion-fan-out is false, expand against every expansion index at the same time
+            if (Boolean.parseBoolean(config.getString("expansion-fan-out", "true"))) {
+                try (ExpansionFanOut fanOut = new ExpansionFanOut(docExpanders)) {
+                    fanOut.expandDocuments(results, maxNumDocs);
                 }
+            } else {
+                docExpanders.forEach(docExpander -> docExpander.expandDocuments(results, maxNumDocs));
+            }
 
-                results.rank();
-                out.write(results, query.getTitle());
+            // Add 1 for the original document scorer
+            ParameterGrid grid = new ParameterGrid()
+                    .numDocs(ParameterGrid.range(minNumDocs, maxNumDocs, numDocsInterval))
+                    .interpolationWeights(InterpolationWeights.weights(expansionScorers.size() + 1));
+
+            // Load everything the grid reads from the indexes before spreading it over threads. Unless decomposed-sweep is
+            // false, also compute each component's term probabilities once per numDocs so a grid point only recombines them.
+            boolean decomposedSweep = Boolean.parseBoolean(config.getString("decomposed-sweep", "true"));
+            List<DocScorer> components = new ArrayList<>();
+            components.add(dirichletScorer);
+            components.addAll(expansionScorers);
+
+            for (SearchHit doc : results) {
+                doc.getFeatureVector();
+            }
+            Map<Integer, ComponentScoreTable> scoreTables = new HashMap<>();
+            for (int numDocs : grid.getNumDocs()) {
+                if (decomposedSweep) {
+                    for (ExpansionDocScorer expansionScorer : expansionScorers) {
+                        expansionScorer.setNumDocs(numDocs);
+                    }
+                    scoreTables.put(numDocs, new ComponentScoreTable(query, results, components));
+                } else {
+                    for (ExpansionDocScorer expansionScorer : expansionScorers) {
+                        expansionScorer.warmUp(query, results, numDocs);
+                    }
+                }
             }
+
+            sweepEngine.run(
+                    grid.points(),
+                    point -> {
+                        if (decomposedSweep) {
+                            return scoreTables.get(point.getNumDocs()).rankedCopy(point.getInterpolationWeights());
+                        }
+                        List<DocScorer> pointComponents = new ArrayList<>();
+                        pointComponents.add(dirichletScorer);
+                        for (ExpansionDocScorer expansionScorer : expansionScorers) {
+                            pointComponents.add(expansionScorer.withNumDocs(point.getNumDocs()));
+                        }
+                        return ParallelReranker.rerankOnCallingThread(query, results,
+                                new FixedWeightInterpolatedScorer(pointComponents, point.getInterpolationWeights()));
+                    },
+                    point -> {
+                        List<Double> interpolationWeightCombination = point.getInterpolationWeights();
+                        double origWeight = interpolationWeightCombination.get(0);
+
+                        String expansionWeights = "";
+                        for (int i = 0; i < expansionScorers.size(); i++) {
+                            double expansionWeight = interpolationWeightCombination.get(i + 1);
+                            expansionWeights += "expW" + (i + 1) + ":" + expansionWeight;
+                        }
+
+                        return expansionWeights + ",origW:" + origWeight + ",expDocs:" + point.getNumDocs() + ",expTerms:" + numTerms;
+                    },
+                    out,
+                    query.getTitle()
+            );
         }
 
+        sweepEngine.close();
+        retrievalPools.forEach(RetrievalPool::close);
         out.close();
     }
 
@@ -1,19 +1,13 @@
 package org.retrievable.document_expansion.main;
 
 import edu.gslis.docscoring.support.CollectionStats;
-import edu.gslis.docscoring.support.IndexBackedCollectionStats;
 import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl;
 import edu.gslis.indexes.IndexWrapperIndriImpl;
-import edu.gslis.output.FormattedOutputTrecEval;
 import edu.gslis.queries.GQueries;
 import edu.gslis.queries.GQueriesFactory;
 import edu.gslis.queries.GQuery;
-import edu.gslis.scoring.CachedDocScorer;
 import edu.gslis.scoring.DirichletDocScorer;
 import edu.gslis.scoring.DocScorer;
-import edu.gslis.scoring.InterpolatedDocScorer;
-import edu.gslis.scoring.queryscoring.QueryLikelihoodQueryScorer;
-import edu.gslis.scoring.queryscoring.QueryScorer;
 import edu.gslis.searchhits.IndexBackedSearchHit;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
@@ -25,13 +19,21 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.MappedExpansionStore;
 import org.retrievable.document_expansion.expansion.PreExpandedDocumentExpander;
 import org.retrievable.document_expansion.lms.InterpolationWeights;
+import org.retrievable.document_expansion.output.RunWriter;
+import org.retrievable.document_expansion.output.RunWriters;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot;
+import org.retrievable.document_expansion.scoring.ComponentScoreTable;
 import org.retrievable.document_expansion.scoring.ExpansionDocScorer;
+import org.retrievable.document_expansion.scoring.FixedWeightInterpolatedScorer;
+import org.retrievable.document_expansion.scoring.ParallelReranker;
+import org.retrievable.document_expansion.scoring.ParameterGrid;
+import org.retrievable.document_expansion.scoring.SweepEngine;
 
 import java.io.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * New model:
@@ -55,90 +57,117 @@ public class RunExpandedRetrievalWithGivenExpansionDocs {
         IndexWrapperIndriImpl expansionIndex = new CachedFeatureVectorIndexWrapperIndriImpl(config.getString("expansion-index"));
 
         GQueries queries = GQueriesFactory.getGQueries(config.getString("queries"));
-        GQuery query = queries.getNamedQuery(queryName);
 
-        CollectionStats targetCollectionStats = new IndexBackedCollectionStats();
-        targetCollectionStats.setStatSource(config.getString("target-index"));
+        CollectionStats targetCollectionStats = CollectionStatsSnapshot.open(config.getString("target-stats-snapshot", null),
+                config.getString("target-index"));
 
         int minNumDocs = Integer.parseInt(config.getString("min-docs", "5"));
         int maxNumDocs = Integer.parseInt(config.getString("max-docs", "25"));
         int numDocsInterval = Integer.parseInt(config.getString("docs-interval", "5"));
 
-        Map<String, SearchHits> expansionDocs = new HashMap<>();
-        try {
-            Reader in = new FileReader(expansionDocsFile);
-            for (CSVRecord record : CSVFormat.EXCEL.parse(in)) {
-                String origDocno = record.get(0);
-                //int origDocID = targetIndex.getDocId(origDocno);
-                String relatedDocno = record.get(1);
-                double cosine = Double.parseDouble(record.get(2));
-
-                IndexBackedSearchHit expHit = new IndexBackedSearchHit(expansionIndex);
-                expHit.setDocno(relatedDocno);
-                expHit.setScore(cosine);
-
-                //System.out.println(expHit.getDocno() + ", " + expHit.getDocID());
-
-                if (!expansionDocs.containsKey(origDocno)) {
-                    expansionDocs.put(origDocno, new SearchHits());
+        // The expansion docs are either a store written by BulkExpandDocuments or a CSV of origDocno,relatedDocno,score
+        DocumentExpander docExpander;
+        if (MappedExpansionStore.isExpansionStore(expansionDocsFile)) {
+            try {
+                docExpander = new PreExpandedDocumentExpander(expansionIndex, numTerms, stopper,
+                        new MappedExpansionStore(expansionDocsFile));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(-1);
+                return;
+            }
+        } else {
+            Map<String, SearchHits> expansionDocs = new HashMap<>();
+            try {
+                Reader in = new FileReader(expansionDocsFile);
+                for (CSVRecord record : CSVFormat.EXCEL.parse(in)) {
+                    String origDocno = record.get(0);
+                    //int origDocID = targetIndex.getDocId(origDocno);
+                    String relatedDocno = record.get(1);
+                    double cosine = Double.parseDouble(record.get(2));
+
+                    IndexBackedSearchHit expHit = new IndexBackedSearchHit(expansionIndex);
+                    expHit.setDocno(relatedDocno);
+                    expHit.setScore(cosine);
+
+                    //System.out.println(expHit.getDocno() + ", " + expHit.getDocID());
+
+                    if (!expansionDocs.containsKey(origDocno)) {
+                        expansionDocs.put(origDocno, new SearchHits());
+                    }
+                    expansionDocs.get(origDocno).add(expHit);
                 }
-                expansionDocs.get(origDocno).add(expHit);
+            } catch (FileNotFoundException e) {
+                System.out.println("Couldn't open file: " + expansionDocsFile);
+                System.exit(-1);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(-1);
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Couldn't open file: " + expansionDocsFile);
-            System.exit(-1);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
-        }
 
-        DocumentExpander docExpander = new PreExpandedDocumentExpander(expansionIndex, numTerms, stopper, expansionDocs);
+            docExpander = new PreExpandedDocumentExpander(expansionIndex, numTerms, stopper, expansionDocs);
+        }
         docExpander.setMaxNumDocs(maxNumDocs);
 
-        FormattedOutputTrecEval out = FormattedOutputTrecEval.getInstance(
-                "tmp",
-                new BufferedWriter(new OutputStreamWriter(System.out))
-        );
+        RunWriter out = RunWriters.open(config);
 
         // Create scorers
-        DocScorer dirichletScorer = new CachedDocScorer(new DirichletDocScorer(targetCollectionStats));
-        ExpansionDocScorer expansionScorer = new ExpansionDocScorer(2500, docExpander);
+        DocScorer dirichletScorer = new DirichletDocScorer(targetCollectionStats);
+        CollectionStats expansionCollectionStats = CollectionStatsSnapshot.open(
+                config.getString("expansion-stats-snapshot", null), config.getString("expansion-index"));
+        ExpansionDocScorer expansionScorer = new ExpansionDocScorer(2500, docExpander, expansionCollectionStats);
 
-        Map<DocScorer, Double> scorers = new HashMap<>();
-        DocScorer interpolatedScorer = new InterpolatedDocScorer(scorers);
-        QueryScorer queryScorer = new QueryLikelihoodQueryScorer(interpolatedScorer);
+        SweepEngine sweepEngine = new SweepEngine(Integer.parseInt(config.getString("sweep-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
 
-        // Get initial results
-        query.applyStopper(stopper);
-        SearchHits results = targetIndex.runQuery(query, 1000);
-
-        // Iterate over parameter settings
-        for (int numDocs = minNumDocs; numDocs <= maxNumDocs; numDocs += numDocsInterval) {
-            expansionScorer.setNumDocs(numDocs);
+        // Run every selected query in this process, sharing indexes, caches and expansions between them
+        for (GQuery query : QueryBatch.select(queries, queryName)) {
+            // Get initial results
+            query.applyStopper(stopper);
+            SearchHits results = targetIndex.runQuery(query, 1000);
 
             // Add 1 for the original document scorer
-            List<List<Double>> interpolationWeights = InterpolationWeights.weights(2);
-            for (List<Double> interpolationWeightCombination : interpolationWeights) {
-                double origWeight = interpolationWeightCombination.get(0);
-                scorers.put(dirichletScorer, origWeight);
-
-                String expansionWeights = "";
-                double expansionWeight = interpolationWeightCombination.get(1);
-                scorers.put(expansionScorer, expansionWeight);
-                expansionWeights += "expW1:" + expansionWeight;
+            ParameterGrid grid = new ParameterGrid()
+                    .numDocs(ParameterGrid.range(minNumDocs, maxNumDocs, numDocsInterval))
+                    .interpolationWeights(InterpolationWeights.weights(2));
 
-                out.setRunId(expansionWeights + ",origW:" + origWeight + ",expDocs:" + numDocs + ",expTerms:" + numTerms);
+            // Load everything the grid reads from the indexes before spreading it over threads. Unless decomposed-sweep is
+            // false, also compute each component's term probabilities once per numDocs so a grid point only recombines them.
+            boolean decomposedSweep = Boolean.parseBoolean(config.getString("decomposed-sweep", "true"));
+            List<DocScorer> components = Arrays.asList(dirichletScorer, expansionScorer);
 
-                for (SearchHit doc : results) {
-                    double expandedScore = queryScorer.scoreQuery(query, doc);
-                    doc.setScore(expandedScore);
+            for (SearchHit doc : results) {
+                doc.getFeatureVector();
+            }
+            Map<Integer, ComponentScoreTable> scoreTables = new HashMap<>();
+            for (int numDocs : grid.getNumDocs()) {
+                if (decomposedSweep) {
+                    expansionScorer.setNumDocs(numDocs);
+                    scoreTables.put(numDocs, new ComponentScoreTable(query, results, components));
+                } else {
+                    expansionScorer.warmUp(query, results, numDocs);
                 }
-
-                results.rank();
-                out.write(results, query.getTitle());
             }
+
+            sweepEngine.run(
+                    grid.points(),
+                    point -> {
+                        if (decomposedSweep) {
+                            return scoreTables.get(point.getNumDocs()).rankedCopy(point.getInterpolationWeights());
+                        }
+                        List<DocScorer> pointComponents = Arrays.asList(dirichletScorer,
+                                expansionScorer.withNumDocs(point.getNumDocs()));
+                        return ParallelReranker.rerankOnCallingThread(query, results,
+                                new FixedWeightInterpolatedScorer(pointComponents, point.getInterpolationWeights()));
+                    },
+                    point -> "expW1:" + point.getInterpolationWeights().get(1) + ",origW:" + point.getInterpolationWeights().get(0) +
+                            ",expDocs:" + point.getNumDocs() + ",expTerms:" + numTerms,
+                    out,
+                    query.getTitle()
+            );
         }
 
+        sweepEngine.close();
         out.close();
     }
 
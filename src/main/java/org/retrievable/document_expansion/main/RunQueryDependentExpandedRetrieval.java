@@ -1,37 +1,37 @@
 package org.retrievable.document_expansion.main;
 
 import edu.gslis.docscoring.support.CollectionStats;
-import edu.gslis.docscoring.support.IndexBackedCollectionStats;
 import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl;
 import edu.gslis.indexes.IndexWrapperIndriImpl;
-import edu.gslis.output.FormattedOutputTrecEval;
 import edu.gslis.queries.GQueries;
 import edu.gslis.queries.GQueriesFactory;
 import edu.gslis.queries.GQuery;
-import edu.gslis.scoring.CachedDocScorer;
 import edu.gslis.scoring.DirichletDocScorer;
 import edu.gslis.scoring.DocScorer;
-import edu.gslis.scoring.InterpolatedDocScorer;
-import edu.gslis.scoring.expansion.RM1Builder;
-import edu.gslis.scoring.expansion.StandardRM1Builder;
-import edu.gslis.scoring.queryscoring.QueryLikelihoodQueryScorer;
-import edu.gslis.scoring.queryscoring.QueryScorer;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
-import edu.gslis.textrepresentation.FeatureVector;
 import edu.gslis.utils.Stopper;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
-import org.retrievable.documentExpansion.utils.OptimalParameters;
 import org.retrievable.document_expansion.expansion.QueryDependentDocumentExpander;
+import org.retrievable.document_expansion.output.RunWriter;
+import org.retrievable.document_expansion.output.RunWriters;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot;
+import org.retrievable.document_expansion.scoring.ComponentScoreTable;
 import org.retrievable.document_expansion.scoring.ExpansionDocScorer;
-
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.OutputStreamWriter;
+import org.retrievable.document_expansion.scoring.FixedWeightInterpolatedScorer;
+import org.retrievable.document_expansion.scoring.ParallelReranker;
+import org.retrievable.document_expansion.scoring.ParameterGrid;
+import org.retrievable.document_expansion.scoring.SweepEngine;
+import org.retrievable.document_expansion.scoring.SweepPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * New model:
@@ -54,12 +54,9 @@ public class RunQueryDependentExpandedRetrieval {
         IndexWrapperIndriImpl expansionIndex = new CachedFeatureVectorIndexWrapperIndriImpl(config.getString("expansion-index"));
 
         GQueries queries = GQueriesFactory.getGQueries(config.getString("queries"));
-        GQuery query = queries.getNamedQuery(queryName);
-
-        CollectionStats targetCollectionStats = new IndexBackedCollectionStats();
-        targetCollectionStats.setStatSource(config.getString("target-index"));
 
-        OptimalParameters optimalParameters = new OptimalParameters(new File(config.getString("optimal-params")), query.getTitle());
+        CollectionStats targetCollectionStats = CollectionStatsSnapshot.open(config.getString("target-stats-snapshot", null),
+                config.getString("target-index"));
 
         int minNumDocs = Integer.parseInt(config.getString("min-docs", "5"));
         int maxNumDocs = Integer.parseInt(config.getString("max-docs", "25"));
@@ -67,52 +64,92 @@ public class RunQueryDependentExpandedRetrieval {
 
         QueryDependentDocumentExpander docExpander = new QueryDependentDocumentExpander(expansionIndex, numTerms, stopper);
         docExpander.setMaxNumDocs(maxNumDocs);
-        docExpander.setQuery(query);
-
-        FormattedOutputTrecEval out = FormattedOutputTrecEval.getInstance(
-                "tmp",
-                new BufferedWriter(new OutputStreamWriter(System.out))
-        );
-
-        // Create scorers
-        DocScorer dirichletScorer = new CachedDocScorer(new DirichletDocScorer(targetCollectionStats));
-        ExpansionDocScorer expansionScorer = new ExpansionDocScorer(2500, docExpander);
 
-        Map<DocScorer, Double> scorers = new HashMap<>();
-        DocScorer interpolatedScorer = new InterpolatedDocScorer(scorers);
-        QueryScorer queryScorer = new QueryLikelihoodQueryScorer(interpolatedScorer);
+        // Optionally retrieve one candidate pool per document and rank it locally for every query weight. This only
+        // approximates retrieving per query weight, so unless candidate-pool-verify is false each ranking is also
+        // retrieved and the agreement reported.
+        docExpander.setCandidatePoolDepth(Integer.parseInt(config.getString("candidate-pool-depth", "0")));
+        docExpander.setCandidatePoolQueryWeights(ParameterGrid.tenths());
+        docExpander.setVerifyingCandidatePool(Boolean.parseBoolean(config.getString("candidate-pool-verify", "true")));
 
-        // Get initial results
-        query.applyStopper(stopper);
-        SearchHits results = targetIndex.runQuery(query, 1000);
+        RunWriter out = RunWriters.open(config);
 
-        // Iterate over parameter settings
-        for (int queryWeightInt = 0; queryWeightInt <= 10; queryWeightInt++) {
-            double queryWeight = queryWeightInt / 10.0;
-            docExpander.setQueryWeight(queryWeight);
+        // Create scorers
+        DocScorer dirichletScorer = new DirichletDocScorer(targetCollectionStats);
+        CollectionStats expansionCollectionStats = CollectionStatsSnapshot.open(
+                config.getString("expansion-stats-snapshot", null), config.getString("expansion-index"));
+        ExpansionDocScorer expansionScorer = new ExpansionDocScorer(2500, docExpander, expansionCollectionStats);
 
-            for (int numDocs = minNumDocs; numDocs <= maxNumDocs; numDocs += numDocsInterval) {
-                expansionScorer.setNumDocs(numDocs);
+        SweepEngine sweepEngine = new SweepEngine(Integer.parseInt(config.getString("sweep-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
 
-                for (int origWeightInt = 0; origWeightInt <= 10; origWeightInt++) {
-                    double origWeight = origWeightInt / 10.0;
+        // Run every selected query in this process, sharing indexes, caches and expansions between them
+        for (GQuery query : QueryBatch.select(queries, queryName)) {
+            docExpander.setQuery(query);
 
-                    scorers.put(dirichletScorer, origWeight);
-                    scorers.put(expansionScorer, 1 - origWeight);
+            // Get initial results
+            query.applyStopper(stopper);
+            SearchHits results = targetIndex.runQuery(query, 1000);
 
-                    out.setRunId("origW:" + origWeight + ",expDocs:" + numDocs + ",expTerms:" + numTerms + ",queryW:" + queryWeight);
+            List<List<Double>> interpolationWeights = new ArrayList<>();
+            for (double origWeight : ParameterGrid.tenths()) {
+                interpolationWeights.add(Arrays.asList(origWeight, 1 - origWeight));
+            }
+            ParameterGrid grid = new ParameterGrid()
+                    .queryWeights(ParameterGrid.tenths())
+                    .numDocs(ParameterGrid.range(minNumDocs, maxNumDocs, numDocsInterval))
+                    .interpolationWeights(interpolationWeights);
+            List<SweepPoint> points = grid.points();
+
+            // Unless decomposed-sweep is false, compute each component's term probabilities once per query weight and
+            // numDocs so a grid point only recombines them
+            boolean decomposedSweep = Boolean.parseBoolean(config.getString("decomposed-sweep", "true"));
+            List<DocScorer> components = Arrays.asList(dirichletScorer, expansionScorer);
+
+            for (SearchHit doc : results) {
+                doc.getFeatureVector();
+            }
 
-                    for (SearchHit doc : results) {
-                        double expandedScore = queryScorer.scoreQuery(query, doc);
-                        doc.setScore(expandedScore);
+            // The expander's query weight is shared state, so query weights are walked one at a time and only the grid
+            // points under each are spread over threads
+            for (double queryWeight : grid.getQueryWeights()) {
+                docExpander.setQueryWeight(queryWeight);
+                expansionScorer.clearScoringContexts();
+
+                // Retrieve max-docs once per document; the numDocs sweep below is served from prefixes
+                docExpander.expandDocuments(results, maxNumDocs);
+
+                // Load everything this query weight's points read from the indexes before spreading them over threads
+                Map<Integer, ComponentScoreTable> scoreTables = new HashMap<>();
+                for (int numDocs : grid.getNumDocs()) {
+                    if (decomposedSweep) {
+                        expansionScorer.setNumDocs(numDocs);
+                        scoreTables.put(numDocs, new ComponentScoreTable(query, results, components));
+                    } else {
+                        expansionScorer.warmUp(query, results, numDocs);
                     }
-
-                    results.rank();
-                    out.write(results, query.getTitle());
                 }
+
+                sweepEngine.run(
+                        points.stream().filter(point -> point.getQueryWeight() == queryWeight).collect(Collectors.toList()),
+                        point -> {
+                            if (decomposedSweep) {
+                                return scoreTables.get(point.getNumDocs()).rankedCopy(point.getInterpolationWeights());
+                            }
+                            List<DocScorer> pointComponents = Arrays.asList(dirichletScorer,
+                                    expansionScorer.withNumDocs(point.getNumDocs()));
+                            return ParallelReranker.rerankOnCallingThread(query, results,
+                                    new FixedWeightInterpolatedScorer(pointComponents, point.getInterpolationWeights()));
+                        },
+                        point -> "origW:" + point.getInterpolationWeights().get(0) + ",expDocs:" + point.getNumDocs() +
+                                ",expTerms:" + numTerms + ",queryW:" + queryWeight,
+                        out,
+                        query.getTitle()
+                );
             }
         }
 
+        sweepEngine.close();
         out.close();
     }
 
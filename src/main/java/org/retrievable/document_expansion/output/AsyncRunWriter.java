@@ -0,0 +1,90 @@
+package org.retrievable.document_expansion.output;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Hands results to another RunWriter on a background thread, so callers never wait on formatting or I/O.
+ *
+ * Results are written in the order they were given. The queue is unbounded: a caller is never blocked, at the cost
+ * of holding results in memory while the output falls behind.
+ */
+public class AsyncRunWriter implements RunWriter {
+
+    private static final Object END = new Object();
+
+    private final RunWriter sink;
+    private final BlockingQueue<Object> pending = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+
+    /**
+     * @param sink Does the actual writing, only ever from the background thread
+     */
+    public AsyncRunWriter(RunWriter sink) {
+        this.sink = sink;
+        this.writerThread = new Thread(this::drain, "run-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * The arrays are handed to the background thread and must not be changed afterwards.
+     */
+    @Override
+    public void write(String runId, String queryTitle, String[] docnos, double[] scores) {
+        pending.add(new Results(runId, queryTitle, docnos, scores));
+    }
+
+    private void drain() {
+        while (true) {
+            Object next;
+            try {
+                next = pending.take();
+            } catch (InterruptedException e) {
+                System.err.println("Run writer interrupted. Pending results are lost.");
+                return;
+            }
+            if (next == END) {
+                return;
+            }
+
+            Results results = (Results) next;
+            try {
+                sink.write(results.runId, results.queryTitle, results.docnos, results.scores);
+            } catch (RuntimeException e) {
+                System.err.println("Error writing run " + results.runId + " for query " + results.queryTitle);
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Wait for everything given so far to be written, then close the sink.
+     */
+    @Override
+    public void close() {
+        pending.add(END);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted waiting for the run writer to finish.");
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    private static class Results {
+        final String runId;
+        final String queryTitle;
+        final String[] docnos;
+        final double[] scores;
+
+        Results(String runId, String queryTitle, String[] docnos, double[] scores) {
+            this.runId = runId;
+            this.queryTitle = queryTitle;
+            this.docnos = docnos;
+            this.scores = scores;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.retrievable.document_expansion.output;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the results of a run written by {@link BinaryRunWriter}, one run id and query at a time, so a run of any
+ * size can be converted without loading it.
+ */
+public class BinaryRunReader implements Closeable {
+
+    private final DataInputStream in;
+    private final List<String> docnos = new ArrayList<>();
+
+    private String runId;
+    private String queryTitle;
+    private String[] resultDocnos;
+    private double[] resultScores;
+
+    public BinaryRunReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if (this.in.readInt() != BinaryRunWriter.MAGIC || this.in.readInt() != BinaryRunWriter.VERSION) {
+            throw new IOException("Not a binary run");
+        }
+    }
+
+    /**
+     * Move to the next run id and query's results.
+     * @return False once the run is exhausted
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            byte type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                return false;
+            }
+
+            if (type == BinaryRunWriter.DOCNO) {
+                int id = in.readInt();
+                String docno = in.readUTF();
+                while (docnos.size() <= id) {
+                    docnos.add(null);
+                }
+                docnos.set(id, docno);
+            } else if (type == BinaryRunWriter.RESULTS) {
+                runId = in.readUTF();
+                queryTitle = in.readUTF();
+                int size = in.readInt();
+                resultDocnos = new String[size];
+                resultScores = new double[size];
+                for (int i = 0; i < size; i++) {
+                    resultDocnos[i] = docnos.get(in.readInt());
+                    resultScores[i] = in.readDouble();
+                }
+                return true;
+            } else {
+                throw new IOException("Unknown record type " + type);
+            }
+        }
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public String getQueryTitle() {
+        return queryTitle;
+    }
+
+    /**
+     * @return The documents, in rank order
+     */
+    public String[] getDocnos() {
+        return resultDocnos;
+    }
+
+    public double[] getScores() {
+        return resultScores;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.retrievable.document_expansion.output;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes results in a compact binary run format, read back by {@link BinaryRunReader}.
+ *
+ * Each docno is written once and referred to by id afterwards, and ranks are implied by order, so a result costs 12
+ * bytes instead of a text line. The stream is
+ * <pre>
+ *   int MAGIC, int VERSION
+ *   then any number of records:
+ *     byte DOCNO, int docno id, UTF docno          (before the docno's first use)
+ *     byte RESULTS, UTF runId, UTF query, int n, n * (int docno id, double score)
+ * </pre>
+ */
+public class BinaryRunWriter implements RunWriter {
+
+    static final int MAGIC = 0x4458524e; // "DXRN"
+    static final int VERSION = 1;
+    static final byte DOCNO = 'D';
+    static final byte RESULTS = 'R';
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> docnoIds = new HashMap<>();
+
+    /**
+     * @param out Where the run goes; closed with this writer
+     */
+    public BinaryRunWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+    }
+
+    @Override
+    public void write(String runId, String queryTitle, String[] docnos, double[] scores) {
+        try {
+            int[] ids = new int[docnos.length];
+            for (int i = 0; i < docnos.length; i++) {
+                Integer id = docnoIds.get(docnos[i]);
+                if (id == null) {
+                    id = docnoIds.size();
+                    docnoIds.put(docnos[i], id);
+                    out.writeByte(DOCNO);
+                    out.writeInt(id);
+                    out.writeUTF(docnos[i]);
+                }
+                ids[i] = id;
+            }
+
+            out.writeByte(RESULTS);
+            out.writeUTF(runId);
+            out.writeUTF(queryTitle);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeInt(ids[i]);
+                out.writeDouble(scores[i]);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing run " + runId + " for query " + queryTitle);
+            e.printStackTrace(System.err);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing binary run output");
+            e.printStackTrace(System.err);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.retrievable.document_expansion.output;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+
+import java.io.Closeable;
+
+/**
+ * Writes ranked results, one run id and query at a time.
+ */
+public interface RunWriter extends Closeable {
+
+    /**
+     * @param runId The run the results belong to
+     * @param queryTitle The query the results are for
+     * @param docnos The documents, in rank order
+     * @param scores The documents' scores, aligned with docnos
+     */
+    void write(String runId, String queryTitle, String[] docnos, double[] scores);
+
+    /**
+     * @param results Ranked results; they are read before this returns, so the caller may change them afterwards
+     */
+    default void write(String runId, String queryTitle, SearchHits results) {
+        String[] docnos = new String[results.size()];
+        double[] scores = new double[results.size()];
+        for (int i = 0; i < docnos.length; i++) {
+            SearchHit hit = results.getHit(i);
+            docnos[i] = hit.getDocno();
+            scores[i] = hit.getScore();
+        }
+        write(runId, queryTitle, docnos, scores);
+    }
+
+    /**
+     * Write out anything still pending and release the output.
+     */
+    @Override
+    void close();
+
+}
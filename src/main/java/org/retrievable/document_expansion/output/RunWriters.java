@@ -0,0 +1,42 @@
+package org.retrievable.document_expansion.output;
+
+import org.apache.commons.configuration.Configuration;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Builds the run output a runner's config asks for.
+ *
+ * With run-output set to a directory, each run id gets a file of its own there; otherwise everything goes to
+ * standard out. Processes that split a batch and share a run-output directory need distinct run-output-shard names.
+ * run-format is text (TREC run lines, the default) or binary (see BinaryRunWriter and ConvertBinaryRun). Either way,
+ * writing happens on a background thread.
+ */
+public class RunWriters {
+
+    public static RunWriter open(Configuration config) {
+        String directory = config.getString("run-output", null);
+        boolean binary = "binary".equalsIgnoreCase(config.getString("run-format", "text"));
+
+        RunWriter sink = null;
+        try {
+            if (directory != null && !directory.isEmpty()) {
+                sink = new ShardedRunWriter(new File(directory), binary, config.getString("run-output-shard", null));
+            } else if (binary) {
+                sink = new BinaryRunWriter(System.out);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to open run output " + directory + ". Writing TREC text to standard out.");
+            e.printStackTrace(System.err);
+        }
+        if (sink == null) {
+            sink = new TrecTextRunWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        }
+
+        return new AsyncRunWriter(sink);
+    }
+
+}
@@ -0,0 +1,87 @@
+package org.retrievable.document_expansion.output;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes each run id's results to a file of its own in one directory, so a sweep's runs can be evaluated separately
+ * without splitting one huge file. Files are named after the run id, with anything but letters, digits and . , : = -
+ * replaced by _, plus the process's shard name if it has one.
+ *
+ * A file is truncated when this writer first opens it, whatever the format. Processes that split a batch between them
+ * and share a directory must each be given a different shard name, so that none of them truncates another's files;
+ * concatenate the shards of a run id to get its whole run.
+ */
+public class ShardedRunWriter implements RunWriter {
+
+    private final File directory;
+    private final boolean binary;
+    private final String shardName;
+    private final Map<String, RunWriter> shards = new LinkedHashMap<>();
+
+    /**
+     * @param directory Where the run files go; created if missing
+     * @param binary True to write BinaryRunWriter files (.bin), false for TREC text (.run)
+     */
+    public ShardedRunWriter(File directory, boolean binary) throws IOException {
+        this(directory, binary, null);
+    }
+
+    /**
+     * @param directory Where the run files go; created if missing
+     * @param binary True to write BinaryRunWriter files (.bin), false for TREC text (.run)
+     * @param shardName Added to every file name, unique to this process among those writing to the directory; or null
+     */
+    public ShardedRunWriter(File directory, boolean binary, String shardName) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create run directory " + directory);
+        }
+        this.directory = directory;
+        this.binary = binary;
+        this.shardName = shardName == null || shardName.isEmpty() ? null : sanitize(shardName);
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9.,:=-]", "_");
+    }
+
+    @Override
+    public void write(String runId, String queryTitle, String[] docnos, double[] scores) {
+        RunWriter shard = shards.get(runId);
+        if (shard == null) {
+            try {
+                shard = openShard(runId);
+            } catch (IOException e) {
+                System.err.println("Unable to open the run file for " + runId + ". Dropping its results for query " + queryTitle + ".");
+                e.printStackTrace(System.err);
+                return;
+            }
+            shards.put(runId, shard);
+        }
+        shard.write(runId, queryTitle, docnos, scores);
+    }
+
+    private RunWriter openShard(String runId) throws IOException {
+        String fileName = sanitize(runId) + (shardName == null ? "" : "." + shardName) + (binary ? ".bin" : ".run");
+        FileOutputStream out = new FileOutputStream(new File(directory, fileName));
+        if (binary) {
+            return new BinaryRunWriter(out);
+        }
+        return new TrecTextRunWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void close() {
+        for (RunWriter shard : shards.values()) {
+            shard.close();
+        }
+        shards.clear();
+    }
+
+}
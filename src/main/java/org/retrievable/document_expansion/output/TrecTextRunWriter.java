@@ -0,0 +1,46 @@
+package org.retrievable.document_expansion.output;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes results as TREC run lines: query Q0 docno rank score runId.
+ */
+public class TrecTextRunWriter implements RunWriter {
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * @param out Where the lines go; closed with this writer
+     */
+    public TrecTextRunWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(String runId, String queryTitle, String[] docnos, double[] scores) {
+        try {
+            for (int i = 0; i < docnos.length; i++) {
+                line.setLength(0);
+                line.append(queryTitle).append(" Q0 ").append(docnos[i]).append(' ').append(i + 1).append(' ')
+                        .append(scores[i]).append(' ').append(runId).append('\n');
+                out.append(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing run " + runId + " for query " + queryTitle);
+            e.printStackTrace(System.err);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing TREC run output");
+            e.printStackTrace(System.err);
+        }
+    }
+
+}
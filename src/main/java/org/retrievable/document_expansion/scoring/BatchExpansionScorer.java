@@ -0,0 +1,95 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the expansion term probabilities of a whole result list at once.
+ *
+ * The normalized priors form a sparse matrix P (result documents x distinct expansion documents, stored row-wise) and
+ * the smoothed term probabilities a dense matrix E (distinct expansion documents x terms). P * E holds every result
+ * document's expansion probability for every term, and an expansion document shared by several results is scored
+ * only once.
+ */
+public class BatchExpansionScorer {
+
+    private final ExpansionDocScorer expansionScorer;
+
+    /**
+     * @param expansionScorer Supplies the expansions, smoothing and number of expansion documents to use
+     */
+    public BatchExpansionScorer(ExpansionDocScorer expansionScorer) {
+        this.expansionScorer = expansionScorer;
+    }
+
+    /**
+     * @param documents The result documents
+     * @param terms The terms to score, e.g. the query terms
+     * @return [document][term] = the same value as expansionScorer.scoreTerm(term, document)
+     */
+    public double[][] scoreTerms(SearchHits documents, String[] terms) {
+        int numRows = documents.size();
+
+        // Sparse priors, one row per result document
+        ExpansionList[] expansionLists = new ExpansionList[numRows];
+        int nonZeros = 0;
+        for (int i = 0; i < numRows; i++) {
+            expansionLists[i] = expansionScorer.getExpansionList(documents.getHit(i));
+            nonZeros += expansionLists[i].size();
+        }
+
+        int[] rowStarts = new int[numRows + 1];
+        int[] columns = new int[nonZeros];
+        double[] priors = new double[nonZeros];
+        Map<Integer, Integer> columnsByDocId = new HashMap<>();
+        int entry = 0;
+        for (int i = 0; i < numRows; i++) {
+            rowStarts[i] = entry;
+            double[] rowPriors = DocScorerWithNormalizedScorePrior.normalizedPriors(expansionLists[i]);
+            for (int j = 0; j < rowPriors.length; j++) {
+                columns[entry] = columnsByDocId.computeIfAbsent(expansionLists[i].getDocId(j), docId -> columnsByDocId.size());
+                priors[entry] = rowPriors[j];
+                entry++;
+            }
+        }
+        rowStarts[numRows] = entry;
+
+        // Dense smoothed probabilities, one row per distinct expansion document
+        double[] collectionProbabilities = new double[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            collectionProbabilities[t] = expansionScorer.collectionProbability(terms[t]);
+        }
+
+        double mu = expansionScorer.getMu();
+        double[][] expansionProbabilities = new double[columnsByDocId.size()][terms.length];
+        for (Map.Entry<Integer, Integer> column : columnsByDocId.entrySet()) {
+            FeatureVector vector = expansionScorer.getExpansionVector(column.getKey());
+            double length = vector.getLength();
+            double[] row = expansionProbabilities[column.getValue()];
+            for (int t = 0; t < terms.length; t++) {
+                row[t] = DirichletSmoothing.probability(vector.getFeatureWeight(terms[t]), length, mu,
+                        collectionProbabilities[t]);
+            }
+        }
+
+        // P * E
+        double[][] probabilities = new double[numRows][terms.length];
+        for (int i = 0; i < numRows; i++) {
+            double[] row = probabilities[i];
+            for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                double prior = priors[k];
+                double[] expansionRow = expansionProbabilities[columns[k]];
+                for (int t = 0; t < terms.length; t++) {
+                    row[t] += prior * expansionRow[t];
+                }
+            }
+        }
+        return probabilities;
+    }
+
+}
@@ -0,0 +1,160 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DirichletDocScorer;
+import edu.gslis.scoring.DocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stands in for full retrieval when many related queries (e.g. the RM3 queries of a sweep) are run for one topic:
+ * one candidate pool is retrieved for the union of the queries, and each query is then answered by scoring the pool's
+ * documents in memory by Dirichlet query likelihood.
+ *
+ * A query's results match full retrieval as long as its top documents are in the pool, so the pool should be a few
+ * times deeper than the results wanted. {@link #agreement} measures how closely the two match.
+ */
+public class CandidatePoolReranker {
+
+    private static final int[] AGREEMENT_CUTOFFS = {10, 100, 1000};
+
+    private final IndexWrapper index;
+    private final CollectionStats collectionStats;
+    private final int poolSize;
+    private boolean verifying;
+
+    /**
+     * @param index The index to retrieve pools from; only used by {@link #retrieve}, on the calling thread
+     * @param collectionStats The index's statistics; must be safe to share between threads, e.g. a
+     *                        CollectionStatsSnapshot or ConcurrentCollectionStats
+     * @param poolSize The number of candidates to retrieve
+     */
+    public CandidatePoolReranker(IndexWrapper index, CollectionStats collectionStats, int poolSize) {
+        this.index = index;
+        this.collectionStats = collectionStats;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @param verifying Whether callers should also run full retrieval and report its {@link #agreement} with reranking
+     */
+    public void setVerifying(boolean verifying) {
+        this.verifying = verifying;
+    }
+
+    public boolean isVerifying() {
+        return verifying;
+    }
+
+    /**
+     * Retrieve the pool for the union of the queries and load everything their rescoring reads.
+     * @param title The topic the queries are for
+     * @param queries The queries to be reranked; each term weighs as much as it does in the query that weights it most
+     * @return The pool, whose rerank method is safe to call from several threads
+     */
+    public Candidates retrieve(String title, Collection<GQuery> queries) {
+        GQuery unionQuery = unionQuery(title, queries);
+
+        // Warm phase: the candidates' vectors and every term's collection statistics
+        SearchHits candidates = index.runQuery(unionQuery, poolSize);
+        for (SearchHit candidate : candidates) {
+            candidate.getFeatureVector();
+        }
+        for (String term : unionQuery.getFeatureVector().getFeatures()) {
+            collectionStats.termCount(term);
+        }
+
+        return new Candidates(candidates, new DirichletDocScorer(collectionStats));
+    }
+
+    /**
+     * @return A query with every term of the queries, each weighing as much as in the query that weights it most
+     */
+    static GQuery unionQuery(String title, Collection<GQuery> queries) {
+        FeatureVector unionVector = new FeatureVector(null);
+        for (GQuery query : queries) {
+            for (String term : query.getFeatureVector().getFeatures()) {
+                double weight = query.getFeatureVector().getFeatureWeight(term);
+                double current = unionVector.getFeatureWeight(term);
+                if (weight > current) {
+                    unionVector.addTerm(term, weight - current);
+                }
+            }
+        }
+        unionVector.normalize();
+
+        GQuery unionQuery = new GQuery();
+        unionQuery.setTitle(title);
+        unionQuery.setFeatureVector(unionVector);
+        return unionQuery;
+    }
+
+    /**
+     * @param full Results of full retrieval
+     * @param reranked Results of reranking the candidate pool for the same query
+     * @return The fraction of full retrieval's top k documents that are also in the reranked top k, for a few k
+     */
+    public static String agreement(SearchHits full, SearchHits reranked) {
+        StringBuilder agreement = new StringBuilder();
+        for (int cutoff : AGREEMENT_CUTOFFS) {
+            int k = Math.min(cutoff, full.size());
+            Set<String> fullTop = new HashSet<>();
+            for (int i = 0; i < k; i++) {
+                fullTop.add(full.getHit(i).getDocno());
+            }
+            int shared = 0;
+            for (int i = 0; i < Math.min(k, reranked.size()); i++) {
+                if (fullTop.contains(reranked.getHit(i).getDocno())) {
+                    shared++;
+                }
+            }
+            if (agreement.length() > 0) {
+                agreement.append(' ');
+            }
+            agreement.append("overlap@").append(cutoff).append('=').append(k == 0 ? 1.0 : (double) shared / k);
+        }
+        return agreement.toString();
+    }
+
+    /**
+     * A retrieved candidate pool.
+     */
+    public static class Candidates {
+
+        private final SearchHits candidates;
+        private final DocScorer scorer;
+
+        /**
+         * @param candidates The pool, with its vectors loaded
+         * @param scorer Scores the pool's documents; must be safe to share between threads
+         */
+        Candidates(SearchHits candidates, DocScorer scorer) {
+            this.candidates = candidates;
+            this.scorer = scorer;
+        }
+
+        /**
+         * @param query One of the queries the pool was retrieved for
+         * @param numResults The number of results to keep
+         * @return New hits for the query's top candidates, ranked
+         */
+        public SearchHits rerank(GQuery query, int numResults) {
+            SearchHits ranked = ParallelReranker.rerankOnCallingThread(query, candidates, scorer);
+            ranked.crop(numResults);
+            return ranked;
+        }
+
+        public int size() {
+            return candidates.size();
+        }
+
+    }
+
+}
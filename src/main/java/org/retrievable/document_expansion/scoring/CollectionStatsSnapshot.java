@@ -0,0 +1,244 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.docscoring.support.IndexBackedCollectionStats;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only, memory-mapped collection statistics written by {@link CollectionStatsSnapshotWriter}.
+ *
+ * A term's statistics are found by binary searching the sorted vocabulary, and its id is its position in it, so
+ * lookups never go back to the index and the snapshot can be shared by any number of scorers and threads. All positions
+ * are longs and the file is mapped in chunks, so a snapshot can be larger than the 2GB a single mapping can hold. The
+ * layout is
+ * <pre>
+ *   int MAGIC, int VERSION, int number of terms T, int unused
+ *   double token count, double term type count, double document count
+ *   long[T + 1] term offsets into the term bytes, terms sorted by their UTF-8 bytes
+ *   double[T]   collection frequency of each term
+ *   double[T]   document frequency of each term
+ *   term bytes (UTF-8)
+ * </pre>
+ */
+public class CollectionStatsSnapshot extends CollectionStats implements Closeable {
+
+    static final int MAGIC = 0x44584353; // "DXCS"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 40;
+
+    private static final int CHUNK_BITS = 30;
+
+    private final FileChannel channel;
+    // Chunk i maps [i << chunkBits, (i + 1) << chunkBits) plus the first bytes of the next chunk, so any long or double
+    // starting in a chunk can be read from it alone
+    private final MappedByteBuffer[] chunks;
+    private final int chunkBits;
+    private final long chunkMask;
+
+    private final int numTerms;
+    private final long termOffsetsStart;
+    private final long termCountsStart;
+    private final long docCountsStart;
+    private final long termBytesStart;
+
+    // Each term is searched for once, so repeated lookups are a hash lookup plus an array read. Misses are kept too:
+    // scorers ask after the same out-of-vocabulary terms again and again.
+    private final Map<String, Integer> termIds = new ConcurrentHashMap<>();
+
+    public CollectionStatsSnapshot(String path) throws IOException {
+        this(path, CHUNK_BITS);
+    }
+
+    /**
+     * @param chunkBits Log2 of the size of each mapping; small values let tests cross chunk boundaries
+     */
+    CollectionStatsSnapshot(String path, int chunkBits) throws IOException {
+        channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ);
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            channel.close();
+            throw new IOException(path + " is not a collection statistics snapshot");
+        }
+        chunks = new MappedByteBuffer[(int) (((size - 1) >>> chunkBits) + 1)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << chunkBits;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, chunkMask + 1 + Long.BYTES));
+        }
+
+        if (getInt(0) != MAGIC || getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a collection statistics snapshot of version " + VERSION);
+        }
+        numTerms = getInt(8);
+        tokCount = getDouble(16);
+        termTypeCount = getDouble(24);
+        docCount = getDouble(32);
+
+        termOffsetsStart = HEADER_SIZE;
+        termCountsStart = termOffsetsStart + (numTerms + 1L) * Long.BYTES;
+        docCountsStart = termCountsStart + (long) numTerms * Double.BYTES;
+        termBytesStart = docCountsStart + (long) numTerms * Double.BYTES;
+    }
+
+    /**
+     * @param path Any file
+     * @return True if the file starts like a collection statistics snapshot
+     */
+    public static boolean isSnapshot(String path) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Collection statistics that scorers on several threads can share.
+     * @param snapshotPath A snapshot of the index's statistics, or null
+     * @param indexPath The index itself
+     * @return The snapshot if there is one, otherwise the index's own statistics wrapped in a ConcurrentCollectionStats
+     */
+    public static CollectionStats open(String snapshotPath, String indexPath) {
+        if (snapshotPath != null && !snapshotPath.isEmpty()) {
+            try {
+                return new CollectionStatsSnapshot(snapshotPath);
+            } catch (IOException e) {
+                System.err.println("Unable to open collection statistics snapshot " + snapshotPath + ". Reading statistics from " + indexPath + ".");
+                e.printStackTrace(System.err);
+            }
+        }
+        CollectionStats indexStats = new IndexBackedCollectionStats();
+        indexStats.setStatSource(indexPath);
+        return new ConcurrentCollectionStats(indexStats);
+    }
+
+    /**
+     * Does nothing: a snapshot's statistics are fixed when it is written. Code that sets a source on whatever stats it
+     * is handed keeps working, reading from the snapshot.
+     */
+    @Override
+    public void setStatSource(String statSource) {
+        System.err.println("Ignoring stat source " + statSource + ": collection statistics are read from a snapshot.");
+    }
+
+    @Override
+    public double termCount(String term) {
+        int termId = termId(term);
+        return termId < 0 ? 0 : termCount(termId);
+    }
+
+    @Override
+    public double docCount(String term) {
+        int termId = termId(term);
+        return termId < 0 ? 0 : docCount(termId);
+    }
+
+    public double termCount(int termId) {
+        return getDouble(termCountsStart + (long) termId * Double.BYTES);
+    }
+
+    public double docCount(int termId) {
+        return getDouble(docCountsStart + (long) termId * Double.BYTES);
+    }
+
+    public int getNumTerms() {
+        return numTerms;
+    }
+
+    /**
+     * @return The term's position in the snapshot's vocabulary, or -1 if the collection does not contain it
+     */
+    public int termId(String term) {
+        return termIds.computeIfAbsent(term, this::findTerm);
+    }
+
+    private int findTerm(String term) {
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = numTerms - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareTerm(mid, bytes);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public String getTerm(int termId) {
+        long start = termStart(termId);
+        byte[] bytes = new byte[(int) (termStart(termId + 1) - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = getByte(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long termStart(int termId) {
+        return termBytesStart + getLong(termOffsetsStart + (long) termId * Long.BYTES);
+    }
+
+    private int compareTerm(int termId, byte[] term) {
+        long start = termStart(termId);
+        int termLength = (int) (termStart(termId + 1) - start);
+
+        // Unsigned byte order, matching the order the writer sorted terms in
+        int length = Math.min(termLength, term.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(getByte(start + i) & 0xff, term[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(termLength, term.length);
+    }
+
+    private MappedByteBuffer chunk(long position) {
+        return chunks[(int) (position >>> chunkBits)];
+    }
+
+    private int offset(long position) {
+        return (int) (position & chunkMask);
+    }
+
+    private byte getByte(long position) {
+        return chunk(position).get(offset(position));
+    }
+
+    private int getInt(long position) {
+        return chunk(position).getInt(offset(position));
+    }
+
+    private long getLong(long position) {
+        return chunk(position).getLong(offset(position));
+    }
+
+    private double getDouble(long position) {
+        return chunk(position).getDouble(offset(position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.textrepresentation.FeatureVector;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates collection statistics one document vector at a time and writes them as a
+ * {@link CollectionStatsSnapshot}.
+ */
+public class CollectionStatsSnapshotWriter {
+
+    // term -> {collection frequency, document frequency}
+    private final Map<String, double[]> counts = new HashMap<>();
+    private double tokCount = 0;
+    private double docCount = 0;
+
+    /**
+     * @param document An unstopped document vector
+     */
+    public synchronized void addDocument(FeatureVector document) {
+        for (String term : document.getFeatures()) {
+            double termFreq = document.getFeatureWeight(term);
+            double[] termCounts = counts.computeIfAbsent(term, t -> new double[2]);
+            termCounts[0] += termFreq;
+            termCounts[1]++;
+            tokCount += termFreq;
+        }
+        docCount++;
+    }
+
+    public synchronized void write(String path) throws IOException {
+        // The reader binary searches terms in unsigned byte order
+        List<byte[]> terms = new ArrayList<>();
+        Map<byte[], double[]> termCounts = new HashMap<>();
+        for (Map.Entry<String, double[]> term : counts.entrySet()) {
+            byte[] bytes = term.getKey().getBytes(StandardCharsets.UTF_8);
+            terms.add(bytes);
+            termCounts.put(bytes, term.getValue());
+        }
+        terms.sort(CollectionStatsSnapshotWriter::compareUnsigned);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(CollectionStatsSnapshot.MAGIC);
+            out.writeInt(CollectionStatsSnapshot.VERSION);
+            out.writeInt(terms.size());
+            out.writeInt(0);
+            out.writeDouble(tokCount);
+            out.writeDouble(terms.size());
+            out.writeDouble(docCount);
+
+            long offset = 0;
+            out.writeLong(offset);
+            for (byte[] term : terms) {
+                offset += term.length;
+                out.writeLong(offset);
+            }
+
+            for (byte[] term : terms) {
+                out.writeDouble(termCounts.get(term)[0]);
+            }
+            for (byte[] term : terms) {
+                out.writeDouble(termCounts.get(term)[1]);
+            }
+
+            for (byte[] term : terms) {
+                out.write(term);
+            }
+        }
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+}
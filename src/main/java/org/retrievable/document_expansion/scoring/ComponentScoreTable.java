@@ -0,0 +1,93 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+
+import java.util.List;
+
+/**
+ * Every component's term probability for every (document, query term), so that an interpolation-weight sweep only
+ * recombines them.
+ *
+ * Query likelihood under an interpolated scorer is sum_t qw(t) * log(sum_k weight_k * p_k(t | d)), and the p_k do not
+ * depend on the weights. Build one table per setting that does change them (e.g. numDocs), then call
+ * {@link #rankedCopy(List)} for each weight combination.
+ */
+public class ComponentScoreTable {
+
+    private final SearchHit[] documents;
+    private final double[] queryWeights;
+    // [component][document][term]
+    private final double[][][] probabilities;
+
+    /**
+     * @param query The query being reranked for
+     * @param documents The documents to rerank
+     * @param components The component scorers, in the order their weights will be given in
+     */
+    public ComponentScoreTable(GQuery query, SearchHits documents, List<? extends DocScorer> components) {
+        String[] terms = query.getFeatureVector().getFeatures().toArray(new String[0]);
+
+        this.documents = new SearchHit[documents.size()];
+        for (int i = 0; i < this.documents.length; i++) {
+            this.documents[i] = documents.getHit(i);
+        }
+
+        queryWeights = new double[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            queryWeights[t] = query.getFeatureVector().getFeatureWeight(terms[t]);
+        }
+
+        probabilities = new double[components.size()][][];
+        for (int k = 0; k < components.size(); k++) {
+            DocScorer component = components.get(k);
+            if (component instanceof ExpansionDocScorer) {
+                probabilities[k] = new BatchExpansionScorer((ExpansionDocScorer) component).scoreTerms(documents, terms);
+            } else {
+                probabilities[k] = new double[this.documents.length][terms.length];
+                for (int i = 0; i < this.documents.length; i++) {
+                    for (int t = 0; t < terms.length; t++) {
+                        probabilities[k][i][t] = component.scoreTerm(terms[t], this.documents[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param weights One interpolation weight per component
+     * @return The query likelihood of each document, in the order the documents were given in
+     */
+    public double[] score(List<Double> weights) {
+        double[] componentWeights = new double[probabilities.length];
+        for (int k = 0; k < componentWeights.length; k++) {
+            componentWeights[k] = weights.get(k);
+        }
+
+        double[] scores = new double[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            double logLikelihood = 0;
+            for (int t = 0; t < queryWeights.length; t++) {
+                double probability = 0;
+                for (int k = 0; k < probabilities.length; k++) {
+                    probability += componentWeights[k] * probabilities[k][i][t];
+                }
+                logLikelihood += queryWeights[t] * Math.log(probability);
+            }
+            scores[i] = logLikelihood;
+        }
+        return scores;
+    }
+
+    /**
+     * Leaves the documents as they are, so it can be called from several threads.
+     * @param weights One interpolation weight per component
+     * @return New hits for the documents, scored under the given weights and ranked
+     */
+    public SearchHits rankedCopy(List<Double> weights) {
+        return ParallelReranker.rankedCopy(documents, score(weights));
+    }
+
+}
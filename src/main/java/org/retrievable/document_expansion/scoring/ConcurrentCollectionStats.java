@@ -0,0 +1,68 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A CollectionStats that can be shared by scorers running on several threads.
+ *
+ * Every statistic is fetched from the wrapped stats at most once, one fetch at a time, since index-backed stats go
+ * through a QueryEnvironment that is not thread-safe. Later lookups are served from memory.
+ */
+public class ConcurrentCollectionStats extends CollectionStats {
+
+    private final CollectionStats delegate;
+    private final Map<String, Double> termCounts = new ConcurrentHashMap<>();
+    private final Map<String, Double> docCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate Stats whose source is already set
+     */
+    public ConcurrentCollectionStats(CollectionStats delegate) {
+        this.delegate = delegate;
+        readTotals();
+    }
+
+    private void readTotals() {
+        synchronized (delegate) {
+            tokCount = delegate.getTokCount();
+            termTypeCount = delegate.getTermTypeCount();
+            docCount = delegate.getDocCount();
+        }
+    }
+
+    /**
+     * Points the wrapped stats at a new source and forgets everything read from the old one.
+     */
+    @Override
+    public void setStatSource(String statSource) {
+        synchronized (delegate) {
+            delegate.setStatSource(statSource);
+        }
+        // Outside the lock: a lookup in progress holds its map entry's lock while waiting for the delegate's
+        termCounts.clear();
+        docCounts.clear();
+        readTotals();
+    }
+
+    @Override
+    public double termCount(String term) {
+        return termCounts.computeIfAbsent(term, t -> {
+            synchronized (delegate) {
+                return delegate.termCount(t);
+            }
+        });
+    }
+
+    @Override
+    public double docCount(String term) {
+        return docCounts.computeIfAbsent(term, t -> {
+            synchronized (delegate) {
+                return delegate.docCount(t);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+
+/**
+ * The Dirichlet-smoothed term probability, computed the same way as DirichletDocScorer, for scorers that work on
+ * primitive arrays instead of SearchHits.
+ */
+public class DirichletSmoothing {
+
+    public static final double DEFAULT_MU = 2500;
+
+    /**
+     * @return P(term | collection), add-one smoothed so unseen terms keep a non-zero probability
+     */
+    public static double collectionProbability(CollectionStats collectionStats, String term) {
+        return collectionProbability(collectionStats.termCount(term), collectionStats.getTokCount());
+    }
+
+    public static double collectionProbability(double termCount, double tokCount) {
+        return (1.0 + termCount) / tokCount;
+    }
+
+    /**
+     * @param termFreq The term's frequency in the document
+     * @param docLength The length of the document
+     * @param mu The Dirichlet prior
+     * @param collectionProbability P(term | collection)
+     * @return P(term | document), smoothed
+     */
+    public static double probability(double termFreq, double docLength, double mu, double collectionProbability) {
+        return (termFreq + mu * collectionProbability) / (docLength + mu);
+    }
+
+}
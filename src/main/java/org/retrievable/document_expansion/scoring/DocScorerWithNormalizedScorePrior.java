@@ -4,6 +4,7 @@ import edu.gslis.scoring.DocScorer;
 import edu.gslis.scoring.DocScorerWithDocumentPrior;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
+import org.retrievable.document_expansion.expansion.ExpansionList;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -37,6 +38,29 @@ public class DocScorerWithNormalizedScorePrior extends DocScorerWithDocumentPrio
         return normalizedScores;
     }
 
+    /**
+     * The same normalization as {@link #setDocuments(SearchHits)}, for a ranked expansion list.
+     * @return The prior of each expansion document, aligned with the list
+     */
+    public static double[] normalizedPriors(ExpansionList expansionDocs) {
+        double[] priors = new double[expansionDocs.size()];
+        if (priors.length == 0) {
+            return priors;
+        }
+
+        double k = expansionDocs.getScore(0);
+        double sum = 0;
+        for (int i = 0; i < priors.length; i++) {
+            priors[i] = Math.exp(expansionDocs.getScore(i) - k);
+            sum += priors[i];
+        }
+        for (int i = 0; i < priors.length; i++) {
+            priors[i] /= sum;
+        }
+
+        return priors;
+    }
+
     @Override
     public double getPrior(SearchHit document) {
         return precomputedPriors.getOrDefault(document, 1.0);
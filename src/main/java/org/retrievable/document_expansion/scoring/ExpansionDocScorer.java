@@ -1,20 +1,70 @@
 package org.retrievable.document_expansion.scoring;
 
-import com.google.common.collect.Streams;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import edu.gslis.docscoring.support.CollectionStats;
 import edu.gslis.docscoring.support.IndexBackedCollectionStats;
-import edu.gslis.scoring.CachedDocScorer;
-import edu.gslis.scoring.DirichletDocScorer;
-import edu.gslis.scoring.DocScorer;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.IndexBackedSearchHit;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import kotlin.Pair;
 import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+import org.retrievable.document_expansion.features.SparseTermVector;
+import org.retrievable.document_expansion.lms.TermDictionary;
 
-public class ExpansionDocScorer implements DocScorer {
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Scores a term against a document by the language models of the document's expansion documents.
+ *
+ * Scoring is safe from several threads once {@link #warmUp(GQuery, SearchHits, int)} has loaded what the documents
+ * need; pass the number of expansion documents explicitly (or use {@link #withNumDocs(int)}) rather than changing it
+ * with setNumDocs while other threads are scoring.
+ */
+public class ExpansionDocScorer implements WarmableDocScorer {
 	
 	DocumentExpander docExpander;
-	DocScorerWithNormalizedScorePrior expScorer;
+	CollectionStats collectionStats;
+	double mu;
 
 	private int numDocs = 5;
+
+	// P(term | expansion collection), shared by every document's context
+	private Map<String, Double> collectionProbabilities = new ConcurrentHashMap<>();
+
+	// One context per document and number of expansion documents, built on the first term scored for it
+	private LoadingCache<Pair<SearchHit, Integer>, ExpansionScoringContext> contexts = CacheBuilder.newBuilder()
+			.softValues()
+			.build(
+					new CacheLoader<Pair<SearchHit, Integer>, ExpansionScoringContext>() {
+						public ExpansionScoringContext load(Pair<SearchHit, Integer> documentAndNumDocs) {
+							return createScoringContext(documentAndNumDocs.getFirst(), documentAndNumDocs.getSecond());
+						}
+					});
+
+	// Each expansion document's vector numbered by the global TermDictionary, for the id-based paths
+	private Cache<Integer, SparseTermVector> expansionTermIds = CacheBuilder.newBuilder()
+			.softValues()
+			.build();
+
+	// One hit per expansion document, so loaded vectors are reused across documents
+	private LoadingCache<Integer, SearchHit> expansionHits = CacheBuilder.newBuilder()
+			.softValues()
+			.build(
+					new CacheLoader<Integer, SearchHit>() {
+						public SearchHit load(Integer docId) {
+							SearchHit hit = new IndexBackedSearchHit(docExpander.getIndex());
+							hit.setDocID(docId);
+							return hit;
+						}
+					});
 	
 
 	public ExpansionDocScorer(DocumentExpander docExpander) {
@@ -28,12 +78,21 @@ public class ExpansionDocScorer implements DocScorer {
 	
 	public ExpansionDocScorer(double mu, DocumentExpander docExpander) {
 		this.docExpander = docExpander;
+		this.mu = mu;
 
 		IndexBackedCollectionStats collectionStats = new IndexBackedCollectionStats();
 		collectionStats.setStatSource(docExpander.getIndex());
+		this.collectionStats = new ConcurrentCollectionStats(collectionStats);
+	}
 
-		DocScorer dirichletScorer = new CachedDocScorer(new DirichletDocScorer(mu, collectionStats));
-		expScorer = new DocScorerWithNormalizedScorePrior(dirichletScorer);
+	/**
+	 * @param collectionStats Statistics of the expansion index that are safe to share between threads, e.g. a
+	 *                        CollectionStatsSnapshot shared by every scorer of that index
+	 */
+	public ExpansionDocScorer(double mu, DocumentExpander docExpander, CollectionStats collectionStats) {
+		this.docExpander = docExpander;
+		this.mu = mu;
+		this.collectionStats = collectionStats;
 	}
 
 	public ExpansionDocScorer(double mu, DocumentExpander docExpander, int numDocs) {
@@ -43,12 +102,122 @@ public class ExpansionDocScorer implements DocScorer {
 	
 	@Override
 	public double scoreTerm(String term, SearchHit document) {
-		SearchHits expansionDocs = getExpansionDocs(document);
-		expScorer.setDocuments(expansionDocs);
+		return scoreTerm(term, document, numDocs);
+	}
+
+	/**
+	 * @param numDocs The number of expansion documents to score with, regardless of this scorer's own setting
+	 */
+	public double scoreTerm(String term, SearchHit document, int numDocs) {
+		return getScoringContext(document, numDocs).scoreTerm(term, collectionProbability(term));
+	}
+
+	/**
+	 * The same as {@link #scoreTerm(String, SearchHit, int)}, for a term numbered by the global TermDictionary.
+	 */
+	public double scoreTerm(int termId, SearchHit document, int numDocs) {
+		return getScoringContext(document, numDocs).scoreTerm(termId, collectionProbability(termId));
+	}
+
+	/**
+	 * @return A view of this scorer that always scores with numDocs expansion documents and shares its caches
+	 */
+	public WarmableDocScorer withNumDocs(int numDocs) {
+		return new WarmableDocScorer() {
+			@Override
+			public double scoreTerm(String term, SearchHit document) {
+				return ExpansionDocScorer.this.scoreTerm(term, document, numDocs);
+			}
+
+			@Override
+			public void warmUp(GQuery query, SearchHits documents) {
+				ExpansionDocScorer.this.warmUp(query, documents, numDocs);
+			}
+		};
+	}
+
+	@Override
+	public void warmUp(GQuery query, SearchHits documents) {
+		warmUp(query, documents, numDocs);
+	}
+
+	/**
+	 * Expand the documents, load their expansion documents' vectors and look up the query terms' collection
+	 * probabilities, all on the calling thread.
+	 */
+	public void warmUp(GQuery query, SearchHits documents, int numDocs) {
+		for (SearchHit document : documents) {
+			getScoringContext(document, numDocs);
+		}
+		for (String term : query.getFeatureVector().getFeatures()) {
+			collectionProbability(term);
+		}
+	}
 
-		double total = Streams.stream(expansionDocs).mapToDouble(doc -> expScorer.scoreTerm(term, doc)).sum();
-		
-		return total;
+	public ExpansionScoringContext getScoringContext(SearchHit document) {
+		return getScoringContext(document, numDocs);
+	}
+
+	public ExpansionScoringContext getScoringContext(SearchHit document, int numDocs) {
+		return contexts.getUnchecked(new Pair<>(document, numDocs));
+	}
+
+	/**
+	 * Drop every document's scoring context. Call this whenever the expander starts returning different expansions for
+	 * the same document, e.g. after changing a QueryDependentDocumentExpander's query weight.
+	 */
+	public void clearScoringContexts() {
+		contexts.invalidateAll();
+	}
+
+	public double collectionProbability(String term) {
+		return collectionProbabilities.computeIfAbsent(term,
+				t -> DirichletSmoothing.collectionProbability(collectionStats, t));
+	}
+
+	/**
+	 * @param termId A term numbered by the global TermDictionary
+	 */
+	public double collectionProbability(int termId) {
+		TermDictionary dictionary = TermDictionary.global();
+		if (collectionStats instanceof CollectionStatsSnapshot && dictionary.isSeededWith((CollectionStatsSnapshot) collectionStats)
+				&& termId < ((CollectionStatsSnapshot) collectionStats).getNumTerms()) {
+			// The id is the snapshot's own, so its count is an array read
+			return DirichletSmoothing.collectionProbability(((CollectionStatsSnapshot) collectionStats).termCount(termId),
+					collectionStats.getTokCount());
+		}
+		return collectionProbability(dictionary.getTerm(termId));
+	}
+
+	// Loads expand and read vectors through the expansion index, which must not be used by two threads at once
+	private synchronized ExpansionScoringContext createScoringContext(SearchHit document, int numDocs) {
+		ExpansionList expansionDocs = docExpander.getExpansionList(document, numDocs);
+
+		FeatureVector[] vectors = new FeatureVector[expansionDocs.size()];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = getExpansionVector(expansionDocs.getDocId(i));
+		}
+
+		return new ExpansionScoringContext(expansionDocs, vectors,
+				i -> getExpansionTermIds(expansionDocs.getDocId(i), vectors[i]), mu);
+	}
+
+	FeatureVector getExpansionVector(int docId) {
+		return expansionHits.getUnchecked(docId).getFeatureVector();
+	}
+
+	private SparseTermVector getExpansionTermIds(int docId, FeatureVector vector) {
+		try {
+			return expansionTermIds.get(docId, () -> TermDictionary.global().toSparse(vector));
+		} catch (ExecutionException e) {
+			System.err.println("Error numbering the terms of expansion document " + docId + ". Numbering fresh.");
+			e.printStackTrace(System.err);
+			return TermDictionary.global().toSparse(vector);
+		}
+	}
+
+	public double getMu() {
+		return mu;
 	}
 
 	public int getNumDocs() {
@@ -58,6 +227,10 @@ public class ExpansionDocScorer implements DocScorer {
 	public void setNumDocs(int numDocs) {
 		this.numDocs = numDocs;
 	}
+
+	public ExpansionList getExpansionList(SearchHit document) {
+		return docExpander.getExpansionList(document, numDocs);
+	}
 	
 	public SearchHits getExpansionDocs(SearchHit document) {
 		return docExpander.expandDocument(document, numDocs);
@@ -0,0 +1,149 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+import org.retrievable.document_expansion.features.SparseTermVector;
+import org.retrievable.document_expansion.lms.TermDictionary;
+
+import java.util.function.IntFunction;
+
+/**
+ * Everything about one document's expansion documents that does not depend on the term being scored: their
+ * normalized priors, vectors, lengths and Dirichlet denominators. Built once per document and number of expansion
+ * documents, so that scoring a term is a single loop over primitive arrays.
+ *
+ * The id-based methods take terms numbered by the global {@link TermDictionary} and read the expansion documents'
+ * vectors numbered the same way, which are only asked for the first time one of those methods is called.
+ */
+public class ExpansionScoringContext {
+
+    private final ExpansionList expansionDocs;
+    private final double mu;
+    private final double[] priors;
+    private final FeatureVector[] vectors;
+    private final double[] lengths;
+    private final double[] denominators;
+    // prior / denominator, the factor each expansion document's smoothed term count is scaled by
+    private final double[] weights;
+    private final double smoothingWeight;
+
+    private final IntFunction<SparseTermVector> termIdVectorSource;
+    private volatile SparseTermVector[] termIdVectors;
+
+    /**
+     * @param expansionDocs The expansion documents, in rank order
+     * @param vectors The expansion documents' vectors, aligned with expansionDocs
+     * @param mu The Dirichlet prior of the expansion documents' language models
+     */
+    public ExpansionScoringContext(ExpansionList expansionDocs, FeatureVector[] vectors, double mu) {
+        this(expansionDocs, vectors, i -> TermDictionary.global().toSparse(vectors[i]), mu);
+    }
+
+    /**
+     * @param termIdVectors Gives the i-th expansion document's vector numbered by the global TermDictionary, e.g. from
+     *                      a cache shared by every context that document is in
+     */
+    public ExpansionScoringContext(ExpansionList expansionDocs, FeatureVector[] vectors,
+                                   IntFunction<SparseTermVector> termIdVectors, double mu) {
+        this.expansionDocs = expansionDocs;
+        this.termIdVectorSource = termIdVectors;
+        this.mu = mu;
+        this.vectors = vectors;
+        this.priors = DocScorerWithNormalizedScorePrior.normalizedPriors(expansionDocs);
+
+        int size = expansionDocs.size();
+        lengths = new double[size];
+        denominators = new double[size];
+        weights = new double[size];
+        double smoothing = 0;
+        for (int i = 0; i < size; i++) {
+            lengths[i] = vectors[i].getLength();
+            denominators[i] = lengths[i] + mu;
+            weights[i] = priors[i] / denominators[i];
+            smoothing += weights[i] * mu;
+        }
+        smoothingWeight = smoothing;
+    }
+
+    /**
+     * @param term The term to score
+     * @param collectionProbability P(term | expansion collection)
+     * @return The prior-weighted sum of the term's Dirichlet-smoothed probability in each expansion document
+     */
+    public double scoreTerm(String term, double collectionProbability) {
+        double total = smoothingWeight * collectionProbability;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i] * vectors[i].getFeatureWeight(term);
+        }
+        return total;
+    }
+
+    /**
+     * The same as {@link #scoreTerm(String, double)}, for a term numbered by the global TermDictionary.
+     */
+    public double scoreTerm(int termId, double collectionProbability) {
+        SparseTermVector[] vectors = getTermIdVectors();
+        double total = smoothingWeight * collectionProbability;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i] * vectors[i].weight(termId);
+        }
+        return total;
+    }
+
+    /**
+     * The collection-independent part of scoreTerm for every term of the expansion documents, by term id. A term's full
+     * score is its weight here plus {@link #getSmoothingWeight()} times its collection probability.
+     */
+    public SparseTermVector sumTermWeights() {
+        return SparseTermVector.sum(getTermIdVectors(), weights);
+    }
+
+    private SparseTermVector[] getTermIdVectors() {
+        SparseTermVector[] vectors = termIdVectors;
+        if (vectors == null) {
+            // Several threads may number the vectors at once; every one gets the same ids
+            vectors = new SparseTermVector[weights.length];
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = termIdVectorSource.apply(i);
+            }
+            termIdVectors = vectors;
+        }
+        return vectors;
+    }
+
+    /**
+     * @return The factor a term's collection probability is scaled by in scoreTerm
+     */
+    public double getSmoothingWeight() {
+        return smoothingWeight;
+    }
+
+    public ExpansionList getExpansionDocs() {
+        return expansionDocs;
+    }
+
+    public double getMu() {
+        return mu;
+    }
+
+    public int size() {
+        return priors.length;
+    }
+
+    public double getPrior(int i) {
+        return priors[i];
+    }
+
+    public FeatureVector getVector(int i) {
+        return vectors[i];
+    }
+
+    public double getLength(int i) {
+        return lengths[i];
+    }
+
+    public double getDenominator(int i) {
+        return denominators[i];
+    }
+
+}
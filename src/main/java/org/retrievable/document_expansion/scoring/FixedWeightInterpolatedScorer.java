@@ -0,0 +1,55 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An interpolation of component scorers whose weights are fixed at construction, so it can be shared between threads.
+ * Use a new instance for each weight combination rather than changing the weights of one.
+ */
+public class FixedWeightInterpolatedScorer implements WarmableDocScorer {
+
+    private final DocScorer[] components;
+    private final double[] weights;
+
+    /**
+     * @param components The component scorers
+     * @param weights One weight per component
+     */
+    public FixedWeightInterpolatedScorer(List<? extends DocScorer> components, List<Double> weights) {
+        if (components.size() != weights.size()) {
+            throw new IllegalArgumentException("Got " + components.size() + " scorers but " + weights.size() + " weights");
+        }
+        this.components = components.toArray(new DocScorer[0]);
+        this.weights = new double[weights.size()];
+        for (int i = 0; i < this.weights.length; i++) {
+            this.weights[i] = weights.get(i);
+        }
+    }
+
+    @Override
+    public double scoreTerm(String term, SearchHit document) {
+        double score = 0;
+        for (int i = 0; i < components.length; i++) {
+            score += weights[i] * components[i].scoreTerm(term, document);
+        }
+        return score;
+    }
+
+    @Override
+    public void warmUp(GQuery query, SearchHits documents) {
+        List<DocScorer> warmed = new ArrayList<>();
+        for (DocScorer component : components) {
+            if (component instanceof WarmableDocScorer && !warmed.contains(component)) {
+                ((WarmableDocScorer) component).warmUp(query, documents);
+                warmed.add(component);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+
+/**
+ * Reranks a result list by query likelihood on the calling thread, for callers that score in parallel on a pool of
+ * their own, e.g. the tasks of a SweepEngine. The given result list is left as it was; the reranked list holds new hits.
+ */
+public class ParallelReranker {
+
+    /**
+     * Nothing is warmed up: the documents' vectors and the scorer must already be loaded.
+     * @return New hits for the documents, scored and ranked
+     */
+    public static SearchHits rerankOnCallingThread(GQuery query, SearchHits documents, DocScorer scorer) {
+        String[] terms = query.getFeatureVector().getFeatures().toArray(new String[0]);
+        double[] queryWeights = queryWeights(query, terms);
+
+        SearchHit[] hits = new SearchHit[documents.size()];
+        double[] scores = new double[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = documents.getHit(i);
+            scores[i] = queryLikelihood(terms, queryWeights, scorer, hits[i]);
+        }
+        return rankedCopy(hits, scores);
+    }
+
+    /**
+     * @return New hits with the documents' docnos and ids and the given scores, ranked
+     */
+    static SearchHits rankedCopy(SearchHit[] hits, double[] scores) {
+        SearchHits ranked = new SearchHits();
+        for (int i = 0; i < hits.length; i++) {
+            SearchHit hit = new SearchHit();
+            hit.setDocno(hits[i].getDocno());
+            hit.setDocID(hits[i].getDocID());
+            hit.setScore(scores[i]);
+            ranked.add(hit);
+        }
+        ranked.rank();
+        return ranked;
+    }
+
+    private static double[] queryWeights(GQuery query, String[] terms) {
+        double[] queryWeights = new double[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            queryWeights[t] = query.getFeatureVector().getFeatureWeight(terms[t]);
+        }
+        return queryWeights;
+    }
+
+    private static double queryLikelihood(String[] terms, double[] queryWeights, DocScorer scorer, SearchHit document) {
+        double logLikelihood = 0;
+        for (int t = 0; t < terms.length; t++) {
+            logLikelihood += queryWeights[t] * Math.log(scorer.scoreTerm(terms[t], document));
+        }
+        return logLikelihood;
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.retrievable.document_expansion.scoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parameter settings a runner sweeps over, declared once instead of as nested loops.
+ *
+ * {@link #points()} walks the grid with queryWeight outermost, then numDocs, fbDocs, fbTerms, fbOrigWeight and the
+ * interpolation weights innermost, each in the order its values were given. That order is the order run files are
+ * written in. A parameter that is not set has a single, unused value.
+ */
+public class ParameterGrid {
+
+    private List<Double> queryWeights = Collections.singletonList(0.0);
+    private List<Integer> numDocs = Collections.singletonList(0);
+    private List<Integer> fbDocs = Collections.singletonList(0);
+    private List<Integer> fbTerms = Collections.singletonList(0);
+    private List<Double> fbOrigWeights = Collections.singletonList(0.0);
+    private List<List<Double>> interpolationWeights = Collections.singletonList(Collections.emptyList());
+
+    /**
+     * @return first, first + step, ... up to and including last; step may be negative to walk downwards
+     */
+    public static List<Integer> range(int first, int last, int step) {
+        if (step == 0) {
+            throw new IllegalArgumentException("A range's step cannot be 0");
+        }
+        List<Integer> values = new ArrayList<>();
+        for (int value = first; step > 0 ? value <= last : value >= last; value += step) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * @return 0.0, 0.1, ..., 1.0, computed the way the runners label them
+     */
+    public static List<Double> tenths() {
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            values.add(i / 10.0);
+        }
+        return values;
+    }
+
+    public ParameterGrid queryWeights(List<Double> queryWeights) {
+        this.queryWeights = queryWeights;
+        return this;
+    }
+
+    public ParameterGrid numDocs(List<Integer> numDocs) {
+        this.numDocs = numDocs;
+        return this;
+    }
+
+    public ParameterGrid fbDocs(List<Integer> fbDocs) {
+        this.fbDocs = fbDocs;
+        return this;
+    }
+
+    public ParameterGrid fbTerms(List<Integer> fbTerms) {
+        this.fbTerms = fbTerms;
+        return this;
+    }
+
+    public ParameterGrid fbOrigWeights(List<Double> fbOrigWeights) {
+        this.fbOrigWeights = fbOrigWeights;
+        return this;
+    }
+
+    /**
+     * @param interpolationWeights Weight combinations, each the original document's weight followed by one weight per
+     *                             expansion index, e.g. from InterpolationWeights.weights
+     */
+    public ParameterGrid interpolationWeights(List<List<Double>> interpolationWeights) {
+        this.interpolationWeights = interpolationWeights;
+        return this;
+    }
+
+    public List<Double> getQueryWeights() {
+        return queryWeights;
+    }
+
+    public List<Integer> getNumDocs() {
+        return numDocs;
+    }
+
+    public List<Integer> getFbDocs() {
+        return fbDocs;
+    }
+
+    public List<Integer> getFbTerms() {
+        return fbTerms;
+    }
+
+    public List<Double> getFbOrigWeights() {
+        return fbOrigWeights;
+    }
+
+    public List<List<Double>> getInterpolationWeights() {
+        return interpolationWeights;
+    }
+
+    /**
+     * @return Every point of the grid, in the order their results should be written
+     */
+    public List<SweepPoint> points() {
+        List<SweepPoint> points = new ArrayList<>();
+        for (double queryWeight : queryWeights) {
+            for (int numDocsValue : numDocs) {
+                for (int fbDocsValue : fbDocs) {
+                    for (int fbTermsValue : fbTerms) {
+                        for (double fbOrigWeight : fbOrigWeights) {
+                            for (List<Double> weights : interpolationWeights) {
+                                points.add(new SweepPoint(queryWeight, numDocsValue, fbDocsValue, fbTermsValue,
+                                        fbOrigWeight, weights));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return points;
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.searchhits.SearchHits;
+import org.retrievable.document_expansion.output.RunWriter;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Evaluates the points of a parameter sweep on a fork/join pool and writes their results in the order of the points,
+ * so the run file is the same however the work was spread.
+ *
+ * Points are evaluated concurrently, so an evaluation must only read what is shared: anything that reads an index
+ * (expansions, document vectors, scoring contexts, score tables) has to be loaded on the calling thread before
+ * {@link #run}, and each evaluation must return hits of its own rather than rescoring a shared result list.
+ */
+public class SweepEngine implements Closeable {
+
+    // Points evaluated ahead of the one being written, per thread, which bounds how many result lists are held at once
+    private static final int POINTS_AHEAD_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    public SweepEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SweepEngine(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @param points The grid points, in the order their results are written
+     * @param evaluate Produces a point's ranked results
+     * @param runId Labels a point's results
+     * @param out Where the results are written
+     * @param queryTitle The query the results are for
+     */
+    public void run(List<SweepPoint> points, Function<SweepPoint, SearchHits> evaluate,
+                    Function<SweepPoint, String> runId, RunWriter out, String queryTitle) {
+        int pointsAhead = pool.getParallelism() * POINTS_AHEAD_PER_THREAD;
+        Deque<ForkJoinTask<SearchHits>> pending = new ArrayDeque<>();
+
+        int submitted = 0;
+        for (SweepPoint point : points) {
+            while (submitted < points.size() && pending.size() < pointsAhead) {
+                SweepPoint next = points.get(submitted++);
+                pending.add(pool.submit(() -> evaluate.apply(next)));
+            }
+
+            SearchHits results;
+            try {
+                results = pending.remove().get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Error evaluating " + point + " for query " + queryTitle, e);
+            }
+
+            out.write(runId.apply(point), queryTitle, results);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+}
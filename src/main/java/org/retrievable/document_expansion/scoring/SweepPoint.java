@@ -0,0 +1,85 @@
+package org.retrievable.document_expansion.scoring;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One setting of every parameter a runner sweeps over. Parameters a runner does not sweep keep the
+ * {@link ParameterGrid}'s unused default.
+ */
+public class SweepPoint {
+
+    private final double queryWeight;
+    private final int numDocs;
+    private final int fbDocs;
+    private final int fbTerms;
+    private final double fbOrigWeight;
+    private final List<Double> interpolationWeights;
+
+    public SweepPoint(double queryWeight, int numDocs, int fbDocs, int fbTerms, double fbOrigWeight,
+                      List<Double> interpolationWeights) {
+        this.queryWeight = queryWeight;
+        this.numDocs = numDocs;
+        this.fbDocs = fbDocs;
+        this.fbTerms = fbTerms;
+        this.fbOrigWeight = fbOrigWeight;
+        this.interpolationWeights = Collections.unmodifiableList(interpolationWeights);
+    }
+
+    public double getQueryWeight() {
+        return queryWeight;
+    }
+
+    public int getNumDocs() {
+        return numDocs;
+    }
+
+    public int getFbDocs() {
+        return fbDocs;
+    }
+
+    public int getFbTerms() {
+        return fbTerms;
+    }
+
+    public double getFbOrigWeight() {
+        return fbOrigWeight;
+    }
+
+    /**
+     * @return The original document's weight followed by one weight per expansion index
+     */
+    public List<Double> getInterpolationWeights() {
+        return interpolationWeights;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SweepPoint)) {
+            return false;
+        }
+        SweepPoint other = (SweepPoint) o;
+        return queryWeight == other.queryWeight
+                && numDocs == other.numDocs
+                && fbDocs == other.fbDocs
+                && fbTerms == other.fbTerms
+                && fbOrigWeight == other.fbOrigWeight
+                && interpolationWeights.equals(other.interpolationWeights);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(queryWeight, numDocs, fbDocs, fbTerms, fbOrigWeight, interpolationWeights);
+    }
+
+    @Override
+    public String toString() {
+        return "queryW:" + queryWeight + ",expDocs:" + numDocs + ",fbDocs:" + fbDocs + ",fbTerms:" + fbTerms
+                + ",fbOrigWeight:" + fbOrigWeight + ",weights:" + interpolationWeights;
+    }
+
+}
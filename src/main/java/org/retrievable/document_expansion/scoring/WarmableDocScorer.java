@@ -0,0 +1,17 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DocScorer;
+import edu.gslis.searchhits.SearchHits;
+
+/**
+ * A DocScorer whose scoreTerm may be called from any thread once it has been warmed up for the documents and query.
+ */
+public interface WarmableDocScorer extends DocScorer {
+
+    /**
+     * Load, on the calling thread, everything that scoring these documents against this query will read from an index.
+     */
+    void warmUp(GQuery query, SearchHits documents);
+
+}
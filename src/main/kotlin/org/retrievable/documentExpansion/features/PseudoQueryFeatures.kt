@@ -6,9 +6,9 @@ import edu.gslis.queries.GQuery
 import edu.gslis.scoring.DirichletDocScorer
 import edu.gslis.scoring.queryscoring.QueryLikelihoodQueryScorer
 import edu.gslis.searchhits.SearchHit
-import edu.gslis.textrepresentation.FeatureVector
 import edu.gslis.utils.Stopper
 import org.retrievable.document_expansion.expansion.DocumentExpander
+import org.retrievable.document_expansion.lms.TermAccumulator
 
 
 /**
@@ -49,23 +49,18 @@ fun documentSelfRetrievalScore(document: SearchHit, pseudoQuery: GQuery, index:
     return QueryLikelihoodQueryScorer(DirichletDocScorer(collectionStats)).scoreQuery(pseudoQuery, document)
 }
 
-fun expansionPseudoQuery(document: SearchHit, documentExpander: DocumentExpander, stopper: Stopper) : GQuery {
-    val docPseudoQuery = GQuery()
+// Reused by each thread's calls to expansionPseudoQuery
+private val pseudoQueryTerms = ThreadLocal.withInitial { TermAccumulator(4096) }
 
-    val docVector = FeatureVector(null)
-    documentExpander.expandDocument(document).forEach {
-        searchHit -> searchHit.featureVector.forEach { term ->
-            val termWeight = searchHit.featureVector.getFeatureWeight(term) / searchHit.featureVector.length * searchHit.score
-            docVector.addTerm(term, termWeight)
-        }
+fun expansionPseudoQuery(document: SearchHit, documentExpander: DocumentExpander, stopper: Stopper?) : GQuery {
+    val termWeights = pseudoQueryTerms.get()
+    termWeights.clear()
+    documentExpander.expandDocument(document).forEach { searchHit ->
+        termWeights.add(searchHit.featureVector, searchHit.score / searchHit.featureVector.length, stopper)
     }
 
-    docPseudoQuery.featureVector = docVector
-
-    if (stopper != null) {
-        docPseudoQuery.applyStopper(stopper)
-    }
-    docPseudoQuery.featureVector.clip(20)
+    val docPseudoQuery = GQuery()
+    docPseudoQuery.featureVector = termWeights.topK(20)
 
     return docPseudoQuery
 }
@@ -1,6 +1,7 @@
 package org.retrievable.documentExpansion.main
 
 import edu.gslis.eval.Qrels
+import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl
 import edu.gslis.indexes.IndexWrapper
 import edu.gslis.indexes.IndexWrapperIndriImpl
 import edu.gslis.queries.GQueriesFactory
@@ -15,8 +16,10 @@ import org.retrievable.documentExpansion.features.documentRank
 import org.retrievable.documentExpansion.utils.OptimalParameters
 import org.retrievable.document_expansion.expansion.DocumentExpander
 import org.retrievable.document_expansion.features.LMFeatures
+import org.retrievable.document_expansion.features.SparseTermVector
 import org.retrievable.document_expansion.lms.LanguageModelEstimator
-import org.retrievable.document_expansion.scoring.ExpansionDocScorer
+import org.retrievable.document_expansion.lms.TermDictionary
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot
 import java.io.File
 
 
@@ -26,7 +29,10 @@ fun main(args: Array<String>) {
 
     // Load resources from config
     val targetIndex: IndexWrapper = IndexWrapperIndriImpl(config.getString("target-index"))
-    val expansionIndex = IndexWrapperIndriImpl(config.getString("expansion-index"))
+    val expansionIndex = CachedFeatureVectorIndexWrapperIndriImpl(config.getString("expansion-index"))
+    // With a snapshot of the expansion index, term ids are the snapshot's and collection probabilities are array reads
+    val expansionStats = config.getString("expansion-stats-snapshot", null)?.let { CollectionStatsSnapshot(it) }
+    expansionStats?.let { TermDictionary.seedGlobal(it) }
     val queries = GQueriesFactory.getGQueries(config.getString("queries"))
     val stopper = Stopper(config.getString("stoplist"))
     val qrels = Qrels(config.getString("qrels"), true, 1)
@@ -70,7 +76,7 @@ fun main(args: Array<String>) {
 
             val expansionLM = LanguageModelEstimator.expansionLanguageModel(
                     document,
-                    ExpansionDocScorer(documentExpander, expansionParams.numDocs),
+                    expansionScorer(documentExpander, expansionParams.numDocs, expansionStats),
                     originalLM.features
             )
 
@@ -90,9 +96,9 @@ fun main(args: Array<String>) {
         )*/
             val originalToExpandedCosine = LMFeatures.languageModelsCosine(originalLM, expandedLM)
             val originalToExpansionCosine = LMFeatures.languageModelsCosine(originalLM, expansionLM)
-            val pairwiseSimilarityOfExpansionDocsCosine = pairwiseSimilarity(
+            val pairwiseSimilarityOfExpansionDocsCosine = pairwiseSparseSimilarity(
                     documentExpander.expandDocument(document, expansionParams.numDocs),
-                    LMFeatures::languageModelsCosine
+                    SparseTermVector::cosine
             )
             val averageGroupSimilarityCosine = averageGroupSimilarity(
                     documentExpander.expandDocument(document, expansionParams.numDocs),
@@ -1,6 +1,7 @@
 package org.retrievable.documentExpansion.main
 
 import edu.gslis.eval.Qrels
+import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl
 import edu.gslis.indexes.IndexWrapperIndriImpl
 import edu.gslis.queries.GQueriesFactory
 import edu.gslis.searchhits.IndexBackedSearchHit
@@ -11,7 +12,10 @@ import org.apache.commons.configuration.PropertiesConfiguration
 import org.retrievable.documentExpansion.utils.OptimalParameters
 import org.retrievable.document_expansion.expansion.DocumentExpander
 import org.retrievable.document_expansion.features.LMFeatures
+import org.retrievable.document_expansion.features.SparseTermVector
 import org.retrievable.document_expansion.lms.LanguageModelEstimator
+import org.retrievable.document_expansion.lms.TermDictionary
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot
 import org.retrievable.document_expansion.scoring.ExpansionDocScorer
 import java.io.File
 import java.util.*
@@ -20,12 +24,16 @@ import java.util.*
 fun main(args: Array<String>) {
     // Load config
     val config = PropertiesConfiguration(args[0])
+
     //val docListFile = args[1]
 
     // Load resources from config
     val stopper = Stopper(config.getString("stoplist"))
     val targetIndex = IndexWrapperIndriImpl(config.getString("target-index"))
-    val expansionIndex = IndexWrapperIndriImpl(config.getString("expansion-index"))
+    val expansionIndex = CachedFeatureVectorIndexWrapperIndriImpl(config.getString("expansion-index"))
+    // With a snapshot of the expansion index, term ids are the snapshot's and collection probabilities are array reads
+    val expansionStats = config.getString("expansion-stats-snapshot", null)?.let { CollectionStatsSnapshot(it) }
+    expansionStats?.let { TermDictionary.seedGlobal(it) }
     val queries = GQueriesFactory.getGQueries(config.getString("queries"))
     val qrels = Qrels(config.getString("qrels"), false, 1)
 
@@ -71,7 +79,7 @@ fun main(args: Array<String>) {
 
         val expansionLM = LanguageModelEstimator.expansionLanguageModel(
                 document,
-                ExpansionDocScorer(documentExpander, expansionParams.numDocs),
+                expansionScorer(documentExpander, expansionParams.numDocs, expansionStats),
                 originalLM.features
         )
 
@@ -91,9 +99,9 @@ fun main(args: Array<String>) {
         )*/
         //val originalToExpandedCosine = LMFeatures.languageModelsCosine(originalLM, expandedLM)
         val originalToExpansionCosine = LMFeatures.languageModelsCosine(originalLM, expansionLM)
-        val pairwiseSimilarityOfExpansionDocsCosine = pairwiseSimilarity(
+        val pairwiseSimilarityOfExpansionDocsCosine = pairwiseSparseSimilarity(
                 documentExpander.expandDocument(document, expansionParams.numDocs),
-                LMFeatures::languageModelsCosine
+                SparseTermVector::cosine
         )
         val averageGroupSimilarityCosine = averageGroupSimilarity(
                 documentExpander.expandDocument(document, expansionParams.numDocs),
@@ -128,6 +136,34 @@ fun pairwiseSimilarity(documents: SearchHits, similarityFunction: (FeatureVector
     return similarities.sum() / similarities.size
 }
 
+/**
+ * The expansion scorer for the feature jobs, reading collection probabilities from the expansion index's snapshot when
+ * one is given.
+ */
+fun expansionScorer(documentExpander: DocumentExpander, numDocs: Int, expansionStats: CollectionStatsSnapshot?) : ExpansionDocScorer {
+    if (expansionStats == null) {
+        return ExpansionDocScorer(documentExpander, numDocs)
+    }
+    val scorer = ExpansionDocScorer(2500.0, documentExpander, expansionStats)
+    scorer.setNumDocs(numDocs)
+    return scorer
+}
+
+/**
+ * Like pairwiseSimilarity, but the documents' vectors are numbered together once, and every pair is compared by merging
+ * term ids.
+ */
+fun pairwiseSparseSimilarity(documents: SearchHits, similarityFunction: (SparseTermVector, SparseTermVector) -> Double) : Double {
+    val vectors = SparseTermVector.numberTogether(*documents.map { it.featureVector }.toTypedArray())
+    val similarities = ArrayList<Double>()
+    for (i in vectors.indices) {
+        for (j in (i+1) until vectors.size) {
+            similarities.add(similarityFunction(vectors[i], vectors[j]))
+        }
+    }
+    return similarities.sum() / similarities.size
+}
+
 fun averageGroupSimilarity(documents: SearchHits, similarityFunction: (FeatureVector, FeatureVector) -> Double) : Double {
     val similarities: List<Double> = documents.map { document ->
         val otherDocsPseudoVector = FeatureVector(null)
@@ -5,6 +5,7 @@ import edu.gslis.searchhits.IndexBackedSearchHit
 import edu.gslis.utils.Stopper
 import org.apache.commons.configuration.PropertiesConfiguration
 import org.retrievable.document_expansion.expansion.DocumentExpander
+import org.retrievable.document_expansion.expansion.PseudoQueryStoreWriter
 import java.io.File
 
 
@@ -18,11 +19,15 @@ fun main(args: Array<String>) {
 
     val docnos = File(args[1]).readLines().map { it.trim() }
 
+    // Optionally also write the pseudo-queries as a binary store for DocumentExpanderWithPremadePseudoQueries
+    val storeWriter = if (args.size > 2) PseudoQueryStoreWriter(args[2]) else null
+
     val output = docnos.distinct().parallelStream().map { docno ->
         val doc = IndexBackedSearchHit(index)
         doc.docno = docno
 
         val pseudoQuery = documentExpander.createDocumentPseudoQuery(doc)
+        storeWriter?.add(docno, pseudoQuery.featureVector)
 
         pseudoQuery.featureVector.map { term ->
             val tf = pseudoQuery.featureVector.getFeatureWeight(term)
@@ -35,4 +40,5 @@ fun main(args: Array<String>) {
     println("docno,term,termFreq,termFreqNorm,idf,tfIDF")
     print(output)
 
-}
\ No newline at end of file
+    storeWriter?.close()
+}
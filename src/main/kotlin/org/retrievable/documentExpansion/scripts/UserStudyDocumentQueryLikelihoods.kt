@@ -1,7 +1,7 @@
 package org.retrievable.documentExpansion.scripts
 
 import edu.gslis.docscoring.support.IndexBackedCollectionStats
-import edu.gslis.indexes.IndexWrapperIndriImpl
+import edu.gslis.indexes.CachedFeatureVectorIndexWrapperIndriImpl
 import edu.gslis.scoring.DirichletDocScorer
 import edu.gslis.scoring.InterpolatedDocScorer
 import edu.gslis.scoring.queryscoring.QueryLikelihoodQueryScorer
@@ -21,7 +21,7 @@ fun main(args: Array<String>) {
     val annotatedDocsfile = args[1]
 
     // Load resources from config
-    val expansionIndex = IndexWrapperIndriImpl(config.getString("expansion-index"))
+    val expansionIndex = CachedFeatureVectorIndexWrapperIndriImpl(config.getString("expansion-index"))
     val indexesDir = config.getString("indexes-dir")
     val queriesDir = config.getString("queries-dir")
     val qrelsDir = config.getString("qrels-dir")
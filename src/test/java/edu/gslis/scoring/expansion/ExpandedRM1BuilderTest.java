@@ -0,0 +1,281 @@
+package edu.gslis.scoring.expansion;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+import org.junit.Before;
+import org.junit.Test;
+import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+import org.retrievable.document_expansion.lms.InterpolationWeights;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExpandedRM1BuilderTest {
+
+    private static final int FEEDBACK_DOCS = 6;
+    private static final int NUM_EXPANSION_DOCS = 3;
+
+    /**
+     * Statistics summed over the given documents.
+     */
+    private static class DocumentCollectionStats extends CollectionStats {
+
+        private final Map<String, Double> termCounts = new HashMap<>();
+        private final Map<String, Double> docCounts = new HashMap<>();
+
+        DocumentCollectionStats(SearchHits documents) {
+            for (SearchHit document : documents) {
+                for (String term : document.getFeatureVector().getFeatures()) {
+                    termCounts.merge(term, document.getFeatureVector().getFeatureWeight(term), Double::sum);
+                    docCounts.merge(term, 1.0, Double::sum);
+                }
+                tokCount += document.getFeatureVector().getLength();
+                docCount++;
+            }
+            termTypeCount = termCounts.size();
+        }
+
+        @Override
+        public void setStatSource(String statSource) {
+        }
+
+        @Override
+        public double termCount(String term) {
+            return termCounts.getOrDefault(term, 0.0);
+        }
+
+        @Override
+        public double docCount(String term) {
+            return docCounts.getOrDefault(term, 0.0);
+        }
+
+    }
+
+    /**
+     * An expansion index of fixed expansions: each document is expanded with the same expansion documents whatever the
+     * depth asked for, and both expansions and loads of expansion document vectors are counted.
+     */
+    private static class ExpansionIndex {
+
+        private final SearchHits expansionDocs;
+        private final Map<String, ExpansionList> expansionLists;
+        private final AtomicInteger expansionCount = new AtomicInteger();
+        private final AtomicInteger vectorCount = new AtomicInteger();
+
+        ExpansionIndex(SearchHits expansionDocs, Map<String, ExpansionList> expansionLists) {
+            this.expansionDocs = expansionDocs;
+            this.expansionLists = expansionLists;
+        }
+
+        private IndexWrapper index() {
+            return (IndexWrapper) Proxy.newProxyInstance(IndexWrapper.class.getClassLoader(), new Class<?>[] {IndexWrapper.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getDocVector":
+                                vectorCount.incrementAndGet();
+                                return expansionDocs.getHit((Integer) args[0]).getFeatureVector();
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            case "toString":
+                                return "expansion index";
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        DocumentExpander expander() {
+            return new DocumentExpander(index(), 20, null) {
+                @Override
+                public ExpansionList getExpansionList(SearchHit document, int numDocs) {
+                    expansionCount.incrementAndGet();
+                    return expansionLists.get(document.getDocno()).prefix(numDocs);
+                }
+            };
+        }
+
+        CollectionStats collectionStats() {
+            return new DocumentCollectionStats(expansionDocs);
+        }
+
+    }
+
+    private SearchHits feedback;
+    private CollectionStats collectionStats;
+    private List<ExpansionIndex> expansionIndexes;
+    private GQuery query;
+    private Stopper stopper;
+
+    private static FeatureVector randomVector(Random random, int vocabulary, int length) {
+        FeatureVector vector = new FeatureVector(null);
+        vector.addTerm("the", 5 + random.nextInt(5));
+        vector.addTerm("apple", 1 + random.nextInt(4));
+        for (int j = 0; j < length; j++) {
+            vector.addTerm("t" + random.nextInt(vocabulary), 1 + random.nextInt(3));
+        }
+        return vector;
+    }
+
+    private ExpansionIndex randomExpansionIndex(Random random) {
+        SearchHits expansionDocs = new SearchHits();
+        for (int i = 0; i < 15; i++) {
+            SearchHit hit = new SearchHit();
+            hit.setDocID(i);
+            // Expansion documents bring in terms the feedback lacks
+            hit.setFeatureVector(randomVector(random, 40, 25));
+            expansionDocs.add(hit);
+        }
+
+        Map<String, ExpansionList> expansionLists = new HashMap<>();
+        for (SearchHit document : feedback) {
+            int[] docIds = new int[NUM_EXPANSION_DOCS];
+            float[] scores = new float[NUM_EXPANSION_DOCS];
+            for (int i = 0; i < NUM_EXPANSION_DOCS; i++) {
+                docIds[i] = random.nextInt(expansionDocs.size());
+                scores[i] = -3 - i - random.nextFloat();
+            }
+            expansionLists.put(document.getDocno(), new ExpansionList(docIds, scores));
+        }
+        return new ExpansionIndex(expansionDocs, expansionLists);
+    }
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        feedback = new SearchHits();
+        for (int i = 0; i < 10; i++) {
+            SearchHit hit = new SearchHit();
+            hit.setDocno("doc" + i);
+            hit.setDocID(i + 1);
+            hit.setScore(-5 - i * 0.1);
+            hit.setFeatureVector(randomVector(random, 30, 20));
+            feedback.add(hit);
+        }
+        collectionStats = new DocumentCollectionStats(feedback);
+        expansionIndexes = Arrays.asList(randomExpansionIndex(random), randomExpansionIndex(random));
+
+        FeatureVector queryVector = new FeatureVector(null);
+        queryVector.addTerm("apple", 1);
+        queryVector.addTerm("t3", 1);
+        query = new GQuery();
+        query.setFeatureVector(queryVector);
+
+        stopper = new Stopper() {
+            @Override
+            public boolean isStopWord(String term) {
+                return term.equals("the");
+            }
+        };
+    }
+
+    private ExpandedRM1Builder builder(List<ExpansionIndex> expansionIndexes) {
+        List<DocumentExpander> expanders = new ArrayList<>();
+        List<CollectionStats> expansionStats = new ArrayList<>();
+        for (ExpansionIndex expansionIndex : expansionIndexes) {
+            expanders.add(expansionIndex.expander());
+            expansionStats.add(expansionIndex.collectionStats());
+        }
+
+        ExpandedRM1Builder builder = new ExpandedRM1Builder(FEEDBACK_DOCS, 20, collectionStats, expanders, NUM_EXPANSION_DOCS);
+        builder.setExpansionCollectionStats(expansionStats);
+        return builder;
+    }
+
+    private SearchHits copy(SearchHits hits) {
+        SearchHits copy = new SearchHits();
+        for (SearchHit hit : hits) {
+            copy.add(hit);
+        }
+        return copy;
+    }
+
+    private static Set<String> terms(FeatureVector vector) {
+        Set<String> terms = new HashSet<>();
+        for (String term : vector) {
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    private void assertSameModel(FeatureVector expected, FeatureVector actual) {
+        assertEquals(terms(expected), terms(actual));
+        for (String term : expected) {
+            assertEquals(expected.getFeatureWeight(term), actual.getFeatureWeight(term), 1e-12);
+        }
+    }
+
+    @Test
+    public void reweightedModelsMatchFreshBuilders() {
+        ExpandedRM1Builder reweighted = builder(expansionIndexes);
+        for (List<Double> weights : InterpolationWeights.weights(3)) {
+            reweighted.setInterpolationWeights(weights);
+
+            ExpandedRM1Builder fresh = builder(expansionIndexes);
+            fresh.setInterpolationWeights(weights);
+            assertSameModel(fresh.buildRelevanceModel(query, copy(feedback), stopper),
+                    reweighted.buildRelevanceModel(query, copy(feedback), stopper));
+        }
+    }
+
+    @Test
+    public void keepsTheExpansionsAcrossWeightChanges() {
+        ExpandedRM1Builder builder = builder(expansionIndexes);
+        builder.setInterpolationWeights(Arrays.asList(0.4, 0.3, 0.3));
+        builder.buildRelevanceModel(query, copy(feedback), stopper);
+
+        List<Integer> vectorCounts = new ArrayList<>();
+        for (ExpansionIndex expansionIndex : expansionIndexes) {
+            assertEquals(FEEDBACK_DOCS, expansionIndex.expansionCount.get());
+            vectorCounts.add(expansionIndex.vectorCount.get());
+        }
+
+        for (List<Double> weights : InterpolationWeights.weights(3)) {
+            builder.setInterpolationWeights(weights);
+            builder.buildRelevanceModel(query, copy(feedback), stopper);
+        }
+        // Every weight combination scored with the scorers, and so the expansions, of the first
+        for (int i = 0; i < expansionIndexes.size(); i++) {
+            assertEquals(FEEDBACK_DOCS, expansionIndexes.get(i).expansionCount.get());
+            assertEquals(vectorCounts.get(i).intValue(), expansionIndexes.get(i).vectorCount.get());
+        }
+    }
+
+    @Test
+    public void newExpansionStatisticsReplaceTheScorers() {
+        ExpandedRM1Builder builder = builder(expansionIndexes);
+        builder.setInterpolationWeights(Arrays.asList(0.4, 0.3, 0.3));
+        builder.buildRelevanceModel(query, copy(feedback), stopper);
+
+        // Statistics of the other expansion index, swapped in under the same expanders
+        builder.setExpansionCollectionStats(Arrays.asList(
+                expansionIndexes.get(1).collectionStats(), expansionIndexes.get(0).collectionStats()));
+        FeatureVector model = builder.buildRelevanceModel(query, copy(feedback), stopper);
+
+        List<DocumentExpander> expanders = Arrays.asList(expansionIndexes.get(0).expander(), expansionIndexes.get(1).expander());
+        ExpandedRM1Builder fresh = new ExpandedRM1Builder(FEEDBACK_DOCS, 20, collectionStats, expanders, NUM_EXPANSION_DOCS);
+        fresh.setExpansionCollectionStats(Arrays.asList(
+                expansionIndexes.get(1).collectionStats(), expansionIndexes.get(0).collectionStats()));
+        fresh.setInterpolationWeights(Arrays.asList(0.4, 0.3, 0.3));
+        assertSameModel(fresh.buildRelevanceModel(query, copy(feedback), stopper), model);
+    }
+
+}
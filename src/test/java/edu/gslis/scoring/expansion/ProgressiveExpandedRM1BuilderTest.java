@@ -0,0 +1,222 @@
+package edu.gslis.scoring.expansion;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DirichletDocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+import org.junit.Before;
+import org.junit.Test;
+import org.retrievable.document_expansion.expansion.DocumentExpander;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProgressiveExpandedRM1BuilderTest {
+
+    private static final List<Integer> DEPTHS = Arrays.asList(1, 3, 5, 10, 12);
+
+    /**
+     * Statistics summed over the given documents.
+     */
+    private static class DocumentCollectionStats extends CollectionStats {
+
+        private final Map<String, Double> termCounts = new HashMap<>();
+        private final Map<String, Double> docCounts = new HashMap<>();
+
+        DocumentCollectionStats(SearchHits documents) {
+            for (SearchHit document : documents) {
+                for (String term : document.getFeatureVector().getFeatures()) {
+                    termCounts.merge(term, document.getFeatureVector().getFeatureWeight(term), Double::sum);
+                    docCounts.merge(term, 1.0, Double::sum);
+                }
+                tokCount += document.getFeatureVector().getLength();
+                docCount++;
+            }
+            termTypeCount = termCounts.size();
+        }
+
+        @Override
+        public void setStatSource(String statSource) {
+        }
+
+        @Override
+        public double termCount(String term) {
+            return termCounts.getOrDefault(term, 0.0);
+        }
+
+        @Override
+        public double docCount(String term) {
+            return docCounts.getOrDefault(term, 0.0);
+        }
+
+    }
+
+    /**
+     * Gives terms a document lacks some probability, as the expansion scorers of an interpolated model do, so terms new
+     * to the vocabulary must be scored against the documents before them.
+     */
+    private static class SmoothedProgressiveBuilder extends ProgressiveExpandedRM1Builder {
+
+        SmoothedProgressiveBuilder(int feedbackDocs, int feedbackTerms, CollectionStats collectionStats) {
+            super(feedbackDocs, feedbackTerms, collectionStats, Collections.<DocumentExpander>emptyList(), 0);
+        }
+
+        @Override
+        protected void createDocScorers() {
+            super.createDocScorers();
+            zeroMuDocScorer = new DirichletDocScorer(10, collectionStats);
+        }
+
+    }
+
+    private static class SmoothedBuilder extends ExpandedRM1Builder {
+
+        SmoothedBuilder(int feedbackDocs, int feedbackTerms, CollectionStats collectionStats) {
+            super(feedbackDocs, feedbackTerms, collectionStats, Collections.<DocumentExpander>emptyList(), 0);
+        }
+
+        @Override
+        protected void createDocScorers() {
+            super.createDocScorers();
+            zeroMuDocScorer = new DirichletDocScorer(10, collectionStats);
+        }
+
+    }
+
+    private SearchHits feedback;
+    private CollectionStats collectionStats;
+    private GQuery query;
+    private Stopper stopper;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        // Deeper documents bring in terms the shallower ones lack, so the vocabulary grows with the depth
+        feedback = new SearchHits();
+        for (int i = 0; i < 10; i++) {
+            FeatureVector vector = new FeatureVector(null);
+            vector.addTerm("the", 5 + random.nextInt(5));
+            vector.addTerm("apple", 1 + random.nextInt(4));
+            for (int j = 0; j < 20; j++) {
+                vector.addTerm("t" + random.nextInt(10 + i * 5), 1 + random.nextInt(3));
+            }
+
+            SearchHit hit = new SearchHit();
+            hit.setDocno("doc" + i);
+            hit.setDocID(i + 1);
+            hit.setScore(-5 - i * 0.1);
+            hit.setFeatureVector(vector);
+            feedback.add(hit);
+        }
+        collectionStats = new DocumentCollectionStats(feedback);
+
+        FeatureVector queryVector = new FeatureVector(null);
+        queryVector.addTerm("apple", 1);
+        queryVector.addTerm("t3", 1);
+        query = new GQuery();
+        query.setFeatureVector(queryVector);
+
+        stopper = new Stopper() {
+            @Override
+            public boolean isStopWord(String term) {
+                return term.equals("the");
+            }
+        };
+    }
+
+    private SearchHits copy(SearchHits hits) {
+        SearchHits copy = new SearchHits();
+        for (SearchHit hit : hits) {
+            copy.add(hit);
+        }
+        return copy;
+    }
+
+    private static Set<String> terms(FeatureVector vector) {
+        Set<String> terms = new HashSet<>();
+        for (String term : vector) {
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    private void assertSameModel(FeatureVector expected, FeatureVector actual) {
+        assertEquals(terms(expected), terms(actual));
+        for (String term : expected) {
+            assertEquals(expected.getFeatureWeight(term), actual.getFeatureWeight(term), 1e-12);
+        }
+    }
+
+    private void assertEveryDepthMatchesFromScratch(int feedbackTerms, boolean smoothed) {
+        ProgressiveExpandedRM1Builder progressive = smoothed
+                ? new SmoothedProgressiveBuilder(DEPTHS.get(0), feedbackTerms, collectionStats)
+                : new ProgressiveExpandedRM1Builder(DEPTHS.get(0), feedbackTerms, collectionStats,
+                        Collections.<DocumentExpander>emptyList(), 0);
+        Map<Integer, FeatureVector> models = progressive.buildRelevanceModels(query, feedback, stopper, DEPTHS);
+
+        assertEquals(new HashSet<>(DEPTHS), models.keySet());
+        for (int depth : DEPTHS) {
+            ExpandedRM1Builder fromScratch = smoothed
+                    ? new SmoothedBuilder(depth, feedbackTerms, collectionStats)
+                    : new ExpandedRM1Builder(depth, feedbackTerms, collectionStats,
+                            Collections.<DocumentExpander>emptyList(), 0);
+            assertSameModel(fromScratch.buildRelevanceModel(query, copy(feedback), stopper), models.get(depth));
+        }
+    }
+
+    @Test
+    public void everyDepthMatchesFromScratch() {
+        assertEveryDepthMatchesFromScratch(1000, false);
+    }
+
+    @Test
+    public void everyClippedDepthMatchesFromScratch() {
+        assertEveryDepthMatchesFromScratch(10, false);
+    }
+
+    @Test
+    public void everySmoothedDepthMatchesFromScratch() {
+        assertEveryDepthMatchesFromScratch(1000, true);
+        assertEveryDepthMatchesFromScratch(10, true);
+    }
+
+    @Test
+    public void leavesTheFeedbackUncropped() {
+        ProgressiveExpandedRM1Builder progressive = new ProgressiveExpandedRM1Builder(3, 20, collectionStats,
+                Collections.<DocumentExpander>emptyList(), 0);
+        FeatureVector model = progressive.buildRelevanceModel(query, feedback, stopper);
+        assertEquals(10, feedback.size());
+
+        ExpandedRM1Builder fromScratch = new ExpandedRM1Builder(3, 20, collectionStats,
+                Collections.<DocumentExpander>emptyList(), 0);
+        assertSameModel(fromScratch.buildRelevanceModel(query, copy(feedback), stopper), model);
+    }
+
+    @Test
+    public void reusesTheBuilderAcrossQueries() {
+        ProgressiveExpandedRM1Builder progressive = new ProgressiveExpandedRM1Builder(5, 20, collectionStats,
+                Collections.<DocumentExpander>emptyList(), 0);
+        FeatureVector first = progressive.buildRelevanceModel(query, feedback, stopper);
+
+        FeatureVector otherQueryVector = new FeatureVector(null);
+        otherQueryVector.addTerm("t7", 1);
+        GQuery otherQuery = new GQuery();
+        otherQuery.setFeatureVector(otherQueryVector);
+        progressive.buildRelevanceModel(otherQuery, feedback, stopper);
+
+        assertSameModel(first, progressive.buildRelevanceModel(query, feedback, stopper));
+    }
+
+}
@@ -0,0 +1,206 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class DocumentExpanderTest {
+
+    private SearchHits documents;
+    private Stopper stopper;
+
+    /**
+     * An index that ranks up to numMatches documents for every query, depending only on the query's terms, and counts
+     * the queries it runs. A proxy, so that everything else IndexWrapper declares is simply refused.
+     */
+    private static IndexWrapper fakeIndex(int numMatches, AtomicInteger queryCount) {
+        return (IndexWrapper) Proxy.newProxyInstance(IndexWrapper.class.getClassLoader(), new Class<?>[] {IndexWrapper.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "runQuery":
+                            queryCount.incrementAndGet();
+                            return ranking(args[0], numMatches, (Integer) args[1]);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "fake index";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static SearchHits ranking(Object query, int numMatches, int numResults) {
+        String terms = query instanceof GQuery
+                ? new TreeSet<>(((GQuery) query).getFeatureVector().getFeatures()).toString()
+                : String.valueOf(query);
+        Random random = new Random(terms.hashCode());
+
+        SearchHits hits = new SearchHits();
+        double score = -3;
+        for (int i = 0; i < Math.min(numMatches, numResults); i++) {
+            score -= random.nextDouble();
+            SearchHit hit = new SearchHit();
+            hit.setDocID(1 + random.nextInt(100000));
+            hit.setScore(score);
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    private static void assertSameList(ExpansionList expected, ExpansionList actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getDocId(i), actual.getDocId(i));
+            assertEquals(expected.getScore(i), actual.getScore(i), 0.0);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        ExpansionRegistry.clear();
+        stopper = new Stopper();
+
+        documents = new SearchHits();
+        for (int d = 0; d < 12; d++) {
+            FeatureVector vector = new FeatureVector(null);
+            vector.addTerm("w" + d, 3);
+            vector.addTerm("w" + (d + 1), 2);
+            vector.addTerm("common", 1);
+
+            SearchHit document = new SearchHit();
+            document.setDocno("doc" + d);
+            document.setDocID(d + 1);
+            document.setFeatureVector(vector);
+            documents.add(document);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        ExpansionRegistry.clear();
+    }
+
+    @Test
+    public void servesShallowerRequestsFromOneRetrieval() {
+        AtomicInteger queryCount = new AtomicInteger();
+        DocumentExpander expander = new DocumentExpander(fakeIndex(1000, queryCount), 20, stopper);
+        expander.setMaxNumDocs(10);
+
+        SearchHit document = documents.getHit(0);
+        ExpansionList deepest = expander.getExpansionList(document, 10);
+        for (int numDocs : Arrays.asList(3, 1, 10, 5)) {
+            assertSameList(deepest.prefix(numDocs), expander.getExpansionList(document, numDocs));
+        }
+        assertEquals(10, deepest.size());
+        assertEquals(1, queryCount.get());
+    }
+
+    @Test
+    public void deeperRequestsRequeryOnce() {
+        AtomicInteger queryCount = new AtomicInteger();
+        DocumentExpander expander = new DocumentExpander(fakeIndex(1000, queryCount), 20, stopper);
+
+        SearchHit document = documents.getHit(0);
+        ExpansionList shallow = expander.getExpansionList(document, 3);
+        ExpansionList deep = expander.getExpansionList(document, 10);
+        assertEquals(3, shallow.size());
+        assertEquals(10, deep.size());
+        assertSameList(shallow, deep.prefix(3));
+        assertEquals(2, queryCount.get());
+
+        expander.getExpansionList(document, 7);
+        expander.getExpansionList(document, 10);
+        assertEquals(2, queryCount.get());
+    }
+
+    @Test
+    public void shortExpansionsCoverDeeperRequests() {
+        AtomicInteger queryCount = new AtomicInteger();
+        DocumentExpander expander = new DocumentExpander(fakeIndex(4, queryCount), 20, stopper);
+
+        SearchHit document = documents.getHit(0);
+        assertEquals(4, expander.getExpansionList(document, 10).size());
+        // The index has nothing more to give, so there is no point asking it again
+        assertEquals(4, expander.getExpansionList(document, 50).size());
+        assertEquals(1, queryCount.get());
+    }
+
+    @Test
+    public void expandersShareExpansionsOfTheSameIndexAndSettings() {
+        AtomicInteger queryCount = new AtomicInteger();
+        IndexWrapper index = fakeIndex(1000, queryCount);
+        SearchHit document = documents.getHit(0);
+
+        ExpansionList first = new DocumentExpander(index, 20, stopper).getExpansionList(document, 10);
+        assertSameList(first, new DocumentExpander(index, 20, stopper).getExpansionList(document, 10));
+        assertEquals(1, queryCount.get());
+
+        // Each of these expands differently, so none may reuse the first expansion
+        new DocumentExpander(index, 2, stopper).getExpansionList(document, 10);
+        new DocumentExpander(index, 20, new Stopper()).getExpansionList(document, 10);
+        new DocumentExpander(fakeIndex(1000, queryCount), 20, stopper).getExpansionList(document, 10);
+        assertEquals(4, queryCount.get());
+    }
+
+    @Test
+    public void expandsAResultListOnTheRetrievalPool() {
+        AtomicInteger poolQueryCount = new AtomicInteger();
+        AtomicInteger queryCount = new AtomicInteger();
+        DocumentExpander expander = new DocumentExpander(fakeIndex(1000, queryCount), 20, stopper);
+
+        try (RetrievalPool pool = new RetrievalPool(() -> fakeIndex(1000, poolQueryCount), 4)) {
+            expander.setRetrievalPool(pool);
+            expander.expandDocuments(documents, 10);
+        }
+        assertEquals(documents.size(), poolQueryCount.get());
+
+        // Everything is cached, and the same as expanding one document at a time
+        DocumentExpander serial = new DocumentExpander(fakeIndex(1000, new AtomicInteger()), 20, stopper);
+        for (SearchHit document : documents) {
+            assertSameList(serial.getExpansionList(document, 10), expander.getExpansionList(document, 10));
+        }
+        assertEquals(0, queryCount.get());
+    }
+
+    @Test
+    public void fanOutExpandsAgainstEveryIndex() {
+        List<AtomicInteger> queryCounts = new ArrayList<>();
+        List<DocumentExpander> expanders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queryCounts.add(new AtomicInteger());
+            expanders.add(new DocumentExpander(fakeIndex(1000, queryCounts.get(i)), 20, stopper));
+        }
+
+        try (ExpansionFanOut fanOut = new ExpansionFanOut(expanders)) {
+            fanOut.expandDocuments(documents, 10);
+        }
+
+        for (int i = 0; i < expanders.size(); i++) {
+            assertEquals(documents.size(), queryCounts.get(i).get());
+            for (SearchHit document : documents) {
+                assertEquals(10, expanders.get(i).getExpansionList(document, 10).size());
+            }
+            assertEquals(documents.size(), queryCounts.get(i).get());
+        }
+    }
+
+}
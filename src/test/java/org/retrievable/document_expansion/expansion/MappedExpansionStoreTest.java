@@ -0,0 +1,146 @@
+package org.retrievable.document_expansion.expansion;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MappedExpansionStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ExpansionList expansion(int size) {
+        int[] docIds = new int[size];
+        float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            docIds[i] = 100 + i;
+            scores[i] = -i;
+        }
+        return new ExpansionList(docIds, scores);
+    }
+
+    private static void assertPrefix(ExpansionList expected, ExpansionList actual, int numDocs) {
+        assertNotNull(actual);
+        assertEquals(numDocs, actual.size());
+        for (int i = 0; i < numDocs; i++) {
+            assertEquals(expected.getDocId(i), actual.getDocId(i));
+            assertEquals(expected.getScore(i), actual.getScore(i), 0.0);
+        }
+    }
+
+    @Test
+    public void servesPrefixesOfStoredExpansions() throws IOException {
+        File file = folder.newFile("store");
+        try (MappedExpansionStore store = new MappedExpansionStore(file.getPath())) {
+            store.put("doc-1", 10, expansion(10));
+            store.put("doc-2", 10, expansion(3));
+
+            assertPrefix(expansion(10), store.get("doc-1", 5), 5);
+            assertPrefix(expansion(10), store.get("doc-1", 10), 10);
+            assertNull(store.get("doc-1", 11));
+
+            // Fewer matches than asked for: every match is already stored
+            assertPrefix(expansion(3), store.get("doc-2", 20), 3);
+            assertNull(store.get("doc-3", 1));
+        }
+    }
+
+    @Test
+    public void servesShallowRecordsWhenAskedForEverything() throws IOException {
+        File file = folder.newFile("store");
+        try (MappedExpansionStore store = new MappedExpansionStore(file.getPath())) {
+            store.put("doc-1", 5, expansion(5));
+
+            assertNull(store.get("doc-1", 10));
+            assertPrefix(expansion(5), store.get("doc-1"), 5);
+            assertNull(store.get("doc-2"));
+        }
+    }
+
+    @Test
+    public void picksUpDeeperRecordsFromOtherWriters() throws IOException {
+        File file = folder.newFile("store");
+        try (MappedExpansionStore reader = new MappedExpansionStore(file.getPath());
+             MappedExpansionStore writer = new MappedExpansionStore(file.getPath())) {
+            writer.put("doc-1", 5, expansion(5));
+            assertPrefix(expansion(5), reader.get("doc-1", 5), 5);
+
+            writer.put("doc-1", 20, expansion(20));
+            assertPrefix(expansion(20), reader.get("doc-1", 20), 20);
+        }
+    }
+
+    @Test
+    public void sharesOneFileBetweenStoresInOneProcess() throws IOException, InterruptedException, ExecutionException {
+        File file = folder.newFile("store");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (MappedExpansionStore store1 = new MappedExpansionStore(file.getPath());
+             MappedExpansionStore store2 = new MappedExpansionStore(file.getPath())) {
+            // Appends from both stores at once must wait for each other rather than fail on overlapping locks
+            List<Future<?>> writes = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                MappedExpansionStore store = thread % 2 == 0 ? store1 : store2;
+                int first = thread * 100;
+                writes.add(executor.submit(() -> {
+                    for (int i = first; i < first + 100; i++) {
+                        store.put("doc-" + i, 5, expansion(5));
+                        store.get("doc-" + (i + 1), 5);
+                    }
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+
+            for (int i = 0; i < 400; i++) {
+                assertPrefix(expansion(5), store1.get("doc-" + i, 5), 5);
+                assertPrefix(expansion(5), store2.get("doc-" + i, 5), 5);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void truncatesTornTrailingRecords() throws IOException {
+        File file = folder.newFile("store");
+        try (MappedExpansionStore store = new MappedExpansionStore(file.getPath())) {
+            store.put("doc-1", 10, expansion(10));
+            store.put("doc-2", 10, expansion(10));
+        }
+        long intactLength = file.length();
+
+        // Cut the last record short, as a writer that crashed mid-append would
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(intactLength - 7);
+        }
+
+        try (MappedExpansionStore store = new MappedExpansionStore(file.getPath())) {
+            assertPrefix(expansion(10), store.get("doc-1", 10), 10);
+            assertNull(store.get("doc-2", 10));
+
+            store.put("doc-3", 4, expansion(4));
+        }
+
+        // The record appended after reopening is readable from a fresh store
+        try (MappedExpansionStore store = new MappedExpansionStore(file.getPath())) {
+            assertPrefix(expansion(10), store.get("doc-1", 10), 10);
+            assertPrefix(expansion(4), store.get("doc-3", 4), 4);
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PreExpandedDocumentExpanderTest {
+
+    @Test
+    public void resolvesGivenDocsByDocno() {
+        Map<String, Integer> docIds = new HashMap<>();
+        docIds.put("DOC-a", 17);
+        docIds.put("DOC-b", 4);
+
+        // Loaded from a CSV: docnos and scores only
+        SearchHits givenDocs = new SearchHits();
+        for (String docno : new String[] {"DOC-a", "DOC-b"}) {
+            SearchHit hit = new SearchHit();
+            hit.setDocno(docno);
+            hit.setScore(docno.equals("DOC-a") ? 0.75 : 0.5);
+            givenDocs.add(hit);
+        }
+
+        ExpansionList expansionDocs = PreExpandedDocumentExpander.toExpansionList(givenDocs, docIds::get);
+
+        assertEquals(2, expansionDocs.size());
+        assertEquals(17, expansionDocs.getDocId(0));
+        assertEquals(4, expansionDocs.getDocId(1));
+        assertEquals(0.75, expansionDocs.getScore(0), 0.0);
+        assertEquals(0.5, expansionDocs.getScore(1), 0.0);
+    }
+
+    @Test
+    public void keepsTheIdsOfHitsWithoutDocnos() {
+        SearchHits givenDocs = new SearchHits();
+        SearchHit hit = new SearchHit();
+        hit.setDocID(9);
+        hit.setScore(0.25);
+        givenDocs.add(hit);
+
+        ExpansionList expansionDocs = PreExpandedDocumentExpander.toExpansionList(givenDocs, docno -> {
+            throw new AssertionError("Looked up " + docno);
+        });
+
+        assertEquals(9, expansionDocs.getDocId(0));
+        assertEquals(0.25, expansionDocs.getScore(0), 0.0);
+    }
+
+    @Test
+    public void prefixesShareTheirWholeList() {
+        ExpansionList expansionDocs = new ExpansionList(new int[] {1, 2, 3}, new float[] {0.5f, 0.25f, 0.125f});
+
+        assertSame(expansionDocs, expansionDocs.whole());
+        assertSame(expansionDocs, expansionDocs.prefix(2).whole());
+        assertSame(expansionDocs, expansionDocs.prefix(2).prefix(1).whole());
+        assertEquals(1, expansionDocs.prefix(2).prefix(1).size());
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class PseudoQueryBuilderTest {
+
+    private static FeatureVector document() {
+        FeatureVector document = new FeatureVector(null);
+        document.addTerm("the", 10);
+        document.addTerm("apple", 5);
+        document.addTerm("banana", 3);
+        document.addTerm("cherry", 3);
+        document.addTerm("durian", 1);
+        return document;
+    }
+
+    private static Set<String> terms(FeatureVector vector) {
+        Set<String> terms = new HashSet<>();
+        for (String term : vector) {
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    @Test
+    public void keepsTheTopWeightedTerms() {
+        FeatureVector pseudoQuery = new PseudoQueryBuilder(2, null).build(document()).getFeatureVector();
+        assertEquals(new HashSet<>(Arrays.asList("the", "apple")), terms(pseudoQuery));
+        assertEquals(10.0, pseudoQuery.getFeatureWeight("the"), 0.0);
+    }
+
+    @Test
+    public void breaksTiesByTerm() {
+        FeatureVector pseudoQuery = new PseudoQueryBuilder(3, null).build(document()).getFeatureVector();
+        assertEquals(new HashSet<>(Arrays.asList("the", "apple", "banana")), terms(pseudoQuery));
+    }
+
+    @Test
+    public void skipsStopwords() {
+        Stopper stopper = new Stopper() {
+            @Override
+            public boolean isStopWord(String term) {
+                return term.equals("the");
+            }
+        };
+        FeatureVector pseudoQuery = new PseudoQueryBuilder(2, stopper).build(document()).getFeatureVector();
+        assertEquals(new HashSet<>(Arrays.asList("apple", "banana")), terms(pseudoQuery));
+    }
+
+    @Test
+    public void keepsEveryTermOfShortDocuments() {
+        FeatureVector pseudoQuery = new PseudoQueryBuilder(20, null).build(document()).getFeatureVector();
+        assertEquals(5, terms(pseudoQuery).size());
+    }
+
+    @Test
+    public void keepsNoTermsForZeroOrNegativeLengths() {
+        assertEquals(0, terms(new PseudoQueryBuilder(0, null).build(document()).getFeatureVector()).size());
+        assertEquals(0, terms(new PseudoQueryBuilder(-1, null).build(document()).getFeatureVector()).size());
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.retrievable.document_expansion.expansion;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PseudoQueryStoreTest {
+
+    private static final int NUM_DOCS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeatureVector pseudoQuery(int doc) {
+        Random random = new Random(doc);
+        FeatureVector pseudoQuery = new FeatureVector(null);
+        for (int i = 0; i < 1 + doc % 7; i++) {
+            pseudoQuery.addTerm("term-" + random.nextInt(50) + (i % 3 == 0 ? "-\u00e9" : ""), 1 + random.nextInt(20));
+        }
+        return pseudoQuery;
+    }
+
+    private File writeStore() throws IOException {
+        File file = new File(folder.getRoot(), "pseudo-queries");
+        try (PseudoQueryStoreWriter writer = new PseudoQueryStoreWriter(file.getPath())) {
+            // Added out of docno order, and one document twice
+            for (int doc = NUM_DOCS - 1; doc >= 0; doc--) {
+                writer.add("DOC-" + doc, doc == 7 ? pseudoQuery(8) : pseudoQuery(doc));
+            }
+            writer.add("DOC-7", pseudoQuery(7));
+        }
+        return file;
+    }
+
+    private static void assertSameVector(FeatureVector expected, FeatureVector actual) {
+        int terms = 0;
+        for (String term : expected) {
+            assertEquals(expected.getFeatureWeight(term), actual.getFeatureWeight(term), 0.0);
+            terms++;
+        }
+        for (String term : actual) {
+            terms--;
+        }
+        assertEquals(0, terms);
+    }
+
+    private static void assertRoundTrips(PseudoQueryStore store) {
+        assertEquals(NUM_DOCS, store.getNumDocs());
+        for (int doc = 0; doc < NUM_DOCS; doc++) {
+            assertSameVector(pseudoQuery(doc), store.getPseudoQueryVector("DOC-" + doc, null));
+        }
+        assertNull(store.getPseudoQueryVector("DOC-" + NUM_DOCS, null));
+        assertNull(store.getPseudoQueryVector("", null));
+    }
+
+    @Test
+    public void roundTripsPseudoQueries() throws IOException {
+        File file = writeStore();
+        assertTrue(PseudoQueryStore.isPseudoQueryStore(file.getPath()));
+        try (PseudoQueryStore store = new PseudoQueryStore(file.getPath())) {
+            assertRoundTrips(store);
+        }
+    }
+
+    @Test
+    public void readsAcrossChunkBoundaries() throws IOException {
+        File file = writeStore();
+        // 64 byte chunks put most values, strings and records across a boundary
+        try (PseudoQueryStore store = new PseudoQueryStore(file.getPath(), 6)) {
+            assertRoundTrips(store);
+        }
+    }
+
+    @Test
+    public void removesItsTemporaryRecords() throws IOException {
+        writeStore();
+        String[] files = folder.getRoot().list();
+        assertEquals(1, files.length);
+        assertFalse(files[0].endsWith(".records"));
+    }
+
+}
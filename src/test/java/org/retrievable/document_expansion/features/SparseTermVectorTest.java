@@ -0,0 +1,213 @@
+package org.retrievable.document_expansion.features;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import cc.mallet.util.Maths;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SparseTermVectorTest {
+
+	private static final double DELTA = 1e-12;
+
+	private static FeatureVector vector(Object... termsAndWeights) {
+		FeatureVector vector = new FeatureVector(null);
+		for (int i = 0; i < termsAndWeights.length; i += 2) {
+			vector.setTerm((String) termsAndWeights[i], ((Number) termsAndWeights[i + 1]).doubleValue());
+		}
+		return vector;
+	}
+
+	private static FeatureVector randomDistribution(Random random, int vocabularySize, double density) {
+		FeatureVector vector = new FeatureVector(null);
+		double total = 0;
+		for (int term = 0; term < vocabularySize; term++) {
+			if (random.nextDouble() < density) {
+				double weight = random.nextDouble();
+				vector.setTerm("t" + term, weight);
+				total += weight;
+			}
+		}
+		if (total == 0) {
+			vector.setTerm("t0", 1);
+			total = 1;
+		}
+		for (String term : vector.getFeatures()) {
+			vector.setTerm(term, vector.getFeatureWeight(term) / total);
+		}
+		return vector;
+	}
+
+	/**
+	 * The vectors as dense arrays over their combined vocabulary, the way Mallet takes them.
+	 */
+	private static double[][] dense(FeatureVector... vectors) {
+		TreeSet<String> vocabulary = new TreeSet<>();
+		for (FeatureVector vector : vectors) {
+			vocabulary.addAll(vector.getFeatures());
+		}
+		List<String> terms = new ArrayList<>(vocabulary);
+
+		double[][] dense = new double[vectors.length][terms.size()];
+		for (int v = 0; v < vectors.length; v++) {
+			for (int i = 0; i < terms.size(); i++) {
+				dense[v][i] = vectors[v].getFeatureWeight(terms.get(i));
+			}
+		}
+		return dense;
+	}
+
+	private static double denseCosine(double[] a, double[] b) {
+		double dotProduct = 0;
+		double aNorm = 0;
+		double bNorm = 0;
+		for (int i = 0; i < a.length; i++) {
+			dotProduct += a[i] * b[i];
+			aNorm += a[i] * a[i];
+			bNorm += b[i] * b[i];
+		}
+		return dotProduct / Math.sqrt(aNorm * bNorm);
+	}
+
+	private static void assertMatchesMallet(FeatureVector p, FeatureVector q) {
+		SparseTermVector[] sparse = SparseTermVector.pair(p, q);
+		double[][] dense = dense(p, q);
+
+		assertEquals(Maths.klDivergence(dense[0], dense[1]), SparseTermVector.klDivergence(sparse[0], sparse[1]), DELTA);
+		assertEquals(Maths.klDivergence(dense[1], dense[0]), SparseTermVector.klDivergence(sparse[1], sparse[0]), DELTA);
+		assertEquals(Maths.jensenShannonDivergence(dense[0], dense[1]),
+				SparseTermVector.jensenShannonDivergence(sparse[0], sparse[1]), DELTA);
+	}
+
+	@Test
+	public void matchesMalletOnRandomVectors() {
+		Random random = new Random(42);
+		for (int trial = 0; trial < 200; trial++) {
+			// Dense pairs usually share their support and have finite KL; sparse pairs usually do not
+			double density = trial % 2 == 0 ? 0.9 : 0.3;
+			FeatureVector p = randomDistribution(random, 50, density);
+			FeatureVector q = randomDistribution(random, 50, density);
+			assertMatchesMallet(p, q);
+
+			SparseTermVector[] sparse = SparseTermVector.pair(p, q);
+			double[][] dense = dense(p, q);
+			assertEquals(denseCosine(dense[0], dense[1]), SparseTermVector.cosine(sparse[0], sparse[1]), DELTA);
+		}
+	}
+
+	@Test
+	public void matchesMalletOnSharedSupport() {
+		FeatureVector p = vector("a", 0.5, "b", 0.25, "c", 0.25);
+		FeatureVector q = vector("a", 0.25, "b", 0.25, "c", 0.5);
+		assertMatchesMallet(p, q);
+
+		SparseTermVector[] sparse = SparseTermVector.pair(p, q);
+		assertEquals(0.25, SparseTermVector.klDivergence(sparse[0], sparse[1]), DELTA);
+		assertEquals(0.0, SparseTermVector.klDivergence(sparse[0], sparse[0]), DELTA);
+		assertEquals(0.0, SparseTermVector.jensenShannonDivergence(sparse[0], sparse[0]), DELTA);
+	}
+
+	@Test
+	public void matchesMalletOnDisjointSupport() {
+		FeatureVector p = vector("a", 0.5, "b", 0.5);
+		FeatureVector q = vector("c", 0.25, "d", 0.75);
+		assertMatchesMallet(p, q);
+
+		SparseTermVector[] sparse = SparseTermVector.pair(p, q);
+		assertEquals(Double.POSITIVE_INFINITY, SparseTermVector.klDivergence(sparse[0], sparse[1]), 0.0);
+		assertEquals(Double.POSITIVE_INFINITY, SparseTermVector.klDivergence(sparse[1], sparse[0]), 0.0);
+		// Distributions with nothing in common are as far apart as Jensen-Shannon allows: one bit
+		assertEquals(1.0, SparseTermVector.jensenShannonDivergence(sparse[0], sparse[1]), DELTA);
+		assertEquals(0.0, SparseTermVector.cosine(sparse[0], sparse[1]), 0.0);
+	}
+
+	@Test
+	public void matchesMalletWithZeroWeightEntries() {
+		// p's zero-weight entry for "c" contributes nothing, so KL(p || q) stays finite although q lacks "c"
+		FeatureVector p = vector("a", 0.5, "b", 0.5, "c", 0.0);
+		FeatureVector q = vector("a", 0.75, "b", 0.25);
+		assertMatchesMallet(p, q);
+
+		SparseTermVector[] sparse = SparseTermVector.pair(p, q);
+		assertEquals(Maths.klDivergence(new double[] {0.5, 0.5, 0.0}, new double[] {0.75, 0.25, 0.0}),
+				SparseTermVector.klDivergence(sparse[0], sparse[1]), DELTA);
+
+		// A zero-weight entry in q is no better than a missing one
+		FeatureVector r = vector("a", 0.5, "b", 0.5);
+		FeatureVector s = vector("a", 1.0, "b", 0.0);
+		assertMatchesMallet(r, s);
+		sparse = SparseTermVector.pair(r, s);
+		assertEquals(Double.POSITIVE_INFINITY, SparseTermVector.klDivergence(sparse[0], sparse[1]), 0.0);
+	}
+
+	@Test
+	public void cosineOfEmptyVectorIsZero() {
+		SparseTermVector[] sparse = SparseTermVector.numberTogether(vector(), vector("a", 1.0), vector("b", 0.0), vector());
+		assertEquals(0.0, SparseTermVector.cosine(sparse[0], sparse[1]), 0.0);
+		assertEquals(0.0, SparseTermVector.cosine(sparse[1], sparse[0]), 0.0);
+		assertEquals(0.0, SparseTermVector.cosine(sparse[0], sparse[3]), 0.0);
+		// All-zero weights are as empty as no entries
+		assertEquals(0.0, SparseTermVector.cosine(sparse[1], sparse[2]), 0.0);
+		assertEquals(1.0, SparseTermVector.cosine(sparse[1], sparse[1]), DELTA);
+	}
+
+	@Test
+	public void vectorsNumberedTogetherAgreeWithPairs() {
+		Random random = new Random(7);
+		FeatureVector[] vectors = new FeatureVector[5];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = randomDistribution(random, 30, 0.5);
+		}
+
+		SparseTermVector[] together = SparseTermVector.numberTogether(vectors);
+		for (int i = 0; i < vectors.length; i++) {
+			for (int j = 0; j < vectors.length; j++) {
+				SparseTermVector[] pair = SparseTermVector.pair(vectors[i], vectors[j]);
+				assertEquals(SparseTermVector.jensenShannonDivergence(pair[0], pair[1]),
+						SparseTermVector.jensenShannonDivergence(together[i], together[j]), DELTA);
+				assertEquals(SparseTermVector.cosine(pair[0], pair[1]), SparseTermVector.cosine(together[i], together[j]), DELTA);
+			}
+		}
+	}
+
+	@Test
+	public void sumAddsScaledWeightsById() {
+		Random random = new Random(11);
+		FeatureVector[] vectors = new FeatureVector[4];
+		double[] scales = new double[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = randomDistribution(random, 30, 0.4);
+			scales[i] = random.nextDouble();
+		}
+
+		SparseTermVector[] sparse = SparseTermVector.numberTogether(vectors);
+		SparseTermVector sum = SparseTermVector.sum(sparse, scales);
+		for (int i = 1; i < sum.size(); i++) {
+			assertTrue(sum.getId(i - 1) < sum.getId(i));
+		}
+		// Every id of any vector, and one in none
+		for (int id = 0; id <= 30; id++) {
+			double expected = 0;
+			for (int v = 0; v < sparse.length; v++) {
+				expected += scales[v] * sparse[v].weight(id);
+			}
+			assertEquals(expected, sum.weight(id), DELTA);
+		}
+	}
+
+	@Test
+	public void weightOfMissingIdIsZero() {
+		SparseTermVector vector = new SparseTermVector(new int[] {2, 5, 9}, new double[] {0.5, 1.5, 2.5});
+		assertEquals(1.5, vector.weight(5), 0.0);
+		assertEquals(0.0, vector.weight(0), 0.0);
+		assertEquals(0.0, vector.weight(6), 0.0);
+		assertEquals(0.0, vector.weight(10), 0.0);
+	}
+
+}
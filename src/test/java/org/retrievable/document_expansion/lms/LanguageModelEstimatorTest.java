@@ -0,0 +1,171 @@
+package org.retrievable.document_expansion.lms;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+import org.retrievable.document_expansion.features.SparseTermVector;
+import org.retrievable.document_expansion.scoring.DirichletSmoothing;
+import org.retrievable.document_expansion.scoring.DocScorerWithNormalizedScorePrior;
+import org.retrievable.document_expansion.scoring.ExpansionDocScorer;
+import org.retrievable.document_expansion.scoring.ExpansionScoringContext;
+
+import static org.junit.Assert.assertEquals;
+
+public class LanguageModelEstimatorTest {
+
+	private static final double DELTA = 1e-12;
+	private static final double MU = 100;
+
+	/**
+	 * Scores against a fixed context and fixed collection probabilities instead of an expansion index.
+	 */
+	private static class FixedExpansionDocScorer extends ExpansionDocScorer {
+
+		private final ExpansionScoringContext context;
+		private final Map<String, Double> collectionProbabilities;
+
+		FixedExpansionDocScorer(ExpansionScoringContext context, Map<String, Double> collectionProbabilities) {
+			super(context.getMu(), null, (CollectionStats) null);
+			this.context = context;
+			this.collectionProbabilities = collectionProbabilities;
+		}
+
+		@Override
+		public ExpansionScoringContext getScoringContext(SearchHit document, int numDocs) {
+			return context;
+		}
+
+		@Override
+		public double collectionProbability(String term) {
+			return collectionProbabilities.getOrDefault(term, 1e-6);
+		}
+
+	}
+
+	private SearchHit document;
+	private FeatureVector[] vectors;
+	private ExpansionList expansionDocs;
+	private Map<String, Double> collectionProbabilities;
+	private FixedExpansionDocScorer scorer;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(42);
+
+		vectors = new FeatureVector[4];
+		int[] docIds = new int[vectors.length];
+		float[] scores = new float[vectors.length];
+		collectionProbabilities = new HashMap<>();
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = new FeatureVector(null);
+			for (int j = 0; j < 30; j++) {
+				String term = "t" + random.nextInt(40);
+				vectors[i].addTerm(term, 1 + random.nextInt(3));
+				collectionProbabilities.put(term, random.nextDouble() / 100);
+			}
+			docIds[i] = i + 1;
+			scores[i] = -4 - i * 0.3f;
+		}
+		expansionDocs = new ExpansionList(docIds, scores);
+
+		document = new SearchHit();
+		document.setDocno("doc");
+		scorer = new FixedExpansionDocScorer(new ExpansionScoringContext(expansionDocs, vectors, MU), collectionProbabilities);
+	}
+
+	/**
+	 * P(term) from the definition: each expansion document's Dirichlet-smoothed probability, weighted by its prior.
+	 */
+	private double expectedProbability(String term) {
+		double[] priors = DocScorerWithNormalizedScorePrior.normalizedPriors(expansionDocs);
+		double probability = 0;
+		for (int i = 0; i < vectors.length; i++) {
+			probability += priors[i] * DirichletSmoothing.probability(vectors[i].getFeatureWeight(term),
+					vectors[i].getLength(), MU, scorer.collectionProbability(term));
+		}
+		return probability;
+	}
+
+	private static Set<String> terms(FeatureVector vector) {
+		Set<String> terms = new HashSet<>();
+		for (String term : vector) {
+			terms.add(term);
+		}
+		return terms;
+	}
+
+	@Test
+	public void onePassModelEqualsScoringEachTerm() {
+		FeatureVector expansionLM = LanguageModelEstimator.expansionLanguageModel(document, scorer);
+
+		Set<String> vocabulary = new HashSet<>();
+		for (FeatureVector vector : vectors) {
+			vocabulary.addAll(terms(vector));
+		}
+		assertEquals(vocabulary, terms(expansionLM));
+
+		for (String term : vocabulary) {
+			assertEquals(scorer.scoreTerm(term, document), expansionLM.getFeatureWeight(term), DELTA);
+			assertEquals(expectedProbability(term), expansionLM.getFeatureWeight(term), DELTA);
+		}
+	}
+
+	@Test
+	public void onlyEstimatesIncludedTerms() {
+		Set<String> includedTerms = new HashSet<>();
+		includedTerms.add(vectors[0].getFeatures().iterator().next());
+		includedTerms.add(vectors[3].getFeatures().iterator().next());
+		// In no expansion document, so only smoothing gives it probability
+		includedTerms.add("unseen");
+
+		FeatureVector expansionLM = LanguageModelEstimator.expansionLanguageModel(document, scorer, includedTerms);
+
+		assertEquals(includedTerms, terms(expansionLM));
+		for (String term : includedTerms) {
+			assertEquals(scorer.scoreTerm(term, document), expansionLM.getFeatureWeight(term), DELTA);
+		}
+		assertEquals(scorer.getScoringContext(document).getSmoothingWeight() * scorer.collectionProbability("unseen"),
+				expansionLM.getFeatureWeight("unseen"), DELTA);
+	}
+
+	@Test
+	public void repeatedCallsDoNotAccumulate() {
+		FeatureVector first = LanguageModelEstimator.expansionLanguageModel(document, scorer);
+		FeatureVector second = LanguageModelEstimator.expansionLanguageModel(document, scorer);
+
+		assertEquals(terms(first), terms(second));
+		for (String term : first) {
+			assertEquals(first.getFeatureWeight(term), second.getFeatureWeight(term), DELTA);
+		}
+	}
+
+	@Test
+	public void termIdScoresEqualTermScores() {
+		TermDictionary dictionary = TermDictionary.global();
+		Set<String> terms = new HashSet<>(collectionProbabilities.keySet());
+		terms.add("unseen");
+
+		for (String term : terms) {
+			int termId = dictionary.termId(term);
+			assertEquals(scorer.collectionProbability(term), scorer.collectionProbability(termId), 0.0);
+			assertEquals(scorer.scoreTerm(term, document), scorer.scoreTerm(termId, document, vectors.length), DELTA);
+		}
+
+		SparseTermVector byTermId = LanguageModelEstimator.expansionLanguageModelByTermId(document, scorer,
+				dictionary.termIds(terms));
+		assertEquals(terms.size(), byTermId.size());
+		for (String term : terms) {
+			assertEquals(expectedProbability(term), byTermId.weight(dictionary.termId(term)), DELTA);
+		}
+	}
+
+}
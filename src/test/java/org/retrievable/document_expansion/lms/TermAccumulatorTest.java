@@ -0,0 +1,160 @@
+package org.retrievable.document_expansion.lms;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class TermAccumulatorTest {
+
+    private static Set<String> terms(FeatureVector vector) {
+        Set<String> terms = new HashSet<>();
+        for (String term : vector) {
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    /**
+     * The k heaviest terms by sorting everything, ties broken by term.
+     */
+    private static Set<String> sortedTopK(Map<String, Double> weights, int k) {
+        List<String> terms = new ArrayList<>(weights.keySet());
+        terms.sort((term1, term2) -> {
+            int comparison = Double.compare(weights.get(term2), weights.get(term1));
+            return comparison != 0 ? comparison : term1.compareTo(term2);
+        });
+        return new HashSet<>(terms.subList(0, Math.min(k, terms.size())));
+    }
+
+    @Test
+    public void sumsWeightsPerTerm() {
+        TermAccumulator accumulator = new TermAccumulator();
+        accumulator.add("apple", 1.5);
+        accumulator.add("banana", 2.0);
+        accumulator.add("apple", 0.5);
+
+        assertEquals(2, accumulator.size());
+        assertEquals(2.0, accumulator.weight(accumulator.indexOf("apple")), 0.0);
+        assertEquals(2.0, accumulator.toFeatureVector().getFeatureWeight("banana"), 0.0);
+        assertEquals(-1, accumulator.indexOf("cherry"));
+    }
+
+    @Test
+    public void addsScaledVectorsWithoutStopwords() {
+        FeatureVector document = new FeatureVector(null);
+        document.addTerm("the", 4);
+        document.addTerm("apple", 2);
+        Stopper stopper = new Stopper() {
+            @Override
+            public boolean isStopWord(String term) {
+                return term.equals("the");
+            }
+        };
+
+        TermAccumulator accumulator = new TermAccumulator();
+        accumulator.add(document, 0.5, stopper);
+        accumulator.add(document, 0.25, null);
+
+        assertEquals(1.5, accumulator.toFeatureVector().getFeatureWeight("apple"), 0.0);
+        assertEquals(1.0, accumulator.toFeatureVector().getFeatureWeight("the"), 0.0);
+    }
+
+    @Test
+    public void topKMatchesSorting() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 100; trial++) {
+            TermAccumulator accumulator = new TermAccumulator(4);
+            Map<String, Double> weights = new HashMap<>();
+            for (int i = 0; i < 200; i++) {
+                String term = "t" + random.nextInt(80);
+                // Few distinct weights, so many terms tie
+                double weight = random.nextInt(5);
+                accumulator.add(term, weight);
+                weights.merge(term, weight, Double::sum);
+            }
+
+            for (int k : new int[] {1, 5, 10, 40}) {
+                FeatureVector topK = accumulator.topK(k);
+                assertEquals(sortedTopK(weights, k), terms(topK));
+                for (String term : topK) {
+                    assertEquals(weights.get(term), topK.getFeatureWeight(term), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void breaksTiesByTerm() {
+        TermAccumulator accumulator = new TermAccumulator();
+        accumulator.add("cherry", 1);
+        accumulator.add("banana", 1);
+        accumulator.add("durian", 1);
+        accumulator.add("apple", 1);
+
+        Set<String> expected = new HashSet<>();
+        expected.add("apple");
+        expected.add("banana");
+        assertEquals(expected, terms(accumulator.topK(2)));
+    }
+
+    @Test
+    public void keepsEverythingWhenKIsLarge() {
+        TermAccumulator accumulator = new TermAccumulator();
+        accumulator.add("apple", 1);
+        accumulator.add("banana", 2);
+
+        assertEquals(2, terms(accumulator.topK(2)).size());
+        assertEquals(2, terms(accumulator.topK(100)).size());
+        assertEquals(0, terms(accumulator.topK(0)).size());
+        assertEquals(0, terms(accumulator.topK(-1)).size());
+    }
+
+    @Test
+    public void growsPastItsExpectedSize() {
+        TermAccumulator accumulator = new TermAccumulator(2);
+        for (int i = 0; i < 1000; i++) {
+            accumulator.add("t" + i, i);
+        }
+        // "Aa" and "BB" share a hash code, so they must probe past each other
+        accumulator.add("Aa", 1);
+        accumulator.add("BB", 2);
+
+        assertEquals(1002, accumulator.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, accumulator.intern("t" + i));
+            assertEquals((double) i, accumulator.weight(i), 0.0);
+        }
+        assertEquals(1.0, accumulator.weight(accumulator.indexOf("Aa")), 0.0);
+        assertEquals(2.0, accumulator.weight(accumulator.indexOf("BB")), 0.0);
+    }
+
+    @Test
+    public void clearsForReuse() {
+        TermAccumulator accumulator = new TermAccumulator(4);
+        for (int i = 0; i < 100; i++) {
+            accumulator.add("t" + i, 1);
+        }
+        accumulator.clear();
+
+        assertEquals(0, accumulator.size());
+        assertEquals(-1, accumulator.indexOf("t5"));
+        assertEquals(0, terms(accumulator.toFeatureVector()).size());
+
+        accumulator.add("t5", 3);
+        accumulator.add("apple", 2);
+        assertEquals(0, accumulator.indexOf("t5"));
+        assertEquals(3.0, accumulator.weight(0), 0.0);
+        assertEquals(2, terms(accumulator.topK(10)).size());
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.retrievable.document_expansion.lms;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.retrievable.document_expansion.features.SparseTermVector;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshot;
+import org.retrievable.document_expansion.scoring.CollectionStatsSnapshotWriter;
+import org.retrievable.document_expansion.scoring.DirichletSmoothing;
+import org.retrievable.document_expansion.scoring.ExpansionDocScorer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TermDictionaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Other tests may have interned terms into the global dictionary, which would keep it from being seeded
+    @Before
+    @After
+    public void resetGlobal() {
+        TermDictionary.resetGlobal();
+    }
+
+    private static FeatureVector document(Object... termsAndCounts) {
+        FeatureVector document = new FeatureVector(null);
+        for (int i = 0; i < termsAndCounts.length; i += 2) {
+            document.addTerm((String) termsAndCounts[i], ((Number) termsAndCounts[i + 1]).doubleValue());
+        }
+        return document;
+    }
+
+    private CollectionStatsSnapshot writeSnapshot(String name, FeatureVector... documents) throws IOException {
+        CollectionStatsSnapshotWriter writer = new CollectionStatsSnapshotWriter();
+        for (FeatureVector document : documents) {
+            writer.addDocument(document);
+        }
+        File snapshot = folder.newFile(name);
+        writer.write(snapshot.getPath());
+        return new CollectionStatsSnapshot(snapshot.getPath());
+    }
+
+    private CollectionStatsSnapshot writeSnapshot() throws IOException {
+        return writeSnapshot("stats.snapshot", document("apple", 2, "banana", 1), document("cherry", 4, "\u00e9clair", 3));
+    }
+
+    @Test
+    public void numbersTermsDenselyInFirstSeenOrder() {
+        TermDictionary dictionary = new TermDictionary(null);
+        assertEquals(0, dictionary.termId("banana"));
+        assertEquals(1, dictionary.termId("apple"));
+        assertEquals(0, dictionary.termId("banana"));
+        assertEquals(2, dictionary.size());
+        assertEquals("apple", dictionary.getTerm(1));
+    }
+
+    @Test
+    public void seededIdsAreSnapshotIds() throws IOException {
+        try (CollectionStatsSnapshot snapshot = writeSnapshot()) {
+            TermDictionary dictionary = new TermDictionary(snapshot);
+            // Unseen terms come after every index term, whatever order they are looked up in
+            assertEquals(snapshot.getNumTerms(), dictionary.termId("durian"));
+            for (int termId = snapshot.getNumTerms() - 1; termId >= 0; termId--) {
+                assertEquals(termId, dictionary.termId(snapshot.getTerm(termId)));
+                assertEquals(snapshot.getTerm(termId), dictionary.getTerm(termId));
+            }
+            assertEquals(snapshot.getNumTerms() + 1, dictionary.termId("fig"));
+            assertEquals("durian", dictionary.getTerm(snapshot.getNumTerms()));
+            assertEquals(snapshot.getNumTerms() + 2, dictionary.size());
+        }
+    }
+
+    @Test
+    public void concurrentInterningAgrees() throws Exception {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            terms.add("t" + i);
+        }
+
+        TermDictionary dictionary = new TermDictionary(null);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            List<String> order = new ArrayList<>(terms);
+            Collections.shuffle(order, new Random(thread));
+            results.add(pool.submit(() -> {
+                int[] ids = new int[terms.size()];
+                for (String term : order) {
+                    ids[Integer.parseInt(term.substring(1))] = dictionary.termId(term);
+                }
+                return ids;
+            }));
+        }
+        List<int[]> ids = new ArrayList<>();
+        for (Future<int[]> result : results) {
+            ids.add(result.get());
+        }
+        pool.shutdown();
+
+        for (int[] threadIds : ids) {
+            assertArrayEquals(ids.get(0), threadIds);
+        }
+        // Every id from 0 to the number of terms handed out once, and naming its term
+        assertEquals(terms.size(), dictionary.size());
+        boolean[] seen = new boolean[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            int termId = ids.get(0)[i];
+            assertFalse(seen[termId]);
+            seen[termId] = true;
+            assertEquals(terms.get(i), dictionary.getTerm(termId));
+        }
+    }
+
+    @Test
+    public void roundTripsVectors() {
+        TermDictionary dictionary = new TermDictionary(null);
+        dictionary.termId("cherry");
+        FeatureVector vector = new FeatureVector(null);
+        vector.addTerm("banana", 2);
+        vector.addTerm("apple", 1.5);
+        vector.addTerm("cherry", 3);
+
+        SparseTermVector sparse = dictionary.toSparse(vector);
+        assertEquals(3.0, sparse.weight(dictionary.termId("cherry")), 0.0);
+        FeatureVector back = dictionary.toFeatureVector(sparse);
+        assertEquals(3, back.getFeatures().size());
+        for (String term : vector) {
+            assertEquals(vector.getFeatureWeight(term), back.getFeatureWeight(term), 0.0);
+        }
+
+        // In increasing order, whichever order the terms come in
+        int[] termIds = dictionary.termIds(Arrays.asList("durian", "apple", "cherry"));
+        int[] expected = {dictionary.termId("apple"), dictionary.termId("cherry"), dictionary.termId("durian")};
+        Arrays.sort(expected);
+        assertArrayEquals(expected, termIds);
+        assertEquals(3, dictionary.termId("durian"));
+    }
+
+    @Test
+    public void seedsTheGlobalDictionaryOnlyWhileEmpty() throws IOException {
+        try (CollectionStatsSnapshot snapshot = writeSnapshot();
+             CollectionStatsSnapshot other = writeSnapshot("other.snapshot", document("zebra", 1))) {
+            TermDictionary seeded = TermDictionary.seedGlobal(snapshot);
+            assertTrue(TermDictionary.global().isSeededWith(snapshot));
+            assertSame(seeded, TermDictionary.seedGlobal(snapshot));
+
+            seeded.termId("apple");
+            TermDictionary.seedGlobal(other);
+            assertTrue(TermDictionary.global().isSeededWith(snapshot));
+        }
+    }
+
+    @Test
+    public void seededCollectionProbabilitiesReadTheSnapshot() throws IOException {
+        try (CollectionStatsSnapshot snapshot = writeSnapshot()) {
+            TermDictionary dictionary = TermDictionary.seedGlobal(snapshot);
+            ExpansionDocScorer scorer = new ExpansionDocScorer(100, null, snapshot);
+            for (String term : Arrays.asList("apple", "cherry", "\u00e9clair", "durian")) {
+                assertEquals(DirichletSmoothing.collectionProbability(snapshot, term),
+                        scorer.collectionProbability(dictionary.termId(term)), 0.0);
+                assertEquals(scorer.collectionProbability(term),
+                        scorer.collectionProbability(dictionary.termId(term)), 0.0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.retrievable.document_expansion.output;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedRunWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void writeRun(File directory, boolean binary, String shardName, String queryTitle) throws IOException {
+        ShardedRunWriter writer = new ShardedRunWriter(directory, binary, shardName);
+        writer.write("origW:0.5,expDocs:10", queryTitle, new String[] {"doc-1", "doc-2"}, new double[] {-1.0, -2.0});
+        writer.close();
+    }
+
+    private static int countBinaryRecords(File file) throws IOException {
+        int records = 0;
+        try (BinaryRunReader reader = new BinaryRunReader(new FileInputStream(file))) {
+            while (reader.next()) {
+                assertArrayEquals(new double[] {-1.0, -2.0}, reader.getScores(), 0.0);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    @Test
+    public void truncatesTextShardsWhenReopened() throws IOException {
+        File directory = folder.newFolder("runs");
+        writeRun(directory, false, null, "301");
+        writeRun(directory, false, null, "302");
+
+        List<String> lines = Files.readAllLines(new File(directory, "origW:0.5,expDocs:10.run").toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("302 "));
+    }
+
+    @Test
+    public void truncatesBinaryShardsWhenReopened() throws IOException {
+        File directory = folder.newFolder("runs");
+        writeRun(directory, true, null, "301");
+        writeRun(directory, true, null, "302");
+
+        assertEquals(1, countBinaryRecords(new File(directory, "origW:0.5,expDocs:10.bin")));
+    }
+
+    @Test
+    public void keepsEachProcessShardSeparate() throws IOException {
+        File directory = folder.newFolder("runs");
+        writeRun(directory, true, "0/2", "301");
+        writeRun(directory, true, "1/2", "302");
+
+        assertEquals(1, countBinaryRecords(new File(directory, "origW:0.5,expDocs:10.0_2.bin")));
+        assertEquals(1, countBinaryRecords(new File(directory, "origW:0.5,expDocs:10.1_2.bin")));
+        assertFalse(new File(directory, "origW:0.5,expDocs:10.bin").exists());
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchExpansionScorerTest {
+
+    private static final double DELTA = 1e-12;
+    private static final double MU = 100;
+
+    /**
+     * Serves fixed expansions out of a small pool of expansion documents instead of an expansion index.
+     */
+    private static class FixedExpansionDocScorer extends ExpansionDocScorer {
+
+        private final Map<SearchHit, ExpansionList> expansionLists;
+        private final FeatureVector[] vectors;
+        private final Map<String, Double> collectionProbabilities;
+
+        FixedExpansionDocScorer(Map<SearchHit, ExpansionList> expansionLists, FeatureVector[] vectors,
+                                Map<String, Double> collectionProbabilities) {
+            super(MU, null, (CollectionStats) null);
+            this.expansionLists = expansionLists;
+            this.vectors = vectors;
+            this.collectionProbabilities = collectionProbabilities;
+        }
+
+        @Override
+        public ExpansionList getExpansionList(SearchHit document) {
+            return expansionLists.get(document);
+        }
+
+        @Override
+        public ExpansionScoringContext getScoringContext(SearchHit document, int numDocs) {
+            ExpansionList expansionDocs = expansionLists.get(document);
+            FeatureVector[] documentVectors = new FeatureVector[expansionDocs.size()];
+            for (int i = 0; i < documentVectors.length; i++) {
+                documentVectors[i] = vectors[expansionDocs.getDocId(i)];
+            }
+            return new ExpansionScoringContext(expansionDocs, documentVectors, MU);
+        }
+
+        @Override
+        FeatureVector getExpansionVector(int docId) {
+            return vectors[docId];
+        }
+
+        @Override
+        public double collectionProbability(String term) {
+            return collectionProbabilities.getOrDefault(term, 1e-6);
+        }
+
+    }
+
+    private SearchHits documents;
+    private FixedExpansionDocScorer scorer;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        // Few expansion documents for many results, so most are shared between results
+        FeatureVector[] vectors = new FeatureVector[8];
+        Map<String, Double> collectionProbabilities = new HashMap<>();
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = new FeatureVector(null);
+            for (int j = 0; j < 25; j++) {
+                String term = "t" + random.nextInt(30);
+                vectors[i].addTerm(term, 1 + random.nextInt(3));
+                collectionProbabilities.put(term, random.nextDouble() / 100);
+            }
+        }
+
+        documents = new SearchHits();
+        Map<SearchHit, ExpansionList> expansionLists = new HashMap<>();
+        for (int d = 0; d < 12; d++) {
+            SearchHit document = new SearchHit();
+            document.setDocno("doc" + d);
+            documents.add(document);
+
+            // Some results have no expansion documents at all
+            int size = d % 5;
+            int[] docIds = new int[size];
+            float[] scores = new float[size];
+            for (int i = 0; i < size; i++) {
+                docIds[i] = random.nextInt(vectors.length);
+                scores[i] = -3 - i - random.nextFloat();
+            }
+            expansionLists.put(document, new ExpansionList(docIds, scores));
+        }
+
+        scorer = new FixedExpansionDocScorer(expansionLists, vectors, collectionProbabilities);
+    }
+
+    @Test
+    public void matrixEqualsScoringEachTerm() {
+        // Terms in some expansion documents, and one in none
+        String[] terms = {"t0", "t3", "t17", "t29", "unseen"};
+        double[][] probabilities = new BatchExpansionScorer(scorer).scoreTerms(documents, terms);
+
+        assertEquals(documents.size(), probabilities.length);
+        for (int d = 0; d < documents.size(); d++) {
+            for (int t = 0; t < terms.length; t++) {
+                assertEquals(scorer.scoreTerm(terms[t], documents.getHit(d)), probabilities[d][t], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void scoresNoTerms() {
+        double[][] probabilities = new BatchExpansionScorer(scorer).scoreTerms(documents, new String[0]);
+
+        assertEquals(documents.size(), probabilities.length);
+        assertEquals(0, probabilities[0].length);
+    }
+
+}
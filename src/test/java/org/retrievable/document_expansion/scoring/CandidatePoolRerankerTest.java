@@ -0,0 +1,206 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DirichletDocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CandidatePoolRerankerTest {
+
+    private static final double DELTA = 1e-9;
+
+    /**
+     * Statistics summed over the given documents.
+     */
+    private static class DocumentCollectionStats extends CollectionStats {
+
+        private final Map<String, Double> termCounts = new HashMap<>();
+
+        DocumentCollectionStats(SearchHits documents) {
+            for (SearchHit document : documents) {
+                for (String term : document.getFeatureVector()) {
+                    termCounts.merge(term, document.getFeatureVector().getFeatureWeight(term), Double::sum);
+                }
+                tokCount += document.getFeatureVector().getLength();
+                docCount++;
+            }
+            termTypeCount = termCounts.size();
+        }
+
+        @Override
+        public void setStatSource(String statSource) {
+        }
+
+        @Override
+        public double termCount(String term) {
+            return termCounts.getOrDefault(term, 0.0);
+        }
+
+        @Override
+        public double docCount(String term) {
+            return termCounts.containsKey(term) ? 1.0 : 0.0;
+        }
+
+    }
+
+    private SearchHits collection;
+    private CollectionStats collectionStats;
+    private List<GQuery> queries;
+
+    private static GQuery query(Object... termsAndWeights) {
+        FeatureVector vector = new FeatureVector(null);
+        for (int i = 0; i < termsAndWeights.length; i += 2) {
+            vector.addTerm((String) termsAndWeights[i], ((Number) termsAndWeights[i + 1]).doubleValue());
+        }
+        GQuery query = new GQuery();
+        query.setTitle("301");
+        query.setFeatureVector(vector);
+        return query;
+    }
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        collection = new SearchHits();
+        for (int d = 0; d < 60; d++) {
+            FeatureVector vector = new FeatureVector(null);
+            for (int j = 0; j < 40; j++) {
+                vector.addTerm("t" + random.nextInt(50), 1 + random.nextInt(3));
+            }
+            SearchHit document = new SearchHit();
+            document.setDocno("doc" + d);
+            document.setDocID(d + 1);
+            document.setFeatureVector(vector);
+            collection.add(document);
+        }
+        collectionStats = new DocumentCollectionStats(collection);
+
+        // RM3 queries of one topic at a few depths, sharing the original query's terms
+        queries = Arrays.asList(
+                query("t1", 0.5, "t2", 0.5),
+                query("t1", 0.3, "t2", 0.3, "t9", 0.25, "t14", 0.15),
+                query("t1", 0.2, "t2", 0.25, "t9", 0.1, "t30", 0.3, "t41", 0.15));
+    }
+
+    /**
+     * Full retrieval: every document of the collection scored by Dirichlet query likelihood, as Indri would.
+     */
+    private SearchHits fullRetrieval(GQuery query, int numResults) {
+        List<SearchHit> ranked = new ArrayList<>();
+        for (SearchHit document : collection) {
+            double logLikelihood = 0;
+            for (String term : query.getFeatureVector()) {
+                logLikelihood += query.getFeatureVector().getFeatureWeight(term) * Math.log(DirichletSmoothing.probability(
+                        document.getFeatureVector().getFeatureWeight(term), document.getFeatureVector().getLength(),
+                        DirichletSmoothing.DEFAULT_MU, DirichletSmoothing.collectionProbability(collectionStats, term)));
+            }
+            SearchHit hit = new SearchHit();
+            hit.setDocno(document.getDocno());
+            hit.setDocID(document.getDocID());
+            hit.setScore(logLikelihood);
+            hit.setFeatureVector(document.getFeatureVector());
+            ranked.add(hit);
+        }
+        ranked.sort((hit1, hit2) -> Double.compare(hit2.getScore(), hit1.getScore()));
+
+        SearchHits results = new SearchHits();
+        for (SearchHit hit : ranked.subList(0, Math.min(numResults, ranked.size()))) {
+            results.add(hit);
+        }
+        return results;
+    }
+
+    private CandidatePoolReranker.Candidates candidates(SearchHits pool) {
+        return new CandidatePoolReranker.Candidates(pool, new DirichletDocScorer(collectionStats));
+    }
+
+    private static void assertSameRanking(SearchHits expected, SearchHits actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getHit(i).getDocno(), actual.getHit(i).getDocno());
+            assertEquals(expected.getHit(i).getScore(), actual.getHit(i).getScore(), DELTA);
+        }
+    }
+
+    @Test
+    public void unionQueryTakesEachTermsLargestWeight() {
+        GQuery union = CandidatePoolReranker.unionQuery("301", queries);
+
+        assertEquals("301", union.getTitle());
+        assertEquals(new HashSet<>(Arrays.asList("t1", "t2", "t9", "t14", "t30", "t41")),
+                new HashSet<>(union.getFeatureVector().getFeatures()));
+        double total = 0.5 + 0.5 + 0.25 + 0.15 + 0.3 + 0.15;
+        assertEquals(0.5 / total, union.getFeatureVector().getFeatureWeight("t1"), DELTA);
+        assertEquals(0.25 / total, union.getFeatureVector().getFeatureWeight("t9"), DELTA);
+        assertEquals(0.3 / total, union.getFeatureVector().getFeatureWeight("t30"), DELTA);
+    }
+
+    @Test
+    public void rerankingEveryDocumentMatchesFullRetrieval() {
+        CandidatePoolReranker.Candidates candidates = candidates(fullRetrieval(
+                CandidatePoolReranker.unionQuery("301", queries), collection.size()));
+        for (GQuery query : queries) {
+            SearchHits reranked = candidates.rerank(query, 10);
+            assertSameRanking(fullRetrieval(query, 10), reranked);
+            assertEquals("overlap@10=1.0 overlap@100=1.0 overlap@1000=1.0",
+                    CandidatePoolReranker.agreement(fullRetrieval(query, 10), reranked));
+        }
+    }
+
+    @Test
+    public void rerankingAPoolRanksItsDocumentsAsFullRetrievalDoes() {
+        CandidatePoolReranker.Candidates candidates = candidates(fullRetrieval(
+                CandidatePoolReranker.unionQuery("301", queries), 20));
+        assertEquals(20, candidates.size());
+
+        for (GQuery query : queries) {
+            SearchHits reranked = candidates.rerank(query, 20);
+            Set<String> pool = new HashSet<>();
+            for (SearchHit hit : reranked) {
+                pool.add(hit.getDocno());
+            }
+
+            // Full retrieval's ranking with the documents outside the pool left out
+            SearchHits inPool = new SearchHits();
+            for (SearchHit hit : fullRetrieval(query, collection.size())) {
+                if (pool.contains(hit.getDocno())) {
+                    inPool.add(hit);
+                }
+            }
+            assertSameRanking(inPool, reranked);
+        }
+    }
+
+    @Test
+    public void agreementCountsSharedTopDocuments() {
+        SearchHits full = fullRetrieval(queries.get(0), 10);
+        SearchHits reranked = new SearchHits();
+        for (int i = 0; i < 10; i++) {
+            // Two of full retrieval's documents replaced by others
+            reranked.add(i < 8 ? full.getHit(i) : fullRetrieval(queries.get(0), 20).getHit(i + 10));
+        }
+
+        String agreement = CandidatePoolReranker.agreement(full, reranked);
+        assertTrue(agreement, agreement.startsWith("overlap@10=0.8 "));
+        assertEquals("overlap@10=1.0 overlap@100=1.0 overlap@1000=1.0",
+                CandidatePoolReranker.agreement(new SearchHits(), new SearchHits()));
+    }
+
+}
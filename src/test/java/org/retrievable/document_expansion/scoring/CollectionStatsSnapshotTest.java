@@ -0,0 +1,129 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CollectionStatsSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeatureVector document(Object... termsAndCounts) {
+        FeatureVector document = new FeatureVector(null);
+        for (int i = 0; i < termsAndCounts.length; i += 2) {
+            document.addTerm((String) termsAndCounts[i], ((Number) termsAndCounts[i + 1]).doubleValue());
+        }
+        return document;
+    }
+
+    private File writeSnapshot() throws IOException {
+        CollectionStatsSnapshotWriter writer = new CollectionStatsSnapshotWriter();
+        writer.addDocument(document("apple", 2, "banana", 1, "\u00e9clair", 3));
+        writer.addDocument(document("apple", 1, "cherry", 4));
+        writer.addDocument(document("zebra", 1, "Apple", 5));
+
+        File snapshot = folder.newFile("stats.snapshot");
+        writer.write(snapshot.getPath());
+        return snapshot;
+    }
+
+    @Test
+    public void roundTripsStatistics() throws IOException {
+        try (CollectionStatsSnapshot stats = new CollectionStatsSnapshot(writeSnapshot().getPath())) {
+            assertEquals(17.0, stats.getTokCount(), 0.0);
+            assertEquals(6.0, stats.getTermTypeCount(), 0.0);
+            assertEquals(3.0, stats.getDocCount(), 0.0);
+            assertEquals(6, stats.getNumTerms());
+
+            assertEquals(3.0, stats.termCount("apple"), 0.0);
+            assertEquals(2.0, stats.docCount("apple"), 0.0);
+            assertEquals(5.0, stats.termCount("Apple"), 0.0);
+            assertEquals(1.0, stats.docCount("Apple"), 0.0);
+            assertEquals(3.0, stats.termCount("\u00e9clair"), 0.0);
+            assertEquals(4.0, stats.termCount("cherry"), 0.0);
+            assertEquals(1.0, stats.docCount("zebra"), 0.0);
+        }
+    }
+
+    @Test
+    public void missingTermsHaveNoStatistics() throws IOException {
+        try (CollectionStatsSnapshot stats = new CollectionStatsSnapshot(writeSnapshot().getPath())) {
+            assertEquals(-1, stats.termId("durian"));
+            assertEquals(-1, stats.termId(""));
+            assertEquals(-1, stats.termId("zebras"));
+            assertEquals(0.0, stats.termCount("durian"), 0.0);
+            assertEquals(0.0, stats.docCount("durian"), 0.0);
+        }
+    }
+
+    @Test
+    public void termIdsAreVocabularyPositions() throws IOException {
+        try (CollectionStatsSnapshot stats = new CollectionStatsSnapshot(writeSnapshot().getPath())) {
+            for (int termId = 0; termId < stats.getNumTerms(); termId++) {
+                String term = stats.getTerm(termId);
+                assertEquals(termId, stats.termId(term));
+                assertEquals(stats.termCount(term), stats.termCount(termId), 0.0);
+                assertEquals(stats.docCount(term), stats.docCount(termId), 0.0);
+            }
+            // Unsigned UTF-8 byte order puts upper case first and accented letters last
+            assertEquals("Apple", stats.getTerm(0));
+            assertEquals("\u00e9clair", stats.getTerm(stats.getNumTerms() - 1));
+        }
+    }
+
+    @Test
+    public void repeatedLookupsAgree() throws IOException {
+        try (CollectionStatsSnapshot stats = new CollectionStatsSnapshot(writeSnapshot().getPath())) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals("cherry", stats.getTerm(stats.termId("cherry")));
+                assertEquals(4.0, stats.termCount("cherry"), 0.0);
+                assertEquals(-1, stats.termId("durian"));
+                assertEquals(0.0, stats.docCount("durian"), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void readsAcrossChunkBoundaries() throws IOException {
+        File snapshot = writeSnapshot();
+        try (CollectionStatsSnapshot whole = new CollectionStatsSnapshot(snapshot.getPath());
+             // 16 byte chunks put most offsets, counts and terms across a boundary
+             CollectionStatsSnapshot chunked = new CollectionStatsSnapshot(snapshot.getPath(), 4)) {
+            assertEquals(whole.getTokCount(), chunked.getTokCount(), 0.0);
+            assertEquals(whole.getDocCount(), chunked.getDocCount(), 0.0);
+            assertEquals(whole.getNumTerms(), chunked.getNumTerms());
+            for (int termId = 0; termId < whole.getNumTerms(); termId++) {
+                String term = whole.getTerm(termId);
+                assertEquals(term, chunked.getTerm(termId));
+                assertEquals(termId, chunked.termId(term));
+                assertEquals(whole.termCount(term), chunked.termCount(term), 0.0);
+                assertEquals(whole.docCount(term), chunked.docCount(term), 0.0);
+            }
+            assertEquals(-1, chunked.termId("durian"));
+        }
+    }
+
+    @Test
+    public void ignoresNewStatSources() throws IOException {
+        try (CollectionStatsSnapshot stats = new CollectionStatsSnapshot(writeSnapshot().getPath())) {
+            stats.setStatSource("/some/index");
+            assertEquals(3.0, stats.termCount("apple"), 0.0);
+        }
+    }
+
+    @Test
+    public void recognizesSnapshots() throws IOException {
+        assertTrue(CollectionStatsSnapshot.isSnapshot(writeSnapshot().getPath()));
+        assertFalse(CollectionStatsSnapshot.isSnapshot(folder.newFile("empty").getPath()));
+    }
+
+}
@@ -0,0 +1,190 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DirichletDocScorer;
+import edu.gslis.scoring.DocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+import org.retrievable.document_expansion.lms.InterpolationWeights;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ComponentScoreTableTest {
+
+    private static final double DELTA = 1e-9;
+    private static final double MU = 100;
+
+    /**
+     * Statistics summed over the given vectors.
+     */
+    private static class VectorCollectionStats extends CollectionStats {
+
+        private final Map<String, Double> termCounts = new HashMap<>();
+
+        VectorCollectionStats(FeatureVector[] vectors) {
+            for (FeatureVector vector : vectors) {
+                for (String term : vector) {
+                    termCounts.merge(term, vector.getFeatureWeight(term), Double::sum);
+                }
+                tokCount += vector.getLength();
+                docCount++;
+            }
+            termTypeCount = termCounts.size();
+        }
+
+        @Override
+        public void setStatSource(String statSource) {
+        }
+
+        @Override
+        public double termCount(String term) {
+            return termCounts.getOrDefault(term, 0.0);
+        }
+
+        @Override
+        public double docCount(String term) {
+            return termCounts.containsKey(term) ? 1.0 : 0.0;
+        }
+
+    }
+
+    /**
+     * Serves fixed expansions out of a small pool of expansion documents instead of an expansion index.
+     */
+    private static class FixedExpansionDocScorer extends ExpansionDocScorer {
+
+        private final Map<SearchHit, ExpansionList> expansionLists;
+        private final FeatureVector[] vectors;
+
+        FixedExpansionDocScorer(Map<SearchHit, ExpansionList> expansionLists, FeatureVector[] vectors) {
+            super(MU, null, new VectorCollectionStats(vectors));
+            this.expansionLists = expansionLists;
+            this.vectors = vectors;
+        }
+
+        @Override
+        public ExpansionList getExpansionList(SearchHit document) {
+            return expansionLists.get(document);
+        }
+
+        @Override
+        public ExpansionScoringContext getScoringContext(SearchHit document, int numDocs) {
+            ExpansionList expansionDocs = expansionLists.get(document);
+            FeatureVector[] documentVectors = new FeatureVector[expansionDocs.size()];
+            for (int i = 0; i < documentVectors.length; i++) {
+                documentVectors[i] = vectors[expansionDocs.getDocId(i)];
+            }
+            return new ExpansionScoringContext(expansionDocs, documentVectors, MU);
+        }
+
+        @Override
+        FeatureVector getExpansionVector(int docId) {
+            return vectors[docId];
+        }
+
+    }
+
+    private GQuery query;
+    private SearchHits documents;
+    private List<DocScorer> components;
+
+    private static FeatureVector randomVector(Random random, int length) {
+        FeatureVector vector = new FeatureVector(null);
+        for (int j = 0; j < length; j++) {
+            vector.addTerm("t" + random.nextInt(30), 1 + random.nextInt(3));
+        }
+        return vector;
+    }
+
+    private FixedExpansionDocScorer randomExpansionScorer(Random random) {
+        FeatureVector[] vectors = new FeatureVector[8];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random, 25);
+        }
+
+        Map<SearchHit, ExpansionList> expansionLists = new HashMap<>();
+        for (SearchHit document : documents) {
+            int size = 1 + random.nextInt(4);
+            int[] docIds = new int[size];
+            float[] scores = new float[size];
+            for (int i = 0; i < size; i++) {
+                docIds[i] = random.nextInt(vectors.length);
+                scores[i] = -3 - i - random.nextFloat();
+            }
+            expansionLists.put(document, new ExpansionList(docIds, scores));
+        }
+        return new FixedExpansionDocScorer(expansionLists, vectors);
+    }
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        FeatureVector[] documentVectors = new FeatureVector[15];
+        documents = new SearchHits();
+        for (int d = 0; d < documentVectors.length; d++) {
+            documentVectors[d] = randomVector(random, 20);
+            SearchHit document = new SearchHit();
+            document.setDocno("doc" + d);
+            document.setDocID(d + 1);
+            document.setScore(-5 - d * 0.1);
+            document.setFeatureVector(documentVectors[d]);
+            documents.add(document);
+        }
+
+        FeatureVector queryVector = new FeatureVector(null);
+        queryVector.addTerm("t1", 1);
+        queryVector.addTerm("t7", 2);
+        queryVector.addTerm("unseen", 1);
+        query = new GQuery();
+        query.setFeatureVector(queryVector);
+
+        // The original document model and two expansion indexes, as in RunExpandedRetrieval
+        components = Arrays.asList(
+                new DirichletDocScorer(MU, new VectorCollectionStats(documentVectors)),
+                randomExpansionScorer(random),
+                randomExpansionScorer(random));
+    }
+
+    private static void assertSameRanking(SearchHits expected, SearchHits actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getHit(i).getDocno(), actual.getHit(i).getDocno());
+            assertEquals(expected.getHit(i).getDocID(), actual.getHit(i).getDocID());
+            assertEquals(expected.getHit(i).getScore(), actual.getHit(i).getScore(), DELTA);
+        }
+    }
+
+    @Test
+    public void everyWeightCombinationMatchesRescoring() {
+        ComponentScoreTable table = new ComponentScoreTable(query, documents, components);
+        for (List<Double> weights : InterpolationWeights.weights(components.size())) {
+            SearchHits rescored = ParallelReranker.rerankOnCallingThread(query, documents,
+                    new FixedWeightInterpolatedScorer(components, weights));
+            assertSameRanking(rescored, table.rankedCopy(weights));
+        }
+    }
+
+    @Test
+    public void leavesTheDocumentsAsGiven() {
+        ComponentScoreTable table = new ComponentScoreTable(query, documents, components);
+        table.rankedCopy(Arrays.asList(0.2, 0.5, 0.3));
+
+        for (int d = 0; d < documents.size(); d++) {
+            assertEquals("doc" + d, documents.getHit(d).getDocno());
+            assertEquals(-5 - d * 0.1, documents.getHit(d).getScore(), 0.0);
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.scoring.DirichletDocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+import org.retrievable.document_expansion.lms.TermDictionary;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExpansionScoringContextTest {
+
+    private static final double DELTA = 1e-12;
+    private static final double MU = 100;
+
+    private static final String[] TERMS = {"t0", "t4", "t11", "t23", "t39", "unseen"};
+
+    /**
+     * Statistics summed over the given documents.
+     */
+    private static class DocumentCollectionStats extends CollectionStats {
+
+        private final Map<String, Double> termCounts = new HashMap<>();
+
+        DocumentCollectionStats(FeatureVector[] documents) {
+            for (FeatureVector document : documents) {
+                for (String term : document) {
+                    termCounts.merge(term, document.getFeatureWeight(term), Double::sum);
+                }
+                tokCount += document.getLength();
+                docCount++;
+            }
+            termTypeCount = termCounts.size();
+        }
+
+        @Override
+        public void setStatSource(String statSource) {
+        }
+
+        @Override
+        public double termCount(String term) {
+            return termCounts.getOrDefault(term, 0.0);
+        }
+
+        @Override
+        public double docCount(String term) {
+            return termCounts.containsKey(term) ? 1.0 : 0.0;
+        }
+
+    }
+
+    private FeatureVector[] vectors;
+    private CollectionStats collectionStats;
+    private ExpansionList expansionDocs;
+    private SearchHits expansionHits;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        vectors = new FeatureVector[6];
+        int[] docIds = new int[vectors.length];
+        float[] scores = new float[vectors.length];
+        expansionHits = new SearchHits();
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = new FeatureVector(null);
+            for (int j = 0; j < 30; j++) {
+                vectors[i].addTerm("t" + random.nextInt(40), 1 + random.nextInt(3));
+            }
+            docIds[i] = i + 1;
+            scores[i] = -4 - i * 0.4f - random.nextFloat();
+
+            SearchHit hit = new SearchHit();
+            hit.setDocID(docIds[i]);
+            hit.setScore(scores[i]);
+            hit.setFeatureVector(vectors[i]);
+            expansionHits.add(hit);
+        }
+        expansionDocs = new ExpansionList(docIds, scores);
+        collectionStats = new DocumentCollectionStats(vectors);
+    }
+
+    /**
+     * The score the way ExpansionDocScorer computed it before the context: a Dirichlet scorer with each expansion
+     * document's normalized score as its prior, summed over the expansion documents.
+     */
+    private double scoreWithPriorScorer(String term, SearchHits expansionHits) {
+        DocScorerWithNormalizedScorePrior scorer = new DocScorerWithNormalizedScorePrior(
+                new DirichletDocScorer(MU, collectionStats));
+        scorer.setDocuments(expansionHits);
+
+        double total = 0;
+        for (SearchHit hit : expansionHits) {
+            total += scorer.scoreTerm(term, hit);
+        }
+        return total;
+    }
+
+    @Test
+    public void matchesThePriorWeightedDirichletScorer() {
+        ExpansionScoringContext context = new ExpansionScoringContext(expansionDocs, vectors, MU);
+        for (String term : TERMS) {
+            assertEquals(scoreWithPriorScorer(term, expansionHits),
+                    context.scoreTerm(term, DirichletSmoothing.collectionProbability(collectionStats, term)), DELTA);
+        }
+    }
+
+    @Test
+    public void matchesForEveryNumberOfExpansionDocuments() {
+        for (int numDocs = 1; numDocs <= vectors.length; numDocs++) {
+            int[] docIds = new int[numDocs];
+            float[] scores = new float[numDocs];
+            FeatureVector[] topVectors = new FeatureVector[numDocs];
+            SearchHits topHits = new SearchHits();
+            for (int i = 0; i < numDocs; i++) {
+                docIds[i] = expansionDocs.getDocId(i);
+                scores[i] = expansionDocs.getScore(i);
+                topVectors[i] = vectors[i];
+                topHits.add(expansionHits.getHit(i));
+            }
+
+            ExpansionScoringContext context = new ExpansionScoringContext(new ExpansionList(docIds, scores), topVectors, MU);
+            for (String term : TERMS) {
+                assertEquals(scoreWithPriorScorer(term, topHits),
+                        context.scoreTerm(term, DirichletSmoothing.collectionProbability(collectionStats, term)), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void scoresByTermIdAsByTerm() {
+        ExpansionScoringContext context = new ExpansionScoringContext(expansionDocs, vectors, MU);
+        for (String term : TERMS) {
+            double collectionProbability = DirichletSmoothing.collectionProbability(collectionStats, term);
+            assertEquals(context.scoreTerm(term, collectionProbability),
+                    context.scoreTerm(TermDictionary.global().termId(term), collectionProbability), DELTA);
+        }
+    }
+
+    @Test
+    public void noExpansionDocumentsScoreZero() {
+        ExpansionScoringContext context = new ExpansionScoringContext(new ExpansionList(new int[0], new float[0]),
+                new FeatureVector[0], MU);
+        assertEquals(0.0, context.getSmoothingWeight(), 0.0);
+        assertEquals(0.0, context.scoreTerm("t0", 0.01), 0.0);
+    }
+
+}
@@ -0,0 +1,252 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.queries.GQuery;
+import edu.gslis.scoring.DirichletDocScorer;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.retrievable.document_expansion.expansion.DocumentExpander;
+import org.retrievable.document_expansion.expansion.ExpansionList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelRerankerTest {
+
+    private static final double DELTA = 1e-9;
+    private static final double MU = 100;
+    private static final int NUM_THREADS = 8;
+
+    /**
+     * Statistics summed over the given vectors.
+     */
+    private static class VectorCollectionStats extends CollectionStats {
+
+        private final Map<String, Double> termCounts = new HashMap<>();
+
+        VectorCollectionStats(FeatureVector[] vectors) {
+            for (FeatureVector vector : vectors) {
+                for (String term : vector) {
+                    termCounts.merge(term, vector.getFeatureWeight(term), Double::sum);
+                }
+                tokCount += vector.getLength();
+                docCount++;
+            }
+            termTypeCount = termCounts.size();
+        }
+
+        @Override
+        public void setStatSource(String statSource) {
+        }
+
+        @Override
+        public double termCount(String term) {
+            return termCounts.getOrDefault(term, 0.0);
+        }
+
+        @Override
+        public double docCount(String term) {
+            return termCounts.containsKey(term) ? 1.0 : 0.0;
+        }
+
+    }
+
+    /**
+     * Expands each document with fixed expansion documents instead of an expansion index, counting the expansions.
+     */
+    private static class FixedDocumentExpander extends DocumentExpander {
+
+        private final Map<String, ExpansionList> expansionLists;
+        private final AtomicInteger expansionCount = new AtomicInteger();
+
+        FixedDocumentExpander(Map<String, ExpansionList> expansionLists) {
+            super(null, 20, null);
+            this.expansionLists = expansionLists;
+        }
+
+        @Override
+        public ExpansionList getExpansionList(SearchHit document, int numDocs) {
+            expansionCount.incrementAndGet();
+            return expansionLists.get(document.getDocno()).prefix(numDocs);
+        }
+
+    }
+
+    private GQuery query;
+    private SearchHits documents;
+    private FeatureVector[] documentVectors;
+    private FeatureVector[] expansionVectors;
+    private Map<String, ExpansionList> expansionLists;
+
+    private static FeatureVector randomVector(Random random, int length) {
+        FeatureVector vector = new FeatureVector(null);
+        for (int j = 0; j < length; j++) {
+            vector.addTerm("t" + random.nextInt(30), 1 + random.nextInt(3));
+        }
+        return vector;
+    }
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        documentVectors = new FeatureVector[40];
+        documents = new SearchHits();
+        for (int d = 0; d < documentVectors.length; d++) {
+            documentVectors[d] = randomVector(random, 20);
+            SearchHit document = new SearchHit();
+            document.setDocno("doc" + d);
+            document.setDocID(d + 1);
+            document.setScore(-5 - d * 0.1);
+            document.setFeatureVector(documentVectors[d]);
+            documents.add(document);
+        }
+
+        expansionVectors = new FeatureVector[12];
+        for (int i = 0; i < expansionVectors.length; i++) {
+            expansionVectors[i] = randomVector(random, 25);
+        }
+        expansionLists = new HashMap<>();
+        for (SearchHit document : documents) {
+            int size = 1 + random.nextInt(5);
+            int[] docIds = new int[size];
+            float[] scores = new float[size];
+            for (int i = 0; i < size; i++) {
+                docIds[i] = random.nextInt(expansionVectors.length);
+                scores[i] = -3 - i - random.nextFloat();
+            }
+            expansionLists.put(document.getDocno(), new ExpansionList(docIds, scores));
+        }
+
+        FeatureVector queryVector = new FeatureVector(null);
+        queryVector.addTerm("t1", 1);
+        queryVector.addTerm("t7", 2);
+        queryVector.addTerm("t22", 1);
+        queryVector.addTerm("unseen", 1);
+        query = new GQuery();
+        query.setFeatureVector(queryVector);
+    }
+
+    private ExpansionDocScorer expansionScorer(DocumentExpander expander) {
+        return new ExpansionDocScorer(MU, expander, new VectorCollectionStats(expansionVectors)) {
+            @Override
+            FeatureVector getExpansionVector(int docId) {
+                return expansionVectors[docId];
+            }
+        };
+    }
+
+    /**
+     * The original document model interpolated with its expansions, as in RunExpandedRetrieval.
+     */
+    private FixedWeightInterpolatedScorer interpolatedScorer(ExpansionDocScorer expansionScorer) {
+        return new FixedWeightInterpolatedScorer(
+                Arrays.asList(new DirichletDocScorer(MU, new VectorCollectionStats(documentVectors)), expansionScorer),
+                Arrays.asList(0.6, 0.4));
+    }
+
+    private static void assertSameRanking(SearchHits expected, SearchHits actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getHit(i).getDocno(), actual.getHit(i).getDocno());
+            assertEquals(expected.getHit(i).getDocID(), actual.getHit(i).getDocID());
+            assertEquals(expected.getHit(i).getScore(), actual.getHit(i).getScore(), DELTA);
+        }
+    }
+
+    /**
+     * Reranks the documents many times over from several threads at once with the one scorer.
+     */
+    private List<SearchHits> rerankConcurrently(WarmableDocScorer scorer) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            List<Future<SearchHits>> reranked = new ArrayList<>();
+            for (int i = 0; i < NUM_THREADS * 10; i++) {
+                reranked.add(threads.submit(() -> ParallelReranker.rerankOnCallingThread(query, documents, scorer)));
+            }
+
+            List<SearchHits> results = new ArrayList<>();
+            for (Future<SearchHits> result : reranked) {
+                results.add(result.get());
+            }
+            return results;
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedWarmScorersRerankAsOnOneThread() throws Exception {
+        SearchHits expected = ParallelReranker.rerankOnCallingThread(query, documents,
+                interpolatedScorer(expansionScorer(new FixedDocumentExpander(expansionLists))));
+
+        FixedDocumentExpander expander = new FixedDocumentExpander(expansionLists);
+        FixedWeightInterpolatedScorer scorer = interpolatedScorer(expansionScorer(expander));
+        scorer.warmUp(query, documents);
+        assertEquals(documents.size(), expander.expansionCount.get());
+
+        for (SearchHits reranked : rerankConcurrently(scorer)) {
+            assertSameRanking(expected, reranked);
+        }
+        // Everything came from the warmed caches
+        assertEquals(documents.size(), expander.expansionCount.get());
+    }
+
+    @Test
+    public void sharedColdScorersExpandEachDocumentOnce() throws Exception {
+        SearchHits expected = ParallelReranker.rerankOnCallingThread(query, documents,
+                interpolatedScorer(expansionScorer(new FixedDocumentExpander(expansionLists))));
+
+        FixedDocumentExpander expander = new FixedDocumentExpander(expansionLists);
+        ExpansionDocScorer expansionScorer = expansionScorer(expander);
+        for (SearchHits reranked : rerankConcurrently(interpolatedScorer(expansionScorer))) {
+            assertSameRanking(expected, reranked);
+        }
+        assertEquals(documents.size(), expander.expansionCount.get());
+    }
+
+    @Test
+    public void scorersOfDifferentDepthsShareOneExpansionScorer() throws Exception {
+        FixedDocumentExpander expander = new FixedDocumentExpander(expansionLists);
+        ExpansionDocScorer expansionScorer = expansionScorer(expander);
+
+        for (int numDocs = 1; numDocs <= 5; numDocs++) {
+            // A scorer of its own whose expansions hold no more than numDocs documents to begin with
+            Map<String, ExpansionList> shallowLists = new HashMap<>();
+            for (Map.Entry<String, ExpansionList> expansionList : expansionLists.entrySet()) {
+                shallowLists.put(expansionList.getKey(), expansionList.getValue().prefix(numDocs));
+            }
+            SearchHits expected = ParallelReranker.rerankOnCallingThread(query, documents,
+                    expansionScorer(new FixedDocumentExpander(shallowLists)));
+
+            for (SearchHits reranked : rerankConcurrently(expansionScorer.withNumDocs(numDocs))) {
+                assertSameRanking(expected, reranked);
+            }
+        }
+    }
+
+    @Test
+    public void leavesTheDocumentsAsGiven() throws Exception {
+        rerankConcurrently(interpolatedScorer(expansionScorer(new FixedDocumentExpander(expansionLists))));
+
+        for (int d = 0; d < documents.size(); d++) {
+            assertEquals("doc" + d, documents.getHit(d).getDocno());
+            assertEquals(d + 1, documents.getHit(d).getDocID());
+            assertEquals(-5 - d * 0.1, documents.getHit(d).getScore(), 0.0);
+        }
+    }
+
+}
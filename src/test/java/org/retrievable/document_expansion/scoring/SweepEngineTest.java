@@ -0,0 +1,130 @@
+package org.retrievable.document_expansion.scoring;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import org.junit.Test;
+import org.retrievable.document_expansion.lms.InterpolationWeights;
+import org.retrievable.document_expansion.output.RunWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SweepEngineTest {
+
+    /**
+     * Keeps everything written, in the order it was written.
+     */
+    private static class RecordingRunWriter implements RunWriter {
+
+        private final List<String> runIds = new ArrayList<>();
+        private final List<String> docnos = new ArrayList<>();
+        private final Set<String> writingThreads = new HashSet<>();
+
+        @Override
+        public void write(String runId, String queryTitle, String[] docnos, double[] scores) {
+            runIds.add(runId);
+            this.docnos.add(docnos[0]);
+            writingThreads.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    private static ParameterGrid grid() {
+        return new ParameterGrid()
+                .queryWeights(Arrays.asList(0.0, 0.5))
+                .numDocs(ParameterGrid.range(10, 50, 20))
+                .interpolationWeights(InterpolationWeights.weights(2));
+    }
+
+    @Test
+    public void walksTheGridInWritingOrder() {
+        List<SweepPoint> points = grid().points();
+
+        assertEquals(2 * 3 * 11, points.size());
+        assertEquals(new SweepPoint(0.0, 10, 0, 0, 0.0, Arrays.asList(0.0, 1.0)), points.get(0));
+        // Interpolation weights vary fastest, query weights slowest
+        assertEquals(10, points.get(10).getNumDocs());
+        assertEquals(30, points.get(11).getNumDocs());
+        assertEquals(0.5, points.get(33).getQueryWeight(), 0.0);
+        assertEquals(10, points.get(33).getNumDocs());
+        assertEquals(points.size(), new HashSet<>(points).size());
+    }
+
+    @Test
+    public void rangesIncludeBothEnds() {
+        assertEquals(Arrays.asList(10, 20, 30), ParameterGrid.range(10, 30, 10));
+        assertEquals(Arrays.asList(5, 3, 1), ParameterGrid.range(5, 1, -2));
+        assertEquals(Collections.singletonList(7), ParameterGrid.range(7, 7, 1));
+        assertEquals(11, ParameterGrid.tenths().size());
+        assertEquals(0.3, ParameterGrid.tenths().get(3), 0.0);
+    }
+
+    @Test
+    public void writesResultsInPointOrderWhateverTheyFinishIn() {
+        List<SweepPoint> points = grid().points();
+        RecordingRunWriter out = new RecordingRunWriter();
+
+        try (SweepEngine engine = new SweepEngine(4)) {
+            engine.run(points, point -> {
+                // Later points often finish first
+                try {
+                    Thread.sleep(new Random(point.hashCode()).nextInt(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                SearchHit hit = new SearchHit();
+                hit.setDocno(point.toString());
+                SearchHits results = new SearchHits();
+                results.add(hit);
+                return results;
+            }, point -> "run-" + point, out, "301");
+        }
+
+        assertEquals(points.size(), out.runIds.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals("run-" + points.get(i), out.runIds.get(i));
+            assertEquals(points.get(i).toString(), out.docnos.get(i));
+        }
+        // Writing stays on the calling thread, so writers need not be thread-safe
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), out.writingThreads);
+    }
+
+    @Test
+    public void failedPointsStopTheSweep() {
+        List<SweepPoint> points = grid().points();
+        RecordingRunWriter out = new RecordingRunWriter();
+
+        try (SweepEngine engine = new SweepEngine(2)) {
+            engine.run(points, point -> {
+                if (point.getNumDocs() == 30) {
+                    throw new IllegalStateException("No expansions");
+                }
+                SearchHit hit = new SearchHit();
+                hit.setDocno("doc");
+                SearchHits results = new SearchHits();
+                results.add(hit);
+                return results;
+            }, SweepPoint::toString, out, "301");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("301"));
+            // Everything before the failed point was written
+            assertEquals(11, out.runIds.size());
+            return;
+        }
+        fail("The sweep carried on past a failed point");
+    }
+
+}